@@ -14,9 +14,11 @@ import java.util.Map;
 public class SubscriptionResponseInformation implements Serializable {
     public static final String HEADER_ID = "Subscription-Id";
     public static final String HEADER_AMOUNT = "Subscriptions-Found-Amount";
+    public static final String HEADER_NEXT_CURSOR = "Subscriptions-Next-Cursor";
 
     private HttpStatus code;
     private List<Subscription> subscriptionData;
+    private List<Map<String, Object>> projectedData;
     private Map<String, String> payload;
     private String message;
 
@@ -49,6 +51,11 @@ public class SubscriptionResponseInformation implements Serializable {
         return this;
     }
 
+    public SubscriptionResponseInformation withProjectedData(List<Map<String, Object>> projectedData) {
+        this.setProjectedData(projectedData);
+        return this;
+    }
+
     public SubscriptionResponseInformation havingInThePayload(String key, String value) {
         this.setPayload(key, value);
         return this;
@@ -90,6 +97,14 @@ public class SubscriptionResponseInformation implements Serializable {
     public void setSubscriptionData(List<Subscription> subscriptionData) {
         this.subscriptionData = subscriptionData;
     }
+
+    public List<Map<String, Object>> getProjectedData() {
+        return projectedData;
+    }
+
+    public void setProjectedData(List<Map<String, Object>> projectedData) {
+        this.projectedData = projectedData;
+    }
     // </editor-fold>
 
 }
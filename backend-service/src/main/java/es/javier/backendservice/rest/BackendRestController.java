@@ -5,6 +5,7 @@ import es.javier.backendservice.exception.UnexpectedErrorException;
 import es.javier.backendservice.model.Subscription;
 import es.javier.backendservice.service.SubscriptionRestService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -18,6 +19,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.validation.Valid;
 import java.util.List;
 
+import static es.javier.backendservice.model.SubscriptionResponseInformation.HEADER_NEXT_CURSOR;
+
 /**
  * Rest controller that exposes the functionality to a frontend or whatever service we want to use.
  */
@@ -30,12 +33,17 @@ public class BackendRestController {
     @Autowired
     private SubscriptionRestService subscriptionRestService;
 
-    @Operation(summary = "Gets all subscriptions in the system")
+    @Operation(summary = "Gets a page of the subscriptions in the system (or of a newsletter), ordered by id. The next " +
+            "page can be requested using the value of the header " + HEADER_NEXT_CURSOR + " as the 'after' parameter")
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200", description = "Found 1 or more items",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Subscription[].class))}
             ),
+            @ApiResponse(
+                    responseCode = "400", description = "Unknown fields requested",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            ),
             @ApiResponse(
                     responseCode = "404", description = "No items found",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
@@ -50,8 +58,19 @@ public class BackendRestController {
             )
     })
     @GetMapping
-    public ResponseEntity<List<Subscription>> getAll() throws UnexpectedErrorException, ConnectionException {
-        return subscriptionRestService.getAll();
+    public ResponseEntity<?> getAll( //
+            @Parameter(description = "Id of the newsletter to get the subscriptions of") //
+            @RequestParam(required = false) Long newsletterId, //
+            @Parameter(description = "Id of the last subscription of the previous page") //
+            @RequestParam(required = false) Long after, //
+            @Parameter(description = "Maximum amount of subscriptions to return") //
+            @RequestParam(required = false) Integer limit, //
+            @Parameter(description = "Fields of the subscriptions to return (comma separated). If given, only those " +
+                    "fields of every subscription are returned") //
+            @RequestParam(required = false) List<String> fields) throws UnexpectedErrorException, ConnectionException {
+        return (fields == null || fields.isEmpty()) //
+                ? subscriptionRestService.getAll(newsletterId, after, limit) //
+                : subscriptionRestService.getAllProjected(fields, newsletterId, after, limit);
     }
 
     @Operation(summary = "Gets the subscription with the id specified")
@@ -60,6 +79,10 @@ public class BackendRestController {
                     responseCode = "200", description = "Found an item",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Subscription[].class))}
             ),
+            @ApiResponse(
+                    responseCode = "400", description = "Unknown fields requested",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            ),
             @ApiResponse(
                     responseCode = "404", description = "No items found",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
@@ -74,8 +97,13 @@ public class BackendRestController {
             )
     })
     @GetMapping("{id}")
-    public ResponseEntity<List<Subscription>> getEntityById(@PathVariable Long id) throws UnexpectedErrorException, ConnectionException {
-        return subscriptionRestService.getOne(id);
+    public ResponseEntity<?> getEntityById(@PathVariable Long id, //
+            @Parameter(description = "Fields of the subscription to return (comma separated). If given, only those " +
+                    "fields are returned") //
+            @RequestParam(required = false) List<String> fields) throws UnexpectedErrorException, ConnectionException {
+        return (fields == null || fields.isEmpty()) //
+                ? subscriptionRestService.getOne(id) //
+                : subscriptionRestService.getOneProjected(fields, id);
     }
 
     @Operation(summary = "Persists the Subscription in the request body if it was not in the database; if it was already in the system, that one is returned, without any change happenning in the data layer")
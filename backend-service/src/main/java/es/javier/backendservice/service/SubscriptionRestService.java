@@ -14,11 +14,16 @@ import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.ConnectException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+
+import static es.javier.backendservice.model.SubscriptionResponseInformation.HEADER_NEXT_CURSOR;
 
 /**
  * Service that consumes the Subscription api that interacts with the database and creates a response with the
@@ -47,10 +52,15 @@ public class SubscriptionRestService {
     @Value("${endpoint.root}")
     private String root;
 
-    public ResponseEntity<List<Subscription>> getAll() throws ConnectionException, UnexpectedErrorException {
+    /**
+     * Gets a page of subscriptions, optionally only of a newsletter. The cursor to request the next page, if any, is passed through in the
+     * {@link SubscriptionResponseInformation#HEADER_NEXT_CURSOR} header.
+     */
+    public ResponseEntity<List<Subscription>> getAll(Long newsletterId, Long after, Integer limit) throws ConnectionException, UnexpectedErrorException {
         try {
-            ResponseEntity<SubscriptionResponseInformation> response = restTemplate.getForEntity(getUrl(), SubscriptionResponseInformation.class);
-            return parseResponseWithSubscriptionData(response.getBody());
+            ResponseEntity<SubscriptionResponseInformation> response = restTemplate.getForEntity( //
+                    getUrl(null, newsletterId, after, limit), SubscriptionResponseInformation.class);
+            return parseResponseWithSubscriptionData(response.getBody(), response.getHeaders());
         } catch (HttpClientErrorException ex) {
             switch (ex.getStatusCode()) {
                 case NOT_FOUND:
@@ -71,6 +81,21 @@ public class SubscriptionRestService {
         }
     }
 
+    /**
+     * Same as {@link #getAll(Long, Long, Integer)}, but only the given fields of the subscriptions are requested.
+     */
+    public ResponseEntity<List<Map<String, Object>>> getAllProjected(List<String> fields, Long newsletterId, Long after, //
+                                                                     Integer limit) throws ConnectionException, UnexpectedErrorException {
+        return getProjected(getUrl(fields, newsletterId, after, limit));
+    }
+
+    /**
+     * Same as {@link #getOne(Long)}, but only the given fields of the subscription are requested.
+     */
+    public ResponseEntity<List<Map<String, Object>>> getOneProjected(List<String> fields, Long id) throws ConnectionException, UnexpectedErrorException {
+        return getProjected(getUrl(id, fields));
+    }
+
     public ResponseEntity<List<Subscription>> getOne(Long id) throws ConnectionException, UnexpectedErrorException {
         try {
             ResponseEntity<SubscriptionResponseInformation> response = restTemplate.getForEntity(getUrl(id), SubscriptionResponseInformation.class);
@@ -176,12 +201,78 @@ public class SubscriptionRestService {
         return String.format("%s/%d", getUrl(), id);
     }
 
+    private URI getUrl(Long id, List<String> fields) {
+        return UriComponentsBuilder.fromHttpUrl(getUrl(id)) //
+                .queryParam("fields", String.join(",", fields)) //
+                .build() //
+                .encode() //
+                .toUri();
+    }
+
+    /**
+     * The values are encoded, and the URI is not expanded as a template, so the fields requested by the clients are
+     * always sent as the value of their parameter.
+     */
+    private URI getUrl(List<String> fields, Long newsletterId, Long after, Integer limit) {
+        return UriComponentsBuilder.fromHttpUrl(getUrl()) //
+                .queryParamIfPresent("fields", Optional.ofNullable(fields).map(list -> String.join(",", list))) //
+                .queryParamIfPresent("newsletterId", Optional.ofNullable(newsletterId)) //
+                .queryParamIfPresent("after", Optional.ofNullable(after)) //
+                .queryParamIfPresent("limit", Optional.ofNullable(limit)) //
+                .build() //
+                .encode() //
+                .toUri();
+    }
+
+    private ResponseEntity<List<Map<String, Object>>> getProjected(URI url) throws ConnectionException, UnexpectedErrorException {
+        try {
+            ResponseEntity<SubscriptionResponseInformation> response = restTemplate.getForEntity(url, SubscriptionResponseInformation.class);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+
+            if (response.getHeaders().getFirst(HEADER_NEXT_CURSOR) != null) {
+                headers.add(HEADER_NEXT_CURSOR, response.getHeaders().getFirst(HEADER_NEXT_CURSOR));
+            }
+
+            return new ResponseEntity<>(response.getBody().getProjectedData(), headers, response.getBody().getCode());
+        } catch (HttpClientErrorException ex) {
+            switch (ex.getStatusCode()) {
+                case BAD_REQUEST:
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+                case NOT_FOUND:
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+                case UNAUTHORIZED:
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+                case INTERNAL_SERVER_ERROR:
+                default:
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+            }
+        } catch (Exception ex) {
+            if (ex.getCause().getClass().equals(ConnectException.class)) {
+                logger.error("API cannot be reached!");
+                throw new ConnectionException("Error when connecting to the API");
+            }
+            logger.error("Unexpected API error!");
+            throw new UnexpectedErrorException("Unexpected error happened when connecting to the API");
+        }
+    }
+
     private ResponseEntity<List<Subscription>> parseResponseWithSubscriptionData(SubscriptionResponseInformation apiResponse) {
+        return parseResponseWithSubscriptionData(apiResponse, null);
+    }
+
+    private ResponseEntity<List<Subscription>> parseResponseWithSubscriptionData(SubscriptionResponseInformation apiResponse, //
+                                                                                HttpHeaders apiHeaders) {
         HttpStatus code = apiResponse.getCode();
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
 
+        if (apiHeaders != null && apiHeaders.getFirst(HEADER_NEXT_CURSOR) != null) {
+            headers.add(HEADER_NEXT_CURSOR, apiHeaders.getFirst(HEADER_NEXT_CURSOR));
+        }
+
         return new ResponseEntity(apiResponse.getSubscriptionData(), headers, code);
     }
 
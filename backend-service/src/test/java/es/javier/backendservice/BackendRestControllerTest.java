@@ -10,6 +10,7 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -20,8 +21,10 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.nio.charset.StandardCharsets;
 
+import static es.javier.backendservice.model.SubscriptionResponseInformation.HEADER_NEXT_CURSOR;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class BackendRestControllerTest {
@@ -51,11 +54,18 @@ public class BackendRestControllerTest {
         SubscriptionResponseInformation responseWithData = TestUtils.generateResponseWithData( //
                 HttpStatus.OK, 3);
 
-        when(subscriptionService.getAll()) //
-                .thenReturn(new ResponseEntity(responseWithData.getSubscriptionData(), null, HttpStatus.OK));
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HEADER_NEXT_CURSOR, "9");
 
-        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint))
+        when(subscriptionService.getAll(2L, 6L, 3)) //
+                .thenReturn(new ResponseEntity(responseWithData.getSubscriptionData(), headers, HttpStatus.OK));
+
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint) //
+                .param("newsletterId", "2") //
+                .param("after", "6") //
+                .param("limit", "3"))
                 .andExpect(status().isOk())
+                .andExpect(header().string(HEADER_NEXT_CURSOR, "9"))
                 .andReturn();
 
         String jsonExpected = mapper.writeValueAsString(responseWithData.getSubscriptionData());
@@ -71,7 +81,7 @@ public class BackendRestControllerTest {
         SubscriptionResponseInformation emptyResponse = TestUtils.generateResponseWithData( //
                 HttpStatus.NOT_FOUND, 0);
 
-        when(subscriptionService.getAll()) //
+        when(subscriptionService.getAll(null, null, null)) //
                 .thenReturn(new ResponseEntity(emptyResponse.getSubscriptionData(), null, HttpStatus.NOT_FOUND));
 
         MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint))
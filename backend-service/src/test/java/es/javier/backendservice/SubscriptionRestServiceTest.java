@@ -11,13 +11,19 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
+import static es.javier.backendservice.model.SubscriptionResponseInformation.HEADER_NEXT_CURSOR;
 import static org.mockito.Mockito.when;
 
 public class SubscriptionRestServiceTest {
@@ -31,6 +37,11 @@ public class SubscriptionRestServiceTest {
     @BeforeEach
     public void setup() {
         MockitoAnnotations.initMocks(this);
+
+        // Properties won't be read in a test
+        ReflectionTestUtils.setField(subscriptionService, "host", "http://localhost");
+        ReflectionTestUtils.setField(subscriptionService, "port", "8081");
+        ReflectionTestUtils.setField(subscriptionService, "root", "rest/subscriptions");
     }
 
     @Test
@@ -38,11 +49,11 @@ public class SubscriptionRestServiceTest {
         SubscriptionResponseInformation responseData = TestUtils.generateResponseWithData( //
                 HttpStatus.OK, 3);
 
-        when(mockTemplate.getForEntity(getUrl(), SubscriptionResponseInformation.class)) //
+        when(mockTemplate.getForEntity(URI.create(getUrl()), SubscriptionResponseInformation.class)) //
                 .thenReturn(new ResponseEntity(responseData, HttpStatus.OK));
 
         try {
-            ResponseEntity<List<Subscription>> response = subscriptionService.getAll();
+            ResponseEntity<List<Subscription>> response = subscriptionService.getAll(null, null, null);
             Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
             Assertions.assertEquals(3, response.getBody().size());
         } catch (ConnectionException | UnexpectedErrorException e) {
@@ -55,11 +66,11 @@ public class SubscriptionRestServiceTest {
         SubscriptionResponseInformation responseData = TestUtils.generateResponseWithData( //
                 HttpStatus.NOT_FOUND, 0);
 
-        when(mockTemplate.getForEntity(getUrl(), SubscriptionResponseInformation.class)) //
+        when(mockTemplate.getForEntity(URI.create(getUrl()), SubscriptionResponseInformation.class)) //
                 .thenReturn(new ResponseEntity(responseData, HttpStatus.NOT_FOUND));
 
         try {
-            ResponseEntity<List<Subscription>> response = subscriptionService.getAll();
+            ResponseEntity<List<Subscription>> response = subscriptionService.getAll(null, null, null);
             Assertions.assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
             Assertions.assertNull(response.getBody());
         } catch (ConnectionException | UnexpectedErrorException e) {
@@ -67,6 +78,87 @@ public class SubscriptionRestServiceTest {
         }
     }
 
+    @Test
+    public void testGetAllPassesTheCursorThrough() {
+        SubscriptionResponseInformation responseData = TestUtils.generateResponseWithData( //
+                HttpStatus.OK, 3);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HEADER_NEXT_CURSOR, "9");
+
+        when(mockTemplate.getForEntity(URI.create(getUrl() + "?newsletterId=2&after=6&limit=3"), //
+                SubscriptionResponseInformation.class)) //
+                .thenReturn(new ResponseEntity(responseData, headers, HttpStatus.OK));
+
+        try {
+            ResponseEntity<List<Subscription>> response = subscriptionService.getAll(2L, 6L, 3);
+            Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+            Assertions.assertEquals(3, response.getBody().size());
+            Assertions.assertEquals("9", response.getHeaders().getFirst(HEADER_NEXT_CURSOR));
+        } catch (ConnectionException | UnexpectedErrorException e) {
+            Assertions.fail("No exception should be thrown");
+        }
+    }
+
+    @Test
+    public void testGetAllProjected() {
+        SubscriptionResponseInformation responseData = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .withProjectedData(List.of(Map.of("email", "a@test.com", "newsletterId", 2)));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HEADER_NEXT_CURSOR, "9");
+
+        when(mockTemplate.getForEntity(URI.create(getUrl() + "?fields=email,newsletterId&newsletterId=2&limit=1"), //
+                SubscriptionResponseInformation.class)) //
+                .thenReturn(new ResponseEntity(responseData, headers, HttpStatus.OK));
+
+        try {
+            ResponseEntity<List<Map<String, Object>>> response = subscriptionService //
+                    .getAllProjected(List.of("email", "newsletterId"), 2L, null, 1);
+            Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+            Assertions.assertEquals(responseData.getProjectedData(), response.getBody());
+            Assertions.assertEquals("9", response.getHeaders().getFirst(HEADER_NEXT_CURSOR));
+        } catch (ConnectionException | UnexpectedErrorException e) {
+            Assertions.fail("No exception should be thrown");
+        }
+    }
+
+    @Test
+    public void testGetOneProjectedUnknownField() {
+        when(mockTemplate.getForEntity(URI.create(getUrl(1L) + "?fields=password"), SubscriptionResponseInformation.class)) //
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+
+        try {
+            ResponseEntity<List<Map<String, Object>>> response = subscriptionService //
+                    .getOneProjected(List.of("password"), 1L);
+            Assertions.assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            Assertions.assertNull(response.getBody());
+        } catch (ConnectionException | UnexpectedErrorException e) {
+            Assertions.fail("No exception should be thrown");
+        }
+    }
+
+    @Test
+    public void testGetAllProjectedEncodesTheFields() {
+        SubscriptionResponseInformation responseData = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .withProjectedData(List.of());
+
+        // Neither a template variable nor another parameter
+        when(mockTemplate.getForEntity(URI.create(getUrl() + "?fields=%7Bx%7D,email%26newsletterId%3D5"), //
+                SubscriptionResponseInformation.class)) //
+                .thenReturn(new ResponseEntity(responseData, HttpStatus.OK));
+
+        try {
+            ResponseEntity<List<Map<String, Object>>> response = subscriptionService //
+                    .getAllProjected(List.of("{x}", "email&newsletterId=5"), null, null, null);
+            Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        } catch (ConnectionException | UnexpectedErrorException e) {
+            Assertions.fail("No exception should be thrown");
+        }
+    }
+
     @Test
     public void testGetOne() {
         SubscriptionResponseInformation responseData = TestUtils.generateResponseWithData( //
@@ -204,8 +296,7 @@ public class SubscriptionRestServiceTest {
     }
 
     private String getUrl() {
-        // Properties won't be read in a test
-        return String.format("%s:%s/%s", null, null, null);
+        return "http://localhost:8081/rest/subscriptions";
     }
 
     private String getUrl(Long id) {
@@ -0,0 +1,153 @@
+#!/usr/bin/python3
+
+from argparse import ArgumentParser
+from base64 import b64encode
+from collections import Counter
+from json import dumps
+from threading import Thread, Lock
+from time import perf_counter
+from urllib.error import HTTPError, URLError
+from urllib.request import Request, urlopen
+from uuid import uuid4
+
+## Default target: the subscription-service as exposed by docker-compose
+DEFAULT_URL = "http://localhost:38081/rest/subscriptions"
+
+## Credentials accepted by the services (see the Readme)
+DEFAULT_USER = "Postman"
+DEFAULT_TOKEN = "PostmanToken"
+
+## Load shape
+DEFAULT_THREADS = 32
+DEFAULT_REQUESTS = 200
+## Amount of distinct emails shared by every thread in the contention scenario
+DEFAULT_HOT_EMAILS = 5
+
+
+def parse_args():
+    parser = ArgumentParser(description="Simple load generator to compare the latency of the APIs between builds")
+    parser.add_argument("scenario", choices=sorted(SCENARIOS.keys()))
+    parser.add_argument("--url", default=DEFAULT_URL)
+    parser.add_argument("--compare-url", help="run the same load against this url afterwards, to compare both builds "
+                                              "(e.g. the servlet and the reactive stacks) side by side")
+    parser.add_argument("--user", default=DEFAULT_USER)
+    parser.add_argument("--token", default=DEFAULT_TOKEN)
+    parser.add_argument("--threads", type=int, default=DEFAULT_THREADS)
+    parser.add_argument("--requests", type=int, default=DEFAULT_REQUESTS, help="requests sent by every thread")
+    parser.add_argument("--hot-emails", type=int, default=DEFAULT_HOT_EMAILS)
+    return parser.parse_args()
+
+
+def send(method, url, auth, body=None):
+    data = None if body is None else dumps(body).encode("utf-8")
+    request = Request(url, data=data, method=method)
+    request.add_header("Authorization", auth)
+    request.add_header("Content-Type", "application/json")
+
+    start = perf_counter()
+    try:
+        with urlopen(request) as response:
+            response.read()
+            status = response.status
+    except HTTPError as e:
+        status = e.code
+    except URLError:
+        status = "connection error"
+
+    return status, perf_counter() - start
+
+
+def subscription(email):
+    return {"email": email, "consent": True, "birthdate": "1990-01-01", "newsletterId": 1}
+
+
+## Every thread creates the same few emails at the same time, plus some new ones
+def create_contention(options, worker, iteration, auth):
+    if iteration % 4 == 0:
+        email = f"load-{uuid4()}@fakemail.com"
+    else:
+        email = f"hot-{iteration % options.hot_emails}-{options.run_id}@fakemail.com"
+
+    return send("POST", options.url, auth, subscription(email))
+
+
+## Dashboards polling the amount of subscriptions, half with HEAD and half with ?countOnly=true
+def count_poll(options, worker, iteration, auth):
+    if iteration % 2 == 0:
+        return send("HEAD", options.url, auth)
+
+    return send("GET", options.url + "?countOnly=true", auth)
+
+
+## Reads that keep the request threads blocked in the database (or in the subscription-service API, when the
+## backend-service is the target). Run it against both thread modes with more threads than the Tomcat pool (200)
+def blocking_reads(options, worker, iteration, auth):
+    if iteration % 2 == 0:
+        return send("GET", options.url + "?limit=50", auth)
+
+    return send("GET", f"{options.url}/{1 + iteration % 10}", auth)
+
+
+SCENARIOS = {
+    "blocking-reads": blocking_reads,
+    "count-poll": count_poll,
+    "create-contention": create_contention,
+}
+
+
+def percentile(values, fraction):
+    index = min(len(values) - 1, int(len(values) * fraction))
+    return values[index]
+
+
+def run(options, url):
+    auth = "Basic " + b64encode(f"{options.user}:{options.token}".encode("utf-8")).decode("ascii")
+    scenario = SCENARIOS[options.scenario]
+    options.run_id = uuid4().hex[:8]
+    options.url = url
+
+    latencies = []
+    statuses = Counter()
+    lock = Lock()
+
+    def worker(number):
+        local_latencies = []
+        local_statuses = Counter()
+        for iteration in range(options.requests):
+            status, elapsed = scenario(options, number, iteration, auth)
+            local_latencies.append(elapsed)
+            local_statuses[status] += 1
+        with lock:
+            latencies.extend(local_latencies)
+            statuses.update(local_statuses)
+
+    threads = [Thread(target=worker, args=(number,)) for number in range(options.threads)]
+    start = perf_counter()
+    for thread in threads:
+        thread.start()
+    for thread in threads:
+        thread.join()
+    total = perf_counter() - start
+
+    latencies.sort()
+    result = {"Throughput (req/s)": f"{len(latencies) / total:.1f}"}
+    for name, fraction in (("p50", 0.50), ("p95", 0.95), ("p99", 0.99)):
+        result[f"{name} (ms)"] = f"{percentile(latencies, fraction) * 1000:.1f}"
+    result["max (ms)"] = f"{latencies[-1] * 1000:.1f}"
+    result["Status codes"] = ", ".join(f"{status}={amount}" for status, amount in sorted(statuses.items(), key=str))
+    return result
+
+
+def report(options, urls, results):
+    print(f"Scenario: {options.scenario} ({options.threads} threads x {options.requests} requests)")
+    width = max(len(metric) for metric in results[0])
+    if len(urls) > 1:
+        print(" " * width + "  " + "  |  ".join(urls))
+    for metric in results[0]:
+        print(f"{metric:<{width}}  " + "  |  ".join(result[metric] for result in results))
+
+
+if __name__ == "__main__":
+    options = parse_args()
+    urls = [options.url] + ([options.compare_url] if options.compare_url else [])
+    report(options, urls, [run(options, url) for url in urls])
@@ -1,6 +1,6 @@
 CREATE TABLE SUBSCRIPTIONS
 (
-	SUBSCRIPTION_ID SERIAL PRIMARY KEY,
+	SUBSCRIPTION_ID BIGSERIAL PRIMARY KEY,
 	EMAIL VARCHAR ( 50 ) UNIQUE NOT NULL,
 	FIRST_NAME VARCHAR ( 50 ),
 	GENDER VARCHAR ( 20 ),
@@ -9,5 +9,26 @@ CREATE TABLE SUBSCRIPTIONS
 	NEWSLETTER_ID BIGINT NOT NULL
 );
 
+-- Listing the subscriptions of a newsletter is a range scan on this index, ordered by id for the keyset pagination
+CREATE INDEX SUBSCRIPTIONS_NEWSLETTER_ID_SUBSCRIPTION_ID_IDX ON SUBSCRIPTIONS (NEWSLETTER_ID, SUBSCRIPTION_ID);
+
+-- Notifications of the new subscriptions, written in the same statement as the subscription (transactional outbox).
+-- They are published to the broker by the relay of the subscription-service, which marks them as sent
+CREATE TABLE SUBSCRIPTION_OUTBOX
+(
+	OUTBOX_ID BIGSERIAL PRIMARY KEY,
+	SUBSCRIPTION_ID BIGINT NOT NULL,
+	CREATED_AT TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	SENT_AT TIMESTAMP,
+	-- Until then, the relay that claimed the notification is publishing it
+	CLAIMED_UNTIL TIMESTAMP
+);
+
+-- The relay only reads the pending notifications, oldest first
+CREATE INDEX SUBSCRIPTION_OUTBOX_PENDING_IDX ON SUBSCRIPTION_OUTBOX (OUTBOX_ID) WHERE SENT_AT IS NULL;
+
+-- The application reserves blocks of 50 ids per call to the sequence (pooled-lo optimizer), so inserts can be batched
+ALTER SEQUENCE SUBSCRIPTIONS_SUBSCRIPTION_ID_SEQ INCREMENT BY 50;
+
 INSERT INTO SUBSCRIPTIONS(EMAIL, FIRST_NAME, GENDER, BIRTHDATE, CONSENT, NEWSLETTER_ID) VALUES ('JohnDoe@fakemail.com', 'John', 'Male', '1990-04-04', TRUE, 1);
 INSERT INTO SUBSCRIPTIONS(EMAIL, BIRTHDATE, CONSENT, NEWSLETTER_ID) VALUES ('JaneDoe@fakemail.com', '1990-12-25', TRUE, 2);
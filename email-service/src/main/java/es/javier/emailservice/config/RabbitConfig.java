@@ -1,29 +1,46 @@
 package es.javier.emailservice.config;
 
-import org.springframework.amqp.core.Binding;
-import org.springframework.amqp.core.BindingBuilder;
-import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Config class for connecting to RabbitMQ
+ * It declares the queues of the messages that could not be handled, which are sent through the default exchange (the
+ * routing key is the name of the queue), so they never reach the input queue again by mistake:
+ * - The revision queue (spring.rabbitmq.queue.dlq), for the messages that can never be handled (not readable, or
+ * invalid subscriptions).
+ * - A delay queue per retry, whose messages expire after the delay of the retry (initial-delay, multiplied by the
+ * multiplier on every retry) and are then dead-lettered back to the input queue.
+ * - The parking queue (spring.rabbitmq.queue.parking), for the messages that failed after every retry.
  */
 @Configuration
 public class RabbitConfig {
 
+    @Value("${spring.rabbitmq.queue.in}")
+    private String inputQueueName;
+
     @Value("${spring.rabbitmq.queue.dlq}")
     private String queueName;
 
-    @Value("${spring.rabbitmq.exchange}")
-    private String exchange;
+    @Value("${spring.rabbitmq.queue.parking}")
+    private String parkingQueueName;
+
+    @Value("${notifications.retry.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${notifications.retry.initial-delay:1000}")
+    private long initialDelay;
 
-    @Value("${spring.rabbitmq.routingkey}")
-    private String routingkey;
+    @Value("${notifications.retry.multiplier:4}")
+    private int multiplier;
 
     @Bean
     Queue queue() {
@@ -31,13 +48,26 @@ public class RabbitConfig {
     }
 
     @Bean
-    DirectExchange exchange() {
-        return new DirectExchange(exchange);
+    Declarables retryQueues() {
+        List<Declarable> queues = new ArrayList<>();
+        long delay = initialDelay;
+
+        for (int retry = 1; retry <= maxRetries; retry++) {
+            queues.add(QueueBuilder.durable(retryQueueName(inputQueueName, retry)) //
+                    .ttl((int) delay) //
+                    .deadLetterExchange("") //
+                    .deadLetterRoutingKey(inputQueueName) //
+                    .build());
+            delay *= multiplier;
+        }
+
+        queues.add(QueueBuilder.durable(parkingQueueName).build());
+
+        return new Declarables(queues);
     }
 
-    @Bean
-    Binding binding(Queue queue, DirectExchange exchange) {
-        return BindingBuilder.bind(queue).to(exchange).with(routingkey);
+    public static String retryQueueName(String inputQueueName, int retry) {
+        return inputQueueName + ".retry." + retry;
     }
 
-}
\ No newline at end of file
+}
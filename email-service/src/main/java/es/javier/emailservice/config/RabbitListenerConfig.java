@@ -0,0 +1,53 @@
+package es.javier.emailservice.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Configuration of the queue consumers (see {@link es.javier.emailservice.service.MessageQueueService}).
+ * The consumers (spring.rabbitmq.listener.simple.concurrency, up to max-concurrency) receive the messages in batches
+ * of spring.rabbitmq.listener.simple.batch-size (or fewer, once no more messages arrive for a second), within a
+ * prefetch window of spring.rabbitmq.listener.simple.prefetch messages per consumer, and acknowledge them manually,
+ * so a whole batch is acknowledged at once.
+ * The consumers run in virtual threads if they are enabled (see {@link VirtualThreadsConfig}).
+ */
+@Configuration
+public class RabbitListenerConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(RabbitListenerConfig.class);
+
+    /**
+     * Replaces the listener container factory of Spring Boot, keeping its configuration (spring.rabbitmq.listener.*).
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory( //
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory, //
+            ObjectProvider<ThreadFactory> virtualThreadFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        // The listener receives the batches as a List and acknowledges them itself
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+
+        // A new thread per consumer, like the default executor of the containers
+        virtualThreadFactory.ifAvailable(threadFactory -> {
+            factory.setTaskExecutor(new SimpleAsyncTaskExecutor(threadFactory));
+            logger.info("Messages will be consumed in virtual threads");
+        });
+
+        return factory;
+    }
+
+}
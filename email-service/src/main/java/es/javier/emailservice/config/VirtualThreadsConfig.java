@@ -0,0 +1,40 @@
+package es.javier.emailservice.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in mode (spring.threads.virtual.enabled=true) where the queue consumers run in virtual threads, so the consumers
+ * blocked sending emails are cheap and the listener concurrency (spring.rabbitmq.listener.simple.concurrency) can be
+ * raised without dedicating a platform thread to each of them. The threads are created by the listener containers
+ * (see {@link RabbitListenerConfig}).
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    @Bean
+    public ThreadFactory virtualThreadFactory() {
+        return virtualThreadFactory("amqp-virtual-");
+    }
+
+    /**
+     * Equivalent to {@code Thread.ofVirtual().name(prefix, 0).factory()}.
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available in Java " + Runtime.version(), e);
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import es.javier.emailservice.exception.InvalidEmailException;
 
 /**
  * Model that mocks what an email should look like if actual sending were involved.
+ * The body is rendered from the template of the newsletter (see {@link EmailTemplate}), {@link #EMAIL_BODY} by default.
  */
 public class EmailMessage {
 
@@ -17,26 +18,16 @@ public class EmailMessage {
     private String emailBody;
 
     public EmailMessage(Subscription subscription) throws InvalidEmailException {
+        this(subscription, EmailTemplate.DEFAULT);
+    }
+
+    public EmailMessage(Subscription subscription, EmailTemplate template) throws InvalidEmailException {
         if (subscription == null) {
             throw new InvalidEmailException("Subscription was not valid.");
         }
         this.email = subscription.getEmail();
         this.name = subscription.getFirstName();
-        this.emailBody = assembleEmailBody();
-    }
-
-    private String assembleEmailBody() {
-        StringBuilder sb = new StringBuilder();
-
-        String introduction = (name == null) //
-                ? "Dear user," //
-                : "Dear " + name + ",";
-
-        sb.append(introduction).append("\n");
-        sb.append(EMAIL_BODY);
-
-        return sb.toString();
-
+        this.emailBody = template.render(subscription);
     }
 
     public String getEmailAddress() {
@@ -51,13 +42,29 @@ public class EmailMessage {
         return emailBody;
     }
 
+    /**
+     * Only rendered when it is logged. The line breaks of the body are replaced while it is appended.
+     */
     @Override
     public String toString() {
-        final StringBuffer sb = new StringBuffer("EmailMessage{");
+        final StringBuilder sb = new StringBuilder(128 + emailBody.length());
 
+        sb.append("EmailMessage{");
         sb.append("email='").append(email).append('\'');
         sb.append(", name='").append(name).append('\'');
-        sb.append(", emailBody='").append(emailBody.replace("\n", "[LINE BREAK]")).append('\'');
+        sb.append(", emailBody='");
+
+        for (int i = 0; i < emailBody.length(); i++) {
+            char c = emailBody.charAt(i);
+
+            if (c == '\n') {
+                sb.append("[LINE BREAK]");
+            } else {
+                sb.append(c);
+            }
+        }
+
+        sb.append('\'');
         sb.append('}');
 
         return sb.toString();
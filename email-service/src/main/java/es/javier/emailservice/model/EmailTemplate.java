@@ -0,0 +1,111 @@
+package es.javier.emailservice.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Template of the body of an email, compiled once into a list of segments: literal texts and placeholders.
+ * A placeholder is written as {field} or {field|default}, the default being rendered if the field of the subscription
+ * is null. The fields are name (the first name) and email. {{ and }} are rendered as { and }.
+ * The templates are immutable, so they can be rendered by many threads at the same time. Every thread renders into its
+ * own reusable buffer.
+ */
+public class EmailTemplate {
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    public static final EmailTemplate DEFAULT = compile("Dear {name|user},\n" + EmailMessage.EMAIL_BODY);
+
+    private interface Segment {
+
+        void appendTo(StringBuilder sb, Subscription subscription);
+
+    }
+
+    private final Segment[] segments;
+
+    private EmailTemplate(List<Segment> segments) {
+        this.segments = segments.toArray(new Segment[0]);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a placeholder is not closed or its field is unknown.
+     */
+    public static EmailTemplate compile(String template) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+
+        while (i < template.length()) {
+            char c = template.charAt(i);
+
+            if ((c == '{' || c == '}') && i + 1 < template.length() && template.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+            } else if (c == '{') {
+                int end = template.indexOf('}', i);
+
+                if (end < 0) {
+                    throw new IllegalArgumentException("Placeholder not closed at " + i);
+                }
+
+                if (literal.length() > 0) {
+                    segments.add(literal(literal.toString()));
+                    literal.setLength(0);
+                }
+
+                segments.add(placeholder(template.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+
+        if (literal.length() > 0) {
+            segments.add(literal(literal.toString()));
+        }
+
+        return new EmailTemplate(segments);
+    }
+
+    public String render(Subscription subscription) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+
+        for (Segment segment : segments) {
+            segment.appendTo(sb, subscription);
+        }
+
+        return sb.toString();
+    }
+
+    private static Segment literal(String text) {
+        return (sb, subscription) -> sb.append(text);
+    }
+
+    private static Segment placeholder(String placeholder) {
+        int separator = placeholder.indexOf('|');
+        String field = (separator < 0 ? placeholder : placeholder.substring(0, separator)).trim();
+        String defaultValue = separator < 0 ? "" : placeholder.substring(separator + 1);
+        Function<Subscription, String> value;
+
+        switch (field) {
+            case "name":
+                value = Subscription::getFirstName;
+                break;
+            case "email":
+                value = Subscription::getEmail;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+
+        return (sb, subscription) -> {
+            String fieldValue = value.apply(subscription);
+            sb.append(fieldValue == null ? defaultValue : fieldValue);
+        };
+    }
+
+}
@@ -94,8 +94,9 @@ public class Subscription implements Serializable {
 
     @Override
     public String toString() {
-        final StringBuffer sb = new StringBuffer("Subscription{");
+        final StringBuilder sb = new StringBuilder(160);
 
+        sb.append("Subscription{");
         sb.append("subscriptionId=").append(subscriptionId);
         sb.append(", email='").append(email).append('\'');
         sb.append(", firstName='").append(firstName).append('\'');
@@ -2,27 +2,39 @@ package es.javier.emailservice.service;
 
 import es.javier.emailservice.exception.InvalidEmailException;
 import es.javier.emailservice.model.EmailMessage;
+import es.javier.emailservice.model.EmailTemplate;
 import es.javier.emailservice.model.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
- * Mock implementation that assembles a {@link EmailMessage} from a {@link Subscription} model.
+ * Mock implementation that assembles a {@link EmailMessage} from a {@link Subscription} model, with the template of
+ * its newsletter (see {@link EmailTemplateService}).
  * Instead of sending the email if valid, it is displayed in a log.
+ * The subscriptions and emails are only rendered if their log level is enabled (the subscription is logged in debug).
  */
 @Component
 public class EmailServiceMockImpl implements EmailService {
 
     private static final Logger logger = LoggerFactory.getLogger(EmailServiceMockImpl.class);
 
+    private final EmailTemplateService templateService;
+
+    @Autowired
+    public EmailServiceMockImpl(EmailTemplateService templateService) {
+        this.templateService = templateService;
+    }
+
     @Override
     public EmailMessage sendEmail(Subscription subscription) throws InvalidEmailException {
-        logger.info("Sending mock email, relative to subscription: {}", subscription);
+        logger.debug("Sending mock email, relative to subscription: {}", subscription);
 
-        EmailMessage emailMessage = new EmailMessage(subscription);
+        EmailMessage emailMessage = new EmailMessage(subscription, subscription == null ? EmailTemplate.DEFAULT //
+                : templateService.getTemplate(subscription.getNewsletterId()));
 
-        logger.info("The email would be addressed to: {}", emailMessage.getEmailAddress());
+        // The address is part of the email
         logger.info("The email would be: {}", emailMessage);
 
         return emailMessage;
@@ -0,0 +1,105 @@
+package es.javier.emailservice.service;
+
+import es.javier.emailservice.model.EmailTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the template of the emails of every newsletter: the file {newsletterId}.txt of the directory
+ * notifications.templates.dir, or the default template (see {@link EmailTemplate#DEFAULT}) if there is none.
+ * The templates are compiled once and cached. Whether their file changed is checked at most once every
+ * notifications.templates.check-interval ms, so the templates are reloaded without checking the file for every email.
+ * If a file cannot be compiled, the previous template of the newsletter is kept.
+ */
+@Service
+public class EmailTemplateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailTemplateService.class);
+
+    private static final class CachedTemplate {
+
+        private final EmailTemplate template;
+
+        // Null if there is no file
+        private final FileTime lastModified;
+
+        private final long checkedAt;
+
+        private CachedTemplate(EmailTemplate template, FileTime lastModified, long checkedAt) {
+            this.template = template;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+
+    }
+
+    private final Path directory;
+
+    private final long checkIntervalNanos;
+
+    private final Map<Long, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+    public EmailTemplateService(@Value("${notifications.templates.dir:}") String directory, //
+                                @Value("${notifications.templates.check-interval:5000}") long checkInterval) {
+        this.directory = directory == null || directory.isEmpty() ? null : Paths.get(directory);
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkInterval);
+    }
+
+    public EmailTemplate getTemplate(Long newsletterId) {
+        if (directory == null || newsletterId == null) {
+            return EmailTemplate.DEFAULT;
+        }
+
+        CachedTemplate cached = templates.get(newsletterId);
+        long now = System.nanoTime();
+
+        if (cached != null && now - cached.checkedAt < checkIntervalNanos) {
+            return cached.template;
+        }
+
+        cached = load(newsletterId, cached, now);
+        templates.put(newsletterId, cached);
+
+        return cached.template;
+    }
+
+    private CachedTemplate load(Long newsletterId, CachedTemplate cached, long now) {
+        Path file = directory.resolve(newsletterId + ".txt");
+        EmailTemplate previous = cached == null ? EmailTemplate.DEFAULT : cached.template;
+
+        try {
+            if (!Files.isRegularFile(file)) {
+                return new CachedTemplate(EmailTemplate.DEFAULT, null, now);
+            }
+
+            FileTime lastModified = Files.getLastModifiedTime(file);
+
+            if (cached != null && lastModified.equals(cached.lastModified)) {
+                return new CachedTemplate(previous, lastModified, now);
+            }
+
+            EmailTemplate template = EmailTemplate.compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            logger.info("Template of the newsletter {} loaded from {}", newsletterId, file);
+
+            return new CachedTemplate(template, lastModified, now);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("The template of the newsletter {} could not be loaded from {}: {}", newsletterId, file, //
+                    e.getMessage());
+
+            return new CachedTemplate(previous, cached == null ? null : cached.lastModified, now);
+        }
+    }
+
+}
@@ -1,50 +1,187 @@
 package es.javier.emailservice.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.rabbitmq.client.Channel;
+import es.javier.emailservice.config.RabbitConfig;
 import es.javier.emailservice.exception.InvalidEmailException;
 import es.javier.emailservice.model.Subscription;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.List;
+
 /**
  * Services that reads subscriptions from a queue.
- * If any error happens reading the message, it is sent to another queue for revision, simulating a DLQ check queue.
+ * The subscriptions are decoded according to the content type of the message: CBOR (application/cbor), or JSON
+ * otherwise, so the publishers can switch between them at any time.
+ * The messages that can never be handled (not readable, or with an invalid subscription) are sent to another queue
+ * for revision, simulating a DLQ check queue. The ones that failed otherwise are retried, after the delay of their
+ * retry queue, up to notifications.retry.max-retries times (counted in the x-retries header), and then parked (see
+ * {@link RabbitConfig}). The retries, parked and rejected (sent for revision) messages are published as the
+ * notifications.retried, notifications.parked and notifications.rejected metrics.
+ * The messages are received in batches (see {@link es.javier.emailservice.config.RabbitListenerConfig}) and
+ * acknowledged once the whole batch is handled, with a single ack. If some messages of a batch cannot be handled (not
+ * even sent for revision, or their copy was not confirmed by the broker in notifications.confirm-timeout ms), only
+ * those are rejected and requeued, so the emails already sent are not sent again.
  */
 @Service
 public class MessageQueueService {
 
+    private static final Logger logger = LoggerFactory.getLogger(MessageQueueService.class);
+
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+    public static final String RETRIES_HEADER = "x-retries";
+
+    // Immutable and thread-safe, with the deserializer of the subscriptions already resolved
+    private static final ObjectReader JSON_READER = new ObjectMapper().readerFor(Subscription.class);
+
+    private static final ObjectReader CBOR_READER = new CBORMapper().readerFor(Subscription.class);
+
     @Autowired
     EmailService emailService;
 
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
-    @Value("${spring.rabbitmq.exchange}")
-    private String exchange;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.rabbitmq.queue.in}")
+    private String inputQueue;
+
+    @Value("${spring.rabbitmq.queue.dlq}")
+    private String revisionQueue;
+
+    @Value("${spring.rabbitmq.queue.parking}")
+    private String parkingQueue;
 
-    @Value("${spring.rabbitmq.routingkey}")
-    private String routingkey;
+    @Value("${notifications.retry.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${notifications.confirm-timeout:5000}")
+    private long confirmTimeout;
 
     @RabbitListener(queues = {"${spring.rabbitmq.queue.in}"})
-    public void read(String subscriptionJson) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
+    public void read(List<Message> messages, Channel channel) throws IOException {
+        boolean[] handled = new boolean[messages.size()];
+        int firstUnhandled = messages.size();
+
+        for (int i = 0; i < messages.size(); i++) {
+            handled[i] = read(messages.get(i));
+
+            if (!handled[i] && firstUnhandled == messages.size()) {
+                firstUnhandled = i;
+            }
+        }
+
+        // Every message up to the first unhandled one is acknowledged at once
+        if (firstUnhandled > 0) {
+            channel.basicAck(deliveryTag(messages.get(firstUnhandled - 1)), true);
+        }
+
+        for (int i = firstUnhandled; i < messages.size(); i++) {
+            if (handled[i]) {
+                channel.basicAck(deliveryTag(messages.get(i)), false);
+            } else {
+                channel.basicNack(deliveryTag(messages.get(i)), false, true);
+            }
+        }
+    }
 
+    /**
+     * @return whether the message was handled: the email was sent, or the message was sent to be retried, parked or
+     * revised.
+     */
+    boolean read(Message message) {
         try {
-            Subscription subscription = objectMapper.readValue(subscriptionJson, Subscription.class);
+            Subscription subscription = decode(message);
 
             emailService.checkValidity(subscription);
             emailService.sendEmail(subscription);
-        } catch (JsonProcessingException e) {
-            rabbitTemplate.convertAndSend(exchange, routingkey, subscriptionJson);
+        } catch (IOException e) {
+            return reject(message, e);
         } catch (InvalidEmailException e) {
-            rabbitTemplate.convertAndSend(exchange, routingkey, subscriptionJson);
+            return reject(message, e);
         } catch (Exception e) {
-            rabbitTemplate.convertAndSend(exchange, routingkey, subscriptionJson);
+            return retry(message, e);
         }
 
+        return true;
+    }
+
+    /**
+     * Sends a message that can never be handled for revision.
+     */
+    private boolean reject(Message message, Exception cause) {
+        logger.debug("Message rejected: {}", cause.getMessage());
+
+        meterRegistry.counter("notifications.rejected").increment();
+        return send(revisionQueue, message);
+    }
+
+    /**
+     * Sends the message to the queue of its next retry, or parks it if there are no more retries.
+     */
+    private boolean retry(Message message, Exception cause) {
+        Number header = message.getMessageProperties().getHeader(RETRIES_HEADER);
+        int retries = header == null ? 0 : header.intValue();
+
+        if (retries >= maxRetries) {
+            logger.warn("Message parked after {} retries: {}", retries, cause.getMessage());
+
+            meterRegistry.counter("notifications.parked").increment();
+            return send(parkingQueue, message);
+        }
+
+        logger.debug("Message retried ({} of {}): {}", retries + 1, maxRetries, cause.getMessage());
+
+        message.getMessageProperties().setHeader(RETRIES_HEADER, retries + 1);
+        meterRegistry.counter("notifications.retried", "retry", String.valueOf(retries + 1)).increment();
+        return send(RabbitConfig.retryQueueName(inputQueue, retries + 1), message);
+    }
+
+    /**
+     * Sends the message to the queue through the default exchange, and waits for the broker to confirm it (see
+     * spring.rabbitmq.publisher-confirm-type), so the original is not acknowledged before its copy is stored.
+     */
+    private boolean send(String queue, Message message) {
+        try {
+            rabbitTemplate.invoke(operations -> {
+                operations.send("", queue, message);
+                operations.waitForConfirmsOrDie(confirmTimeout);
+                return null;
+            });
+            return true;
+        } catch (AmqpException e) {
+            logger.warn("The message could not be sent to {}, or was not confirmed, it will be requeued: {}", queue, //
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    private static long deliveryTag(Message message) {
+        return message.getMessageProperties().getDeliveryTag();
+    }
+
+    /**
+     * Decodes the body as is, without converting it to a String first.
+     */
+    public Subscription decode(Message message) throws IOException {
+        ObjectReader reader = CONTENT_TYPE_CBOR.equals(message.getMessageProperties().getContentType()) //
+                ? CBOR_READER : JSON_READER;
+
+        return reader.readValue(message.getBody());
     }
-}
\ No newline at end of file
+}
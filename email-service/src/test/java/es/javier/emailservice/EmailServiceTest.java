@@ -4,6 +4,7 @@ import es.javier.emailservice.exception.InvalidEmailException;
 import es.javier.emailservice.model.EmailMessage;
 import es.javier.emailservice.model.Subscription;
 import es.javier.emailservice.service.EmailServiceMockImpl;
+import es.javier.emailservice.service.EmailTemplateService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,7 +15,8 @@ public class EmailServiceTest {
 
     @BeforeEach
     public void setup() {
-        service = new EmailServiceMockImpl();
+        // Without a directory, only the default template
+        service = new EmailServiceMockImpl(new EmailTemplateService(null, 0));
     }
 
     @Test
@@ -86,4 +88,16 @@ public class EmailServiceTest {
         }
     }
 
+    @Test
+    public void testEmailRendering() throws Exception {
+        Subscription subscription = new Subscription();
+
+        subscription.setEmail("test@test.de");
+        subscription.setFirstName("test");
+        subscription.setConsent(true);
+
+        Assertions.assertEquals("EmailMessage{email='test@test.de', name='test', emailBody='Dear test,[LINE BREAK]" //
+                + EmailMessage.EMAIL_BODY.replace("\n", "[LINE BREAK]") + "'}", new EmailMessage(subscription).toString());
+    }
+
 }
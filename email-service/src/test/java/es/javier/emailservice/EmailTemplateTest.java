@@ -0,0 +1,71 @@
+package es.javier.emailservice;
+
+import es.javier.emailservice.model.EmailMessage;
+import es.javier.emailservice.model.EmailTemplate;
+import es.javier.emailservice.model.Subscription;
+import es.javier.emailservice.service.EmailServiceMockImpl;
+import es.javier.emailservice.service.EmailTemplateService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+public class EmailTemplateTest {
+
+    @Test
+    public void testTemplateRendering() {
+        EmailTemplate template = EmailTemplate.compile("Hi {name|there} <{email}>, {{not a field}} {name}!");
+        Subscription subscription = new Subscription();
+
+        subscription.setEmail("test@test.de");
+        Assertions.assertEquals("Hi there <test@test.de>, {not a field} !", template.render(subscription));
+
+        subscription.setFirstName("test");
+        Assertions.assertEquals("Hi test <test@test.de>, {not a field} test!", template.render(subscription));
+
+        Assertions.assertEquals("Dear user,\n" + EmailMessage.EMAIL_BODY, EmailTemplate.DEFAULT.render(new Subscription()));
+    }
+
+    @Test
+    public void testInvalidTemplates() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EmailTemplate.compile("Dear {name"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EmailTemplate.compile("Dear {surname}"));
+    }
+
+    @Test
+    public void testTemplatesOfTheNewslettersAreReloadedOnChange(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("7.txt");
+        Files.write(file, "Welcome to the newsletter, {name|reader}".getBytes(StandardCharsets.UTF_8));
+
+        // Checked for changes every time
+        EmailTemplateService templateService = new EmailTemplateService(directory.toString(), 0);
+        EmailServiceMockImpl service = new EmailServiceMockImpl(templateService);
+
+        Subscription subscription = new Subscription();
+        subscription.setEmail("test@test.de");
+        subscription.setConsent(true);
+        subscription.setNewsletterId(7L);
+
+        Assertions.assertEquals("Welcome to the newsletter, reader", service.sendEmail(subscription).getEmailBody());
+        Assertions.assertSame(templateService.getTemplate(7L), templateService.getTemplate(7L));
+
+        Files.write(file, "Welcome back, {name|reader}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+        Assertions.assertEquals("Welcome back, reader", service.sendEmail(subscription).getEmailBody());
+
+        // An invalid template does not replace the last valid one
+        Files.write(file, "Welcome back, {surname}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(120)));
+        Assertions.assertEquals("Welcome back, reader", service.sendEmail(subscription).getEmailBody());
+
+        // The other newsletters use the default template
+        subscription.setNewsletterId(8L);
+        Assertions.assertEquals("Dear user,\n" + EmailMessage.EMAIL_BODY, service.sendEmail(subscription).getEmailBody());
+    }
+
+}
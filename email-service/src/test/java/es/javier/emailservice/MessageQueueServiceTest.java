@@ -0,0 +1,189 @@
+package es.javier.emailservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.rabbitmq.client.Channel;
+import es.javier.emailservice.config.RabbitConfig;
+import es.javier.emailservice.model.Subscription;
+import es.javier.emailservice.service.EmailService;
+import es.javier.emailservice.service.MessageQueueService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageQueueServiceTest {
+
+    @Mock
+    private EmailService emailService;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private RabbitOperations operations;
+
+    @Mock
+    private Channel channel;
+
+    @InjectMocks
+    private MessageQueueService service;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    public void setup() {
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(service, "inputQueue", "in");
+        ReflectionTestUtils.setField(service, "revisionQueue", "dlq");
+        ReflectionTestUtils.setField(service, "parkingQueue", "parking");
+        ReflectionTestUtils.setField(service, "maxRetries", 2);
+        ReflectionTestUtils.setField(service, "confirmTimeout", 5000L);
+
+        // The messages are sent, and confirmed, through the channel of the template
+        lenient().when(rabbitTemplate.invoke(any())).thenAnswer(invocation -> //
+                invocation.<RabbitOperations.OperationsCallback<?>>getArgument(0).doInRabbit(operations));
+    }
+
+    @Test
+    public void testJsonAndCborMessagesAreRead() throws Exception {
+        Subscription subscription = new Subscription();
+        subscription.setSubscriptionId(1L);
+        subscription.setEmail("test@test.de");
+        subscription.setFirstName("test");
+        subscription.setConsent(true);
+        subscription.setBirthdate(LocalDate.of(1990, 5, 17));
+        subscription.setNewsletterId(2L);
+
+        service.read(List.of(message(1, new ObjectMapper().writeValueAsBytes(subscription), //
+                MessageProperties.CONTENT_TYPE_JSON), message(2, new CBORMapper().writeValueAsBytes(subscription), //
+                MessageQueueService.CONTENT_TYPE_CBOR)), channel);
+
+        ArgumentCaptor<Subscription> sent = ArgumentCaptor.forClass(Subscription.class);
+        verify(emailService, times(2)).sendEmail(sent.capture());
+        verify(rabbitTemplate, never()).invoke(any());
+
+        for (Subscription read : sent.getAllValues()) {
+            Assertions.assertEquals(subscription.toString(), read.toString());
+        }
+
+        // The whole batch at once
+        verify(channel).basicAck(2, true);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    public void testUnreadableMessageIsSentForRevision() throws Exception {
+        // A JSON message declared as CBOR
+        Message message = message(1, "{\"email\":\"test@test.de\"}".getBytes(StandardCharsets.UTF_8), //
+                MessageQueueService.CONTENT_TYPE_CBOR);
+
+        service.read(List.of(message), channel);
+
+        verify(emailService, never()).sendEmail(any());
+        verify(operations).send("", "dlq", message);
+        verify(operations).waitForConfirmsOrDie(5000L);
+        verify(channel).basicAck(1, true);
+        Assertions.assertEquals(1, meterRegistry.counter("notifications.rejected").count());
+    }
+
+    @Test
+    public void testFailedMessagesAreRetriedAndThenParked() throws Exception {
+        when(emailService.sendEmail(any())).thenThrow(new IllegalStateException("SMTP server unavailable"));
+
+        Message first = message(1, "{\"email\":\"a@test.de\",\"consent\":true}");
+        Message retried = message(2, "{\"email\":\"b@test.de\",\"consent\":true}");
+        retried.getMessageProperties().setHeader(MessageQueueService.RETRIES_HEADER, 1);
+        Message lastRetry = message(3, "{\"email\":\"c@test.de\",\"consent\":true}");
+        lastRetry.getMessageProperties().setHeader(MessageQueueService.RETRIES_HEADER, 2L);
+
+        service.read(List.of(first, retried, lastRetry), channel);
+
+        // Delayed in the queue of their next retry, never sent back to the input queue directly
+        verify(operations).send("", RabbitConfig.retryQueueName("in", 1), first);
+        verify(operations).send("", RabbitConfig.retryQueueName("in", 2), retried);
+        verify(operations).send("", "parking", lastRetry);
+        verify(channel).basicAck(3, true);
+
+        Assertions.assertEquals(1, (Integer) first.getMessageProperties().getHeader(MessageQueueService.RETRIES_HEADER));
+        Assertions.assertEquals(2, (Integer) retried.getMessageProperties().getHeader(MessageQueueService.RETRIES_HEADER));
+        Assertions.assertEquals(1, meterRegistry.counter("notifications.retried", "retry", "1").count());
+        Assertions.assertEquals(1, meterRegistry.counter("notifications.retried", "retry", "2").count());
+        Assertions.assertEquals(1, meterRegistry.counter("notifications.parked").count());
+    }
+
+    @Test
+    public void testOnlyTheUnhandledMessagesOfABatchAreRequeued() throws Exception {
+        Message unreadable = message(2, new byte[]{0x7B}, MessageQueueService.CONTENT_TYPE_CBOR);
+        doThrow(new AmqpConnectException(new ConnectException("Connection refused"))).when(operations) //
+                .send(any(), any(), eq(unreadable));
+
+        service.read(List.of(message(1, "{\"email\":\"a@test.de\",\"consent\":true}"), unreadable, //
+                message(3, "{\"email\":\"b@test.de\",\"consent\":true}")), channel);
+
+        verify(emailService, times(2)).sendEmail(any());
+
+        InOrder inOrder = inOrder(channel);
+        inOrder.verify(channel).basicAck(1, true);
+        inOrder.verify(channel).basicNack(2, false, true);
+        inOrder.verify(channel).basicAck(3, false);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    public void testMessagesNotConfirmedAreRequeued() throws Exception {
+        Message unreadable = message(1, new byte[]{0x7B}, MessageQueueService.CONTENT_TYPE_CBOR);
+        doThrow(new AmqpTimeoutException("Timed out waiting for acks")).when(operations).waitForConfirmsOrDie(anyLong());
+
+        service.read(List.of(unreadable), channel);
+
+        // Sent for revision, but the copy may have been lost, so the original is not acknowledged
+        verify(operations).send("", "dlq", unreadable);
+        verify(channel).basicNack(1, false, true);
+        verifyNoMoreInteractions(channel);
+    }
+
+    private static Message message(long deliveryTag, String json) {
+        return message(deliveryTag, json.getBytes(StandardCharsets.UTF_8), MessageProperties.CONTENT_TYPE_JSON);
+    }
+
+    private static Message message(long deliveryTag, byte[] body, String contentType) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        properties.setDeliveryTag(deliveryTag);
+
+        return new Message(body, properties);
+    }
+
+}
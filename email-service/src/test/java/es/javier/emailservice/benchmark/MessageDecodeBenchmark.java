@@ -0,0 +1,106 @@
+package es.javier.emailservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.javier.emailservice.model.EmailMessage;
+import es.javier.emailservice.model.Subscription;
+import es.javier.emailservice.service.MessageQueueService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the happy path of a message (decoding it and rendering what is logged at the INFO level) compared with the
+ * previous one, which created an ObjectMapper for every message, decoded a String copy of the body and rendered the
+ * subscription and the email (with StringBuffers and replace) in three log lines. The bytes allocated per message are
+ * reported by the GC profiler (gc.alloc.rate.norm).
+ * It is not run by the tests. To run it: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=es.javier.emailservice.benchmark.MessageDecodeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDecodeBenchmark {
+
+    private final MessageQueueService service = new MessageQueueService();
+
+    private Message message;
+
+    @Setup
+    public void setup() {
+        String json = "{\"subscriptionId\":1234567,\"email\":\"jane.doe@example.com\",\"firstName\":\"Jane\"," +
+                "\"gender\":\"F\",\"consent\":true,\"birthdate\":\"1990-05-17\",\"newsletterId\":42}";
+
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        message = new Message(json.getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws Exception {
+        Subscription subscription = service.decode(message);
+        EmailMessage email = new EmailMessage(subscription);
+
+        blackhole.consume(email.toString());
+    }
+
+    @Benchmark
+    public void previousRead(Blackhole blackhole) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Subscription subscription = objectMapper.readValue(new String(message.getBody()), Subscription.class);
+        EmailMessage email = new EmailMessage(subscription);
+
+        blackhole.consume(previousToString(subscription));
+        blackhole.consume(email.getEmailAddress());
+        blackhole.consume(previousToString(email));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageDecodeBenchmark.class.getSimpleName()) //
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+
+    private static String previousToString(Subscription subscription) {
+        final StringBuffer sb = new StringBuffer("Subscription{");
+
+        sb.append("subscriptionId=").append(subscription.getSubscriptionId());
+        sb.append(", email='").append(subscription.getEmail()).append('\'');
+        sb.append(", firstName='").append(subscription.getFirstName()).append('\'');
+        sb.append(", gender='").append(subscription.getGender()).append('\'');
+        sb.append(", consent=").append(subscription.getConsent());
+        sb.append(", birthdate=").append(subscription.getBirthdate());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static String previousToString(EmailMessage email) {
+        final StringBuffer sb = new StringBuffer("EmailMessage{");
+
+        sb.append("email='").append(email.getEmailAddress()).append('\'');
+        sb.append(", name='").append(email.getName()).append('\'');
+        sb.append(", emailBody='").append(email.getEmailBody().replace("\n", "[LINE BREAK]")).append('\'');
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+}
@@ -2,8 +2,10 @@ package es.javier.subscriptionservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class SubscriptionServiceApplication {
 
     public static void main(String[] args) {
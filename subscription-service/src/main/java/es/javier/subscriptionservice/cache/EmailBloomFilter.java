@@ -0,0 +1,147 @@
+package es.javier.subscriptionservice.cache;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of emails that can be updated and queried concurrently without locking.
+ * It answers whether an email is "definitely absent" or "maybe present": an email that has been added is never
+ * reported as absent, but some emails that have not been added are reported as maybe present (false positives).
+ * The emails are normalized (trimmed and lower-cased), so the answer does not depend on the case.
+ */
+public class EmailBloomFilter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final AtomicLong bitsSet = new AtomicLong();
+
+    /**
+     * @param expectedInsertions amount of emails the filter is sized for.
+     * @param falsePositiveRate  the false positive rate wanted once the expected amount of emails has been added.
+     */
+    public EmailBloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The expected insertions must be positive and the false positive rate "
+                    + "must be between 0 and 1");
+        }
+
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words * Long.SIZE;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+    }
+
+    public void add(String email) {
+        long hash = hash(email);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ GOLDEN_RATIO) | 1;
+
+        for (int i = 0; i < hashFunctions; i++) {
+            setBit(Math.floorMod(h1 + i * h2, bitSize));
+        }
+    }
+
+    /**
+     * Adds every email of another filter with the same size and hash functions, by setting its bits.
+     */
+    public void addAll(EmailBloomFilter other) {
+        if (other.bitSize != bitSize || other.hashFunctions != hashFunctions) {
+            throw new IllegalArgumentException("Only filters with the same size and hash functions can be merged");
+        }
+
+        for (int word = 0; word < bits.length(); word++) {
+            long mask = other.bits.get(word);
+            long current;
+
+            do {
+                current = bits.get(word);
+
+                if ((current | mask) == current) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+
+            bitsSet.addAndGet(Long.bitCount(mask & ~current));
+        }
+    }
+
+    public boolean mightContain(String email) {
+        long hash = hash(email);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ GOLDEN_RATIO) | 1;
+
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The probability of a false positive with the current amount of bits set.
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) bitsSet.get() / bitSize, hashFunctions);
+    }
+
+    public long sizeInBytes() {
+        return bitSize / Byte.SIZE;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+
+        do {
+            current = bits.get(word);
+
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, current, current | mask));
+
+        bitsSet.incrementAndGet();
+    }
+
+    // FNV-1a over the normalized characters
+    private static long hash(String email) {
+        String normalized = email.trim().toLowerCase(Locale.ROOT);
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    // Finalizer of MurmurHash3, spreads the bits of the hash
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+}
@@ -0,0 +1,200 @@
+package es.javier.subscriptionservice.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import es.javier.subscriptionservice.model.Subscription;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * In-process read-through cache of the {@link Subscription} lookups by email and by id.
+ * Both the found subscriptions and the misses are cached, the latter for a shorter time, because most of the
+ * traffic asks again and again for the same subscriptions. The entries are bounded in size and expire, and the
+ * hit/miss/eviction statistics are published as metrics (cache.gets, cache.evictions...) to help sizing it.
+ * Whoever modifies the subscriptions is responsible for keeping it updated with {@link #put(Subscription)} and
+ * {@link #evict(Subscription)}.
+ * A lookup only fills the entry of its own key: filling the other one afterwards, outside of any atomic section,
+ * could overwrite a concurrent eviction with a stale subscription until it expires.
+ * The lookups are run by the calling thread without holding any lock (see {@link #load}), so a virtual thread is
+ * not pinned to its carrier while it waits for the database.
+ */
+@Component
+public class SubscriptionCache {
+
+    public static final String BY_EMAIL_CACHE_NAME = "subscriptionsByEmail";
+    public static final String BY_ID_CACHE_NAME = "subscriptionsById";
+
+    private final AsyncCache<String, Optional<Subscription>> byEmail;
+
+    private final AsyncCache<Long, Optional<Subscription>> byId;
+
+    public SubscriptionCache(@Value("${subscriptions.cache.max-size:10000}") long maxSize, //
+                             @Value("${subscriptions.cache.ttl:10m}") Duration ttl, //
+                             @Value("${subscriptions.cache.negative-ttl:30s}") Duration negativeTtl, //
+                             MeterRegistry meterRegistry) {
+        byEmail = buildCache(maxSize, ttl, negativeTtl);
+        byId = buildCache(maxSize, ttl, negativeTtl);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, byEmail.synchronous(), BY_EMAIL_CACHE_NAME);
+        CaffeineCacheMetrics.monitor(meterRegistry, byId.synchronous(), BY_ID_CACHE_NAME);
+    }
+
+    /**
+     * Returns the cached lookup of the email, using the loader to fill it if it is not cached.
+     */
+    public Optional<Subscription> getByEmail(String email, Function<String, Optional<Subscription>> loader) {
+        return load(byEmail, email, loader);
+    }
+
+    /**
+     * Returns the cached lookup of the id, using the loader to fill it if it is not cached.
+     */
+    public Optional<Subscription> getById(Long id, Function<Long, Optional<Subscription>> loader) {
+        return load(byId, id, loader);
+    }
+
+    /**
+     * Returns the subscription of the email only if it is cached as existing, without accessing the database (nor
+     * waiting for a lookup in progress).
+     */
+    public Optional<Subscription> getIfPresentByEmail(String email) {
+        return getIfPresent(byEmail, email);
+    }
+
+    /**
+     * Returns the subscription of the id only if it is cached as existing, as {@link #getIfPresentByEmail(String)}.
+     */
+    public Optional<Subscription> getIfPresentById(Long id) {
+        return getIfPresent(byId, id);
+    }
+
+    /**
+     * Caches a subscription that exists in the database, replacing any miss cached for its email or id.
+     */
+    public void put(Subscription subscription) {
+        CompletableFuture<Optional<Subscription>> value = CompletableFuture.completedFuture(Optional.of(subscription));
+
+        byEmail.put(subscription.getEmail(), value);
+        byId.put(subscription.getSubscriptionId(), value);
+    }
+
+    /**
+     * Removes every entry of a subscription that has been modified or deleted.
+     */
+    public void evict(Subscription subscription) {
+        evictEmail(subscription.getEmail());
+        evictId(subscription.getSubscriptionId());
+    }
+
+    public void evictEmail(String email) {
+        if (email != null) {
+            byEmail.synchronous().invalidate(email);
+        }
+    }
+
+    public void evictId(Long id) {
+        if (id != null) {
+            byId.synchronous().invalidate(id);
+        }
+    }
+
+    public void evictAll() {
+        byEmail.synchronous().invalidateAll();
+        byId.synchronous().invalidateAll();
+    }
+
+    private static <K> Optional<Subscription> getIfPresent(AsyncCache<K, Optional<Subscription>> cache, K key) {
+        CompletableFuture<Optional<Subscription>> subscription = cache.getIfPresent(key);
+
+        return (subscription == null || !subscription.isDone() || subscription.isCompletedExceptionally()) //
+                ? Optional.empty() //
+                : subscription.join();
+    }
+
+    /**
+     * Returns the cached lookup of the key, running the loader if it is not cached.
+     * Caffeine runs the loader of a synchronous cache inside {@link java.util.concurrent.ConcurrentHashMap#compute},
+     * holding a monitor during the whole query. Here only an incomplete future is stored under the lock, and the
+     * loader is run afterwards by the calling thread. The concurrent lookups of the same key still wait for that
+     * future instead of querying the database again. A failed lookup (even with an Error) is removed from the cache, so
+     * the next lookup of the key runs the loader again.
+     */
+    private static <K> Optional<Subscription> load(AsyncCache<K, Optional<Subscription>> cache, K key, //
+                                                   Function<K, Optional<Subscription>> loader) {
+        CompletableFuture<Optional<Subscription>> loading = new CompletableFuture<>();
+        CompletableFuture<Optional<Subscription>> cached = cache.get(key, (ignoredKey, executor) -> loading);
+
+        if (cached != loading) {
+            try {
+                return cached.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+
+                throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            Optional<Subscription> subscription = loader.apply(key);
+            loading.complete(subscription);
+
+            return subscription;
+        } catch (Throwable e) {
+            // Even an Error must complete the future, or the lookups waiting for it would block forever
+            loading.completeExceptionally(e);
+            cache.asMap().remove(key, loading);
+            throw e;
+        }
+    }
+
+    private static <K> AsyncCache<K, Optional<Subscription>> buildCache(long maxSize, Duration ttl, Duration negativeTtl) {
+        return Caffeine.newBuilder() //
+                .maximumSize(maxSize) //
+                .expireAfter(new PositiveNegativeExpiry<K>(ttl, negativeTtl)) //
+                .recordStats() //
+                .buildAsync();
+    }
+
+    /**
+     * Expires the misses sooner than the found subscriptions, so a subscription created by some other replica is
+     * not reported as missing for long.
+     */
+    private static class PositiveNegativeExpiry<K> implements Expiry<K, Optional<Subscription>> {
+
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        PositiveNegativeExpiry(Duration ttl, Duration negativeTtl) {
+            this.ttlNanos = ttl.toNanos();
+            this.negativeTtlNanos = negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(K key, Optional<Subscription> value, long currentTime) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(K key, Optional<Subscription> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(K key, Optional<Subscription> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+package es.javier.subscriptionservice.cache;
+
+import es.javier.subscriptionservice.config.RabbitConfig;
+import es.javier.subscriptionservice.datasource.ReadYourWritesTracker;
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionCacheEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the {@link SubscriptionCache} of every replica of the service up to date.
+ * The changes made by this replica are broadcast through the fanout exchange declared in {@link RabbitConfig}, and the
+ * changes made by the others are received through its own queue, evicting the affected keys.
+ * The emails of the subscriptions created by the others are added to the {@link SubscriptionEmailFilter}, and every
+ * changed subscription is read from the primary for a while (see {@link ReadYourWritesTracker}). The second-level
+ * cache of Hibernate is evicted the same way (see {@link SubscriptionSecondLevelCache}).
+ * The events are sent in order by a single background thread, so the requests never wait for the broker. If it falls
+ * behind (subscriptions.cache.bus.queue-size events pending), the new events are dropped.
+ * Events sent while this replica is disconnected from the broker are lost, so the whole cache is cleared, and the
+ * email filter rebuilt, every time the connection is (re)established. Likewise, if some events of this replica are
+ * dropped or cannot be sent, a MISSED event is sent as soon as possible (before the next event, or once connected
+ * again) so the others do the same: the email filter never forgets an email, so until then it may report the emails
+ * of those creations as definitely absent.
+ */
+@Component
+public class SubscriptionCacheBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionCacheBus.class);
+
+    private final String origin = UUID.randomUUID().toString();
+
+    @Autowired
+    private SubscriptionCache cache;
+
+    @Autowired
+    private SubscriptionSecondLevelCache secondLevelCache;
+
+    @Autowired
+    private SubscriptionEmailFilter emailFilter;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Value("${subscriptions.cache.invalidation-exchange:subscriptionCacheInvalidation}")
+    private String exchange;
+
+    private final ThreadPoolExecutor publisher;
+
+    private final AtomicBoolean eventsMissed = new AtomicBoolean();
+
+    public SubscriptionCacheBus(@Value("${subscriptions.cache.bus.queue-size:10000}") int queueSize) {
+        this.publisher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), //
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-bus-publisher");
+                    thread.setDaemon(true);
+                    return thread;
+                }, //
+                (runnable, executor) -> {
+                    eventsMissed.set(true);
+                    logger.warn("Cache event dropped, {} events are pending", queueSize);
+                });
+    }
+
+    @PostConstruct
+    public void clearCacheOnConnection() {
+        connectionFactory.addConnectionListener(connection -> {
+            logger.debug("Connected to the broker, clearing the cache...");
+            cache.evictAll();
+            secondLevelCache.evictAll();
+            emailFilter.rebuildIfBuilt();
+
+            if (eventsMissed.get()) {
+                publisher.execute(() -> {
+                    try {
+                        sendMissedEvent();
+                    } catch (AmqpException e) {
+                        logger.warn("Missed cache events could not be notified: {}", e.getMessage());
+                    }
+                });
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // The pending events are still sent, unless the broker is not reachable
+        publisher.shutdown();
+
+        if (!publisher.awaitTermination(5, TimeUnit.SECONDS)) {
+            publisher.shutdownNow();
+        }
+    }
+
+    public void publishCreated(Collection<Subscription> subscriptions) {
+        publish(SubscriptionCacheEvent.Type.CREATED, subscriptions);
+    }
+
+    public void publishDeleted(Subscription subscription) {
+        publish(SubscriptionCacheEvent.Type.DELETED, List.of(subscription));
+    }
+
+    public void publishAllDeleted(Collection<Subscription> subscriptions) {
+        publish(SubscriptionCacheEvent.Type.DELETED, subscriptions);
+    }
+
+    @RabbitListener(queues = "#{cacheInvalidationQueue.name}")
+    public void onEvent(SubscriptionCacheEvent event) {
+        if (origin.equals(event.getOrigin())) {
+            return;
+        }
+
+        if (event.getType() == SubscriptionCacheEvent.Type.MISSED) {
+            logger.info("Some cache events of {} were missed, clearing the cache...", event.getOrigin());
+            cache.evictAll();
+            secondLevelCache.evictAll();
+            emailFilter.rebuildIfBuilt();
+            return;
+        }
+
+        logger.debug("Evicting from the cache after receiving {}", event);
+
+        if (event.getType() == SubscriptionCacheEvent.Type.CREATED) {
+            event.getEmails().forEach(emailFilter::add);
+        }
+
+        // Both a creation and a deletion make the cached entries (or misses) of the keys outdated
+        event.getEmails().forEach(cache::evictEmail);
+        event.getSubscriptionIds().forEach(cache::evictId);
+        secondLevelCache.evict(event.getSubscriptionIds());
+
+        event.getEmails().forEach(email -> readYourWrites.recordWrite(email, null));
+        event.getSubscriptionIds().forEach(id -> readYourWrites.recordWrite(null, id));
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    private void publish(SubscriptionCacheEvent.Type type, Collection<Subscription> subscriptions) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        SubscriptionCacheEvent event = new SubscriptionCacheEvent(origin, type, //
+                subscriptions.stream().map(Subscription::getSubscriptionId).filter(Objects::nonNull) //
+                        .collect(Collectors.toList()), //
+                subscriptions.stream().map(Subscription::getEmail).filter(Objects::nonNull) //
+                        .collect(Collectors.toList()));
+
+        // The change is already persisted, so an event that cannot be sent is notified as missed later
+        publisher.execute(() -> {
+            try {
+                sendMissedEvent();
+                rabbitTemplate.convertAndSend(exchange, "", event);
+                logger.debug("[x] Sent cache event: '{}'", event);
+            } catch (AmqpException e) {
+                eventsMissed.set(true);
+                logger.warn("Cache event could not be sent: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Tells the other replicas that some events of this one were missed, if so.
+     */
+    private void sendMissedEvent() {
+        if (!eventsMissed.getAndSet(false)) {
+            return;
+        }
+
+        try {
+            rabbitTemplate.convertAndSend(exchange, "", //
+                    new SubscriptionCacheEvent(origin, SubscriptionCacheEvent.Type.MISSED, List.of(), List.of()));
+            logger.info("[x] Sent missed cache events");
+        } catch (AmqpException e) {
+            eventsMissed.set(true);
+            throw e;
+        }
+    }
+
+}
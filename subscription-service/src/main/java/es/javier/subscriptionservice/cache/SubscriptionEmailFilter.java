@@ -0,0 +1,192 @@
+package es.javier.subscriptionservice.cache;
+
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps an {@link EmailBloomFilter} with the email of every subscription, so the lookups of emails that are not
+ * subscribed can be answered without accessing the database, like the ones of the new emails of a batch creation.
+ * The filter is built by streaming the emails once the application is ready, and the emails created afterwards (by
+ * this replica or, through the {@link SubscriptionCacheBus}, by any other) are added to it. Until it has been built,
+ * or if it may have missed some creation, every email is reported as maybe present.
+ * A rebuild streams the emails into a new filter while the new emails are still added to the current one. Both are
+ * merged when the new filter replaces the current one, under a lock that the additions share, so an email added
+ * before its row is visible to the stream is never lost.
+ * The sizing is configured with the expected amount of subscriptions and the wanted false positive rate. The expected
+ * and the observed false positive rates, and the memory used, are published as metrics.
+ */
+@Component
+public class SubscriptionEmailFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionEmailFilter.class);
+
+    private final SubscriptionRepository repository;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+
+    private volatile EmailBloomFilter filter;
+    // Shared by the additions, exclusive to replace the filter
+    private final ReadWriteLock filterLock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "email-filter-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder definitelyAbsent = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public SubscriptionEmailFilter(SubscriptionRepository repository, //
+                                   PlatformTransactionManager transactionManager, //
+                                   MeterRegistry meterRegistry, //
+                                   @Value("${subscriptions.email-filter.enabled:true}") boolean enabled, //
+                                   @Value("${subscriptions.email-filter.expected-insertions:1000000}") long expectedInsertions, //
+                                   @Value("${subscriptions.email-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.repository = repository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filter = new EmailBloomFilter(expectedInsertions, falsePositiveRate);
+
+        Gauge.builder("subscriptions.email.filter.expected.false.positive.rate", this, //
+                emailFilter -> emailFilter.filter.expectedFalsePositiveRate()) //
+                .description("False positive rate expected with the bits set in the email filter") //
+                .register(meterRegistry);
+        Gauge.builder("subscriptions.email.filter.observed.false.positive.rate", this, //
+                SubscriptionEmailFilter::observedFalsePositiveRate) //
+                .description("Fraction of the emails not subscribed that the email filter reported as maybe present") //
+                .register(meterRegistry);
+        Gauge.builder("subscriptions.email.filter.size", this, emailFilter -> emailFilter.filter.sizeInBytes()) //
+                .baseUnit("bytes") //
+                .description("Memory used by the email filter") //
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (!enabled || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            ready = false;
+            EmailBloomFilter building = new EmailBloomFilter(expectedInsertions, falsePositiveRate);
+
+            long amount = readOnlyTransaction.execute(status -> {
+                try (Stream<String> emails = repository.streamAllEmails()) {
+                    // Not peek().count(), which may skip the peek if the size of the stream is known
+                    return emails.mapToLong(email -> {
+                        building.add(email);
+                        return 1;
+                    }).sum();
+                }
+            });
+
+            filterLock.writeLock().lock();
+            try {
+                // The emails added during the stream may not have been committed yet when it read the table
+                building.addAll(filter);
+                filter = building;
+            } finally {
+                filterLock.writeLock().unlock();
+            }
+
+            ready = true;
+
+            logger.info("Email filter built with {} emails ({} bytes, {} hash functions)", amount, //
+                    filter.sizeInBytes(), filter.getHashFunctions());
+        } catch (RuntimeException e) {
+            logger.warn("Email filter could not be built, every email will be looked up: {}", e.getMessage());
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Rebuilds the filter in the background if it was already built, because some creations may have been missed.
+     */
+    public void rebuildIfBuilt() {
+        if (ready) {
+            ready = false;
+            rebuildExecutor.execute(this::build);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    public void add(String email) {
+        if (email == null) {
+            return;
+        }
+
+        filterLock.readLock().lock();
+        try {
+            filter.add(email);
+        } finally {
+            filterLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true only if the email is surely not subscribed.
+     */
+    public boolean isDefinitelyAbsent(String email) {
+        if (!ready || filter.mightContain(email)) {
+            return false;
+        }
+
+        definitelyAbsent.increment();
+
+        return true;
+    }
+
+    /**
+     * Records that an email reported as maybe present was not subscribed, to compute the observed false positive rate.
+     */
+    public void recordFalsePositive() {
+        if (ready) {
+            falsePositives.increment();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private double observedFalsePositiveRate() {
+        long positives = falsePositives.sum();
+        long total = positives + definitelyAbsent.sum();
+
+        return (total == 0) ? 0 : (double) positives / total;
+    }
+
+}
@@ -0,0 +1,38 @@
+package es.javier.subscriptionservice.cache;
+
+import es.javier.subscriptionservice.model.Subscription;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collection;
+
+/**
+ * Evicts the subscriptions changed by other replicas of the service from the second-level cache of Hibernate (and
+ * the cached query results, which could contain them), because each replica has its own.
+ * The changes made by this replica are handled by Hibernate, or by the repository for the native statements.
+ */
+@Component
+public class SubscriptionSecondLevelCache {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public SubscriptionSecondLevelCache(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    public void evict(Collection<Long> subscriptionIds) {
+        org.hibernate.Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+
+        subscriptionIds.forEach(id -> cache.evictEntityData(Subscription.class, id));
+        cache.evictQueryRegions();
+    }
+
+    public void evictAll() {
+        org.hibernate.Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+
+        cache.evictEntityData(Subscription.class);
+        cache.evictQueryRegions();
+    }
+
+}
@@ -0,0 +1,67 @@
+package es.javier.subscriptionservice.config;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+
+/**
+ * Converts the messages to and from CBOR (RFC 8949), a binary encoding of the JSON data model: the same objects are
+ * (de)serialized with the same Jackson annotations, but the messages are smaller and cheaper to parse.
+ * The type of the object is sent in the same header as the {@link
+ * org.springframework.amqp.support.converter.Jackson2JsonMessageConverter} does. Unlike that one, the body is never
+ * decoded as a String.
+ */
+public class Jackson2CborMessageConverter extends AbstractMessageConverter {
+
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+    private final ObjectMapper objectMapper = new CBORMapper();
+
+    private final DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+
+    public Jackson2CborMessageConverter() {
+        // Every package is trusted, like in the default Jackson2JsonMessageConverter
+        typeMapper.setTrustedPackages("*");
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(object);
+
+            messageProperties.setContentType(CONTENT_TYPE_CBOR);
+            messageProperties.setContentLength(bytes.length);
+            typeMapper.fromJavaType(objectMapper.constructType(object.getClass()), messageProperties);
+
+            return new Message(bytes, messageProperties);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert the object to CBOR", e);
+        }
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+
+        if (properties == null || !CONTENT_TYPE_CBOR.equals(properties.getContentType())) {
+            throw new MessageConversionException("Not a CBOR message: " + (properties == null ? null //
+                    : properties.getContentType()));
+        }
+
+        try {
+            JavaType type = typeMapper.toJavaType(properties);
+
+            return objectMapper.readValue(message.getBody(), type);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert the message from CBOR", e);
+        }
+    }
+
+}
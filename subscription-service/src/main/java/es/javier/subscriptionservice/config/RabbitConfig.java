@@ -1,11 +1,15 @@
 package es.javier.subscriptionservice.config;
 
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,6 +18,12 @@ import org.springframework.context.annotation.Configuration;
 
 /**
  * Configuration to configure RabbitMQ so a request to send an email can be enqueued and served by another service.
+ * The connection factory is configured (spring.rabbitmq.publisher-confirm-type and publisher-returns) so the
+ * notifications are confirmed by the broker (see {@link es.javier.subscriptionservice.service.MessageQueueService}).
+ * The messages are converted according to their content type: JSON, or CBOR (see
+ * {@link Jackson2CborMessageConverter}). The messages without a known content type are converted to JSON.
+ * It also declares the fanout exchange used to keep the caches of every replica of this service up to date. Every
+ * replica listens to it with its own temporary queue.
  */
 @Configuration
 public class RabbitConfig {
@@ -27,6 +37,9 @@ public class RabbitConfig {
     @Value("${spring.rabbitmq.routingkey}")
     private String routingkey;
 
+    @Value("${subscriptions.cache.invalidation-exchange:subscriptionCacheInvalidation}")
+    private String cacheInvalidationExchangeName;
+
     @Bean
     Queue queue() {
         return new Queue(queueName, true);
@@ -43,14 +56,38 @@ public class RabbitConfig {
     }
 
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    FanoutExchange cacheInvalidationExchange() {
+        return new FanoutExchange(cacheInvalidationExchangeName);
+    }
+
+    // Exclusive and auto-deleted: it only lives while this replica is connected
+    @Bean
+    Queue cacheInvalidationQueue() {
+        return new Queue(new Base64UrlNamingStrategy("subscriptionCache.").generateName(), false, true, true);
+    }
+
+    @Bean
+    Binding cacheInvalidationBinding(Queue cacheInvalidationQueue, FanoutExchange cacheInvalidationExchange) {
+        return BindingBuilder.bind(cacheInvalidationQueue).to(cacheInvalidationExchange);
+    }
+
+    @Bean
+    public MessageConverter messageConverter() {
+        Jackson2JsonMessageConverter jsonMessageConverter = new Jackson2JsonMessageConverter();
+
+        ContentTypeDelegatingMessageConverter messageConverter = //
+                new ContentTypeDelegatingMessageConverter(jsonMessageConverter);
+        messageConverter.addDelegate(MessageProperties.CONTENT_TYPE_JSON, jsonMessageConverter);
+        messageConverter.addDelegate(Jackson2CborMessageConverter.CONTENT_TYPE_CBOR, new Jackson2CborMessageConverter());
+        return messageConverter;
     }
 
     @Bean
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         final RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
-        rabbitTemplate.setMessageConverter(jsonMessageConverter());
+        rabbitTemplate.setMessageConverter(messageConverter());
+        // The messages that cannot be routed to any queue are returned instead of dropped (with publisher-returns)
+        rabbitTemplate.setMandatory(true);
         return rabbitTemplate;
     }
 
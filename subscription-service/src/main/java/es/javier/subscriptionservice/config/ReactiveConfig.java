@@ -0,0 +1,45 @@
+package es.javier.subscriptionservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import javax.sql.DataSource;
+
+/**
+ * Configuration of the non-blocking variant of the service, enabled with the "reactive" profile (see
+ * application-reactive.properties). The API is served by WebFlux and the subscriptions are read and written through
+ * R2DBC, so a small amount of event loop threads serves every request instead of one thread per request.
+ * The JDBC data source is still needed by the components shared with the servlet stack (the email filter is built
+ * with JPA), but Spring Boot does not configure it when there is an R2DBC connection factory, so it is defined here.
+ */
+@Configuration
+@Profile(ReactiveConfig.PROFILE)
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReactiveConfig {
+
+    public static final String PROFILE = "reactive";
+
+    /**
+     * Tomcat is on the classpath because of the servlet stack, and Spring Boot would prefer it to Netty.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // With replicas, the data source is the one of ReplicaDataSourceConfig
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    @ConditionalOnProperty(name = "subscriptions.datasource.replicas.enabled", havingValue = "false", matchIfMissing = true)
+    public DataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+}
@@ -0,0 +1,53 @@
+package es.javier.subscriptionservice.config;
+
+import es.javier.subscriptionservice.security.CustomAuthenticationProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Same configuration as {@link WebSecurityConfig}, for the WebFlux stack of the "reactive" profile: Basic Auth
+ * checked by the {@link CustomAuthenticationProvider}, without sessions.
+ */
+@Configuration
+@EnableWebFluxSecurity
+@Profile(ReactiveConfig.PROFILE)
+public class ReactiveWebSecurityConfig {
+
+    /**
+     * The tokens are checked in memory, so the provider can be called from the event loop.
+     */
+    @Bean
+    public ReactiveAuthenticationManager authenticationManager(CustomAuthenticationProvider authProvider) {
+        return authentication -> Mono //
+                .fromCallable(() -> authProvider.authenticate(authentication)) //
+                .switchIfEmpty(Mono.error(() -> new BadCredentialsException("Invalid credentials")));
+    }
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity httpSecurity, //
+                                                         ReactiveAuthenticationManager authenticationManager) {
+        // @formatter:off
+        return httpSecurity //
+                // This is safe to disable because no browser usage is expected
+                .csrf().disable() //
+                .authorizeExchange() //
+                    .pathMatchers(WebSecurityConfig.AUTH_WHITELIST).permitAll() //
+                        .anyExchange().authenticated() //
+                .and() //
+                    .httpBasic() //
+                    .authenticationManager(authenticationManager) //
+                .and() //
+                    .securityContextRepository(NoOpServerSecurityContextRepository.getInstance()) //
+                .build();
+        // @formatter:on
+    }
+
+}
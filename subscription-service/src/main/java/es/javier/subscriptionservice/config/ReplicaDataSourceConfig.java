@@ -0,0 +1,62 @@
+package es.javier.subscriptionservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import es.javier.subscriptionservice.datasource.ReadWriteRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration to send the read-only transactions to PostgreSQL replicas, enabled with
+ * subscriptions.datasource.replicas.enabled. The primary is the usual spring.datasource, and the replicas are reached
+ * with the same credentials.
+ * See {@link ReadWriteRoutingDataSource}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "subscriptions.datasource.replicas.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Value("${subscriptions.datasource.replicas.urls}")
+    private List<String> replicaUrls;
+
+    // Short, so the requests do not wait long for a replica that is down before falling back to the primary
+    @Value("${subscriptions.datasource.replicas.connection-timeout:1000}")
+    private long replicaConnectionTimeout;
+
+    @Bean
+    ReadWriteRoutingDataSource routingDataSource(DataSourceProperties properties) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class) //
+                    .url(replicaUrls.get(i)) //
+                    .build();
+            replica.setPoolName("replica-" + i);
+            replica.setReadOnly(true);
+            replica.setConnectionTimeout(replicaConnectionTimeout);
+
+            replicas.put(replica.getPoolName(), replica);
+        }
+
+        return new ReadWriteRoutingDataSource(primary, replicas);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+}
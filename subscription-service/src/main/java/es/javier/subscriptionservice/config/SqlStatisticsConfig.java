@@ -0,0 +1,52 @@
+package es.javier.subscriptionservice.config;
+
+import es.javier.subscriptionservice.datasource.SqlStatistics;
+import es.javier.subscriptionservice.datasource.SqlStatisticsEndpoint;
+import es.javier.subscriptionservice.datasource.SqlStatisticsListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Configuration to gather the {@link SqlStatistics}, enabled with subscriptions.sql-stats.enabled. The data source
+ * used by the application (the primary, or the routing one with replicas) is wrapped in a datasource-proxy that
+ * reports every statement, and the statistics are exposed by the sqlstats actuator endpoint.
+ */
+@Configuration
+@ConditionalOnProperty(name = "subscriptions.sql-stats.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlStatisticsConfig {
+
+    private static final String DATA_SOURCE_BEAN = "dataSource";
+
+    // Static, so the post processor does not initialize the rest of the configuration too early
+    @Bean
+    static BeanPostProcessor sqlStatisticsDataSourcePostProcessor(ObjectProvider<SqlStatistics> statistics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!DATA_SOURCE_BEAN.equals(beanName) || !(bean instanceof DataSource)) {
+                    return bean;
+                }
+
+                SqlStatisticsListener listener = new SqlStatisticsListener(statistics.getObject());
+
+                return ProxyDataSourceBuilder.create(beanName, (DataSource) bean) //
+                        .listener(listener) //
+                        .methodListener(listener) //
+                        .proxyResultSet() //
+                        .build();
+            }
+        };
+    }
+
+    @Bean
+    SqlStatisticsEndpoint sqlStatisticsEndpoint(SqlStatistics statistics) {
+        return new SqlStatisticsEndpoint(statistics);
+    }
+
+}
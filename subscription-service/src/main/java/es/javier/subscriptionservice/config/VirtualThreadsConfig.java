@@ -0,0 +1,50 @@
+package es.javier.subscriptionservice.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in mode (spring.threads.virtual.enabled=true) where Tomcat handles every request in a new virtual thread instead
+ * of in its fixed pool of worker threads, so the threads blocked in JDBC or RabbitMQ calls do not limit the amount of
+ * requests served at the same time (the JDBC calls are still limited by the size of the connection pool).
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        logger.info("Requests will be handled in virtual threads");
+
+        // A new thread per task
+        return protocolHandler -> protocolHandler.setExecutor( //
+                new SimpleAsyncTaskExecutor(virtualThreadFactory("http-virtual-")));
+    }
+
+    /**
+     * Equivalent to {@code Thread.ofVirtual().name(prefix, 0).factory()}.
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available in Java " + Runtime.version(), e);
+        }
+    }
+
+}
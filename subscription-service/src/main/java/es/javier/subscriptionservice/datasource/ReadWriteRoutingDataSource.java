@@ -0,0 +1,184 @@
+package es.javier.subscriptionservice.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * {@link AbstractRoutingDataSource} that sends the read-only transactions to the replicas (round robin) and everything
+ * else to the primary.
+ * The replicas are checked periodically, and one that fails is not used again until it passes a check. If no replica
+ * is healthy, the read-only transactions fall back to the primary too.
+ * The read-only flag of the transaction is only known once it has started, so it must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy} that asks for the connection when the first
+ * statement is executed.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+    public static final String PRIMARY = "primary";
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private static final ThreadLocal<Boolean> FORCE_PRIMARY = ThreadLocal.withInitial(() -> false);
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile List<String> healthyReplicas;
+
+    public ReadWriteRoutingDataSource(DataSource primary, Map<String, DataSource> replicas) {
+        this.primary = primary;
+        this.replicas = new LinkedHashMap<>(replicas);
+        this.healthyReplicas = new ArrayList<>(replicas.keySet());
+
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Runs the action using the primary even for read-only transactions, for example to read a subscription that has
+     * just been written and may not have reached the replicas yet.
+     */
+    public static <T> T onPrimaryIf(boolean condition, Supplier<T> action) {
+        if (!condition) {
+            return action.get();
+        }
+
+        boolean previous = FORCE_PRIMARY.get();
+        FORCE_PRIMARY.set(true);
+
+        try {
+            return action.get();
+        } finally {
+            FORCE_PRIMARY.set(previous);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || FORCE_PRIMARY.get()) {
+            return PRIMARY;
+        }
+
+        List<String> candidates = healthyReplicas;
+
+        return candidates.isEmpty()
+                ? PRIMARY
+                : candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    /**
+     * Gets the connection from the data source of the current lookup key, falling back to the primary if the replica
+     * fails.
+     */
+    private Connection getConnection(ConnectionFactory factory) throws SQLException {
+        Object key = determineCurrentLookupKey();
+
+        if (PRIMARY.equals(key)) {
+            return factory.getConnection(primary);
+        }
+
+        try {
+            return factory.getConnection(replicas.get(key));
+        } catch (SQLFeatureNotSupportedException e) {
+            // Not a failure of the replica
+            throw e;
+        } catch (SQLException e) {
+            logger.warn("Replica {} is not available, using the primary: {}", key, e.getMessage());
+            markUnhealthy((String) key);
+
+            return factory.getConnection(primary);
+        }
+    }
+
+    /**
+     * Validates a connection of every replica, so the failed ones are used again once they recover.
+     */
+    @Scheduled(fixedDelayString = "${subscriptions.datasource.replicas.health-check-interval:10000}")
+    public void checkReplicas() {
+        List<String> healthy = new ArrayList<>();
+
+        replicas.forEach((key, dataSource) -> {
+            try (Connection connection = dataSource.getConnection()) {
+                if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    healthy.add(key);
+                }
+            } catch (SQLException e) {
+                logger.debug("Replica {} failed the health check: {}", key, e.getMessage());
+            }
+        });
+
+        if (!healthy.equals(healthyReplicas)) {
+            logger.info("Healthy replicas: {} (of {})", healthy, replicas.keySet());
+        }
+
+        healthyReplicas = healthy;
+    }
+
+    public List<String> getHealthyReplicas() {
+        return healthyReplicas;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(primary);
+
+        for (DataSource replica : replicas.values()) {
+            close(replica);
+        }
+    }
+
+    private synchronized void markUnhealthy(String key) {
+        List<String> healthy = new ArrayList<>(healthyReplicas);
+
+        if (healthy.remove(key)) {
+            healthyReplicas = healthy;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionFactory {
+
+        Connection getConnection(DataSource dataSource) throws SQLException;
+
+    }
+
+    private static void close(DataSource dataSource) throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package es.javier.subscriptionservice.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Remembers for a while the subscriptions (by email and by id) that have been written, so they are read from the
+ * primary until the replicas have surely received the change.
+ * A window of zero disables it.
+ */
+@Component
+public class ReadYourWritesTracker {
+
+    private static final long MAX_TRACKED_KEYS = 100_000;
+
+    private final Cache<String, Boolean> recentEmails;
+
+    private final Cache<Long, Boolean> recentIds;
+
+    private final boolean enabled;
+
+    public ReadYourWritesTracker(@Value("${subscriptions.datasource.replicas.read-your-writes-window:5s}") Duration window) {
+        this.enabled = !window.isZero();
+        this.recentEmails = Caffeine.newBuilder().maximumSize(MAX_TRACKED_KEYS).expireAfterWrite(window).build();
+        this.recentIds = Caffeine.newBuilder().maximumSize(MAX_TRACKED_KEYS).expireAfterWrite(window).build();
+    }
+
+    public void recordWrite(String email, Long id) {
+        if (!enabled) {
+            return;
+        }
+
+        if (email != null) {
+            recentEmails.put(email, Boolean.TRUE);
+        }
+        if (id != null) {
+            recentIds.put(id, Boolean.TRUE);
+        }
+    }
+
+    public boolean wasRecentlyWritten(String email) {
+        return enabled && email != null && recentEmails.getIfPresent(email) != null;
+    }
+
+    public boolean wasRecentlyWritten(Long id) {
+        return enabled && id != null && recentIds.getIfPresent(id) != null;
+    }
+
+}
@@ -0,0 +1,280 @@
+package es.javier.subscriptionservice.datasource;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Statistics of the statements sent to the database, grouped by their shape (the SQL without literals and with the
+ * IN lists collapsed), so the executions of the same statement with different values are aggregated.
+ * For every shape, the executions, errors, latencies and rows are kept in Micrometer meters (with percentile
+ * histograms), which are also published as the subscriptions.sql.* metrics, tagged with the id of the shape.
+ * The statements slower than subscriptions.sql-stats.slow-query-threshold are logged, and the last ones are kept for
+ * the sqlstats endpoint. The bind parameters may contain personal data, so they are only logged for a sample of them,
+ * and never kept for the endpoint.
+ * It replaces logging every statement (spring.jpa.show-sql), which is too expensive to be enabled in production.
+ * The statements are reported by the {@link SqlStatisticsListener}.
+ */
+@Component
+public class SqlStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlStatistics.class);
+
+    private static final String OVERFLOW_SHAPE = "(other statements)";
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, ShapeStatistics> shapes = new ConcurrentHashMap<>();
+
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final int maxShapes;
+
+    private final Duration slowQueryThreshold;
+
+    private final double parametersSampleRate;
+
+    private final int slowQueriesKept;
+
+    public SqlStatistics(MeterRegistry meterRegistry, //
+                         @Value("${subscriptions.sql-stats.max-shapes:200}") int maxShapes, //
+                         @Value("${subscriptions.sql-stats.slow-query-threshold:500ms}") Duration slowQueryThreshold, //
+                         @Value("${subscriptions.sql-stats.slow-query-parameters-sample-rate:0.1}") double parametersSampleRate, //
+                         @Value("${subscriptions.sql-stats.slow-queries-kept:50}") int slowQueriesKept) {
+        this.meterRegistry = meterRegistry;
+        this.maxShapes = maxShapes;
+        this.slowQueryThreshold = slowQueryThreshold;
+        this.parametersSampleRate = parametersSampleRate;
+        this.slowQueriesKept = slowQueriesKept;
+    }
+
+    /**
+     * Records an execution of a statement.
+     *
+     * @param sql        the statement, as sent to the driver.
+     * @param elapsed    the time the execution took.
+     * @param success    whether the execution succeeded.
+     * @param rows       the rows modified (or -1 if unknown, like in queries, whose rows are recorded when read).
+     * @param parameters the bind parameters, only evaluated if the statement is slow and sampled.
+     * @return the shape of the statement, to record the rows read afterwards.
+     */
+    public ShapeStatistics recordExecution(String sql, Duration elapsed, boolean success, long rows, //
+                                           Supplier<String> parameters) {
+        ShapeStatistics shape = getShape(sql);
+
+        shape.timer.record(elapsed);
+
+        if (!success) {
+            shape.errors.increment();
+        }
+
+        if (rows >= 0) {
+            shape.rows.record(rows);
+        }
+
+        if (elapsed.compareTo(slowQueryThreshold) >= 0) {
+            recordSlowQuery(shape, elapsed, rows, parameters);
+        }
+
+        return shape;
+    }
+
+    /**
+     * @return the statistics of every shape, the most expensive (in total time) first.
+     */
+    public List<Map<String, Object>> getShapes() {
+        return shapes.values().stream() //
+                .sorted(Comparator.comparingDouble((ShapeStatistics shape) -> shape.timer.totalTime(TimeUnit.MILLISECONDS)) //
+                        .reversed()) //
+                .map(ShapeStatistics::toMap) //
+                .collect(Collectors.toList());
+    }
+
+    public List<Map<String, Object>> getSlowQueries() {
+        synchronized (slowQueries) {
+            return slowQueries.stream().map(SlowQuery::toMap).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Forgets every statistic, removing its meters.
+     */
+    public void reset() {
+        shapes.values().forEach(shape -> {
+            meterRegistry.remove(shape.timer);
+            meterRegistry.remove(shape.rows);
+        });
+        shapes.clear();
+
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Removes the literals, collapses the lists of parameters and normalizes the whitespace of a statement, so every
+     * execution of the same statement has the same shape.
+     */
+    static String toShape(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = PARAMETER_LIST.matcher(shape).replaceAll("(?, ...)");
+
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    private ShapeStatistics getShape(String sql) {
+        String shape = toShape(sql);
+        ShapeStatistics statistics = shapes.get(shape);
+
+        if (statistics != null) {
+            return statistics;
+        }
+
+        // Statements built dynamically could create unlimited shapes (and meters), so the excess is aggregated
+        String key = (shapes.size() < maxShapes) ? shape : OVERFLOW_SHAPE;
+
+        return shapes.computeIfAbsent(key, this::createShape);
+    }
+
+    private ShapeStatistics createShape(String shape) {
+        String id = Integer.toHexString(shape.hashCode());
+
+        Timer timer = Timer.builder("subscriptions.sql.executions") //
+                .description("Executions of the statements of a shape") //
+                .tag("statement", id) //
+                .publishPercentiles(PERCENTILES) //
+                .publishPercentileHistogram() //
+                .register(meterRegistry);
+
+        DistributionSummary rows = DistributionSummary.builder("subscriptions.sql.rows") //
+                .description("Rows read or modified by the statements of a shape") //
+                .tag("statement", id) //
+                .register(meterRegistry);
+
+        return new ShapeStatistics(id, shape, timer, rows);
+    }
+
+    private void recordSlowQuery(ShapeStatistics shape, Duration elapsed, long rows, Supplier<String> parameters) {
+        boolean sampled = parametersSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < parametersSampleRate;
+
+        if (sampled) {
+            logger.warn("Slow statement ({} ms, {} rows) [{}]: {} Parameters: {}", elapsed.toMillis(), rows, shape.id, //
+                    shape.sql, parameters.get());
+        } else {
+            logger.warn("Slow statement ({} ms, {} rows) [{}]: {}", elapsed.toMillis(), rows, shape.id, shape.sql);
+        }
+
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= slowQueriesKept) {
+                slowQueries.removeFirst();
+            }
+
+            if (slowQueriesKept > 0) {
+                slowQueries.addLast(new SlowQuery(shape, Instant.now(), elapsed, rows));
+            }
+        }
+    }
+
+    public static final class ShapeStatistics {
+        private final String id;
+        private final String sql;
+        private final Timer timer;
+        private final DistributionSummary rows;
+        private final LongAdder errors = new LongAdder();
+
+        private ShapeStatistics(String id, String sql, Timer timer, DistributionSummary rows) {
+            this.id = id;
+            this.sql = sql;
+            this.timer = timer;
+            this.rows = rows;
+        }
+
+        public void recordRows(long rowsRead) {
+            rows.record(rowsRead);
+        }
+
+        private Map<String, Object> toMap() {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> percentiles = new LinkedHashMap<>();
+
+            for (ValueAtPercentile value : snapshot.percentileValues()) {
+                percentiles.put("p" + Math.round(value.percentile() * 100), value.value(TimeUnit.MILLISECONDS));
+            }
+
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("id", id);
+            statistics.put("statement", sql);
+            statistics.put("executions", snapshot.count());
+            statistics.put("errors", errors.sum());
+            statistics.put("totalTimeMs", snapshot.total(TimeUnit.MILLISECONDS));
+            statistics.put("meanTimeMs", snapshot.mean(TimeUnit.MILLISECONDS));
+            // Micrometer only keeps the maximum of the last few minutes
+            statistics.put("recentMaxTimeMs", snapshot.max(TimeUnit.MILLISECONDS));
+            statistics.put("timeMsPercentiles", percentiles);
+            statistics.put("rows", (long) rows.totalAmount());
+            statistics.put("meanRows", rows.mean());
+            statistics.put("recentMaxRows", (long) rows.max());
+
+            return statistics;
+        }
+    }
+
+    private static final class SlowQuery {
+        private final ShapeStatistics shape;
+        private final Instant executedAt;
+        private final Duration elapsed;
+        private final long rows;
+
+        private SlowQuery(ShapeStatistics shape, Instant executedAt, Duration elapsed, long rows) {
+            this.shape = shape;
+            this.executedAt = executedAt;
+            this.elapsed = elapsed;
+            this.rows = rows;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> slowQuery = new LinkedHashMap<>();
+            slowQuery.put("id", shape.id);
+            slowQuery.put("statement", shape.sql);
+            slowQuery.put("executedAt", executedAt.toString());
+            slowQuery.put("timeMs", elapsed.toMillis());
+            slowQuery.put("rows", rows);
+
+            return slowQuery;
+        }
+    }
+
+}
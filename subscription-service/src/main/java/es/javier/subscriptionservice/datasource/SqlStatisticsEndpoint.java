@@ -0,0 +1,38 @@
+package es.javier.subscriptionservice.datasource;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint (/actuator/sqlstats) with the {@link SqlStatistics}: the statement shapes, the most expensive
+ * first, and the last slow statements (without their bind parameters). A DELETE request resets them, to measure a
+ * given period. Like every actuator endpoint, it is only served on the internal management port.
+ */
+@Endpoint(id = "sqlstats")
+public class SqlStatisticsEndpoint {
+
+    private final SqlStatistics statistics;
+
+    public SqlStatisticsEndpoint(SqlStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> sqlStatistics() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("statements", statistics.getShapes());
+        response.put("slowStatements", statistics.getSlowQueries());
+
+        return response;
+    }
+
+    @DeleteOperation
+    public void reset() {
+        statistics.reset();
+    }
+
+}
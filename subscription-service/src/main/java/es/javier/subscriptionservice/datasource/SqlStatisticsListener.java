@@ -0,0 +1,149 @@
+package es.javier.subscriptionservice.datasource;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.MethodExecutionContext;
+import net.ttddyy.dsproxy.listener.MethodExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * datasource-proxy listener that reports the statements executed through the proxied data source to the
+ * {@link SqlStatistics}. The rows modified are the update counts, and the rows of the queries are counted as their
+ * result sets are iterated (the result sets are proxied too), being recorded when they (or their statements) are
+ * closed.
+ */
+public class SqlStatisticsListener implements QueryExecutionListener, MethodExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlStatisticsListener.class);
+
+    private final SqlStatistics statistics;
+
+    // Rows read from the result sets still open, by the statement that created them
+    private final Map<Statement, RowCounter> openResults = new ConcurrentHashMap<>();
+
+    public SqlStatisticsListener(SqlStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        // Nothing to do: the elapsed time is measured by datasource-proxy
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        Duration elapsed = Duration.ofMillis(execInfo.getElapsedTime());
+        Object result = execInfo.getResult();
+
+        for (QueryInfo query : queryInfoList) {
+            SqlStatistics.ShapeStatistics shape = statistics.recordExecution(query.getQuery(), elapsed, //
+                    execInfo.isSuccess(), getModifiedRows(result), () -> getParameters(query));
+
+            if (result instanceof ResultSet && execInfo.getStatement() != null) {
+                openResults.put(execInfo.getStatement(), new RowCounter(shape));
+            }
+        }
+    }
+
+    @Override
+    public void beforeMethod(MethodExecutionContext executionContext) {
+        // Nothing to do: the rows are counted once the method returns
+    }
+
+    @Override
+    public void afterMethod(MethodExecutionContext executionContext) {
+        Object target = executionContext.getTarget();
+        String method = executionContext.getMethod().getName();
+
+        if (target instanceof ResultSet) {
+            if ("next".equals(method) && Boolean.TRUE.equals(executionContext.getResult())) {
+                RowCounter counter = openResults.get(getStatement((ResultSet) target));
+
+                if (counter != null) {
+                    counter.rows.incrementAndGet();
+                }
+            } else if ("close".equals(method)) {
+                recordRows(getStatement((ResultSet) target));
+            }
+        } else if (target instanceof Statement && "close".equals(method)) {
+            // Closing a statement closes its result set too
+            recordRows((Statement) target);
+        }
+    }
+
+    private void recordRows(Statement statement) {
+        RowCounter counter = (statement == null) ? null : openResults.remove(statement);
+
+        if (counter != null) {
+            counter.shape.recordRows(counter.rows.get());
+        }
+    }
+
+    /**
+     * @return the rows modified by an update (or by every statement of a batch), or -1 for the queries.
+     */
+    private static long getModifiedRows(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return Math.max(((Number) result).longValue(), 0L);
+        }
+
+        long rows = 0;
+
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                // Drivers may report Statement.SUCCESS_NO_INFO instead of the count
+                rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(count, 0L);
+            }
+        } else {
+            return -1;
+        }
+
+        return rows;
+    }
+
+    private static String getParameters(QueryInfo query) {
+        return query.getParametersList().stream() //
+                .map(parameters -> parameters.stream() //
+                        .map(ParameterSetOperation::getArgs) //
+                        .filter(args -> args.length > 1) //
+                        .map(args -> args[0] + "=" + args[1]) //
+                        .collect(Collectors.joining(", ", "[", "]"))) //
+                .collect(Collectors.joining(", "));
+    }
+
+    private static Statement getStatement(ResultSet resultSet) {
+        try {
+            return resultSet.getStatement();
+        } catch (SQLException e) {
+            logger.debug("Statement of the result set not available: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class RowCounter {
+        private final SqlStatistics.ShapeStatistics shape;
+        private final AtomicLong rows = new AtomicLong();
+
+        private RowCounter(SqlStatistics.ShapeStatistics shape) {
+            this.shape = shape;
+        }
+    }
+
+}
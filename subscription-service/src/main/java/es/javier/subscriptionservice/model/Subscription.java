@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateSerializer;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
@@ -16,13 +18,22 @@ import java.util.Objects;
 
 /**
  * Abstraction of a subscription and database entity.
+ * It is kept in the second-level cache of Hibernate (region {@link #CACHE_REGION}, configured in ehcache.xml).
  */
 @Entity
 @Table(name = "subscriptions")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Subscription.CACHE_REGION)
 public class Subscription implements Serializable {
 
+    public static final String CACHE_REGION = "subscriptions";
+
+    // A pooled sequence (instead of IDENTITY) lets Hibernate assign ids before inserting, so inserts can be batched.
+    // The allocation size must match the INCREMENT BY of the sequence in the database.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "subscriptions_id_generator")
+    @SequenceGenerator(name = "subscriptions_id_generator", sequenceName = "subscriptions_subscription_id_seq", //
+            allocationSize = 50)
     @Column(name = "SUBSCRIPTION_ID")
     private Long subscriptionId;
 
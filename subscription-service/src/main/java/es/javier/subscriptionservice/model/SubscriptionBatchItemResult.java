@@ -0,0 +1,75 @@
+package es.javier.subscriptionservice.model;
+
+import org.springframework.http.HttpStatus;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a single element of a batch creation request.
+ * - {@link Integer} index: position of the element in the request
+ * - {@link HttpStatus} code: {@link HttpStatus#CREATED}, {@link HttpStatus#FOUND} if the email was already subscribed
+ * (or repeated in the same request) or {@link HttpStatus#BAD_REQUEST} if the element was not valid
+ * - {@link Long} subscriptionId: the id of the created or found subscription, if any
+ */
+public class SubscriptionBatchItemResult implements Serializable {
+
+    private int index;
+    private String email;
+    private HttpStatus code;
+    private Long subscriptionId;
+    private String message;
+
+    public SubscriptionBatchItemResult() {
+    }
+
+    public SubscriptionBatchItemResult(int index, String email, HttpStatus code, Long subscriptionId, String message) {
+        this.index = index;
+        this.email = email;
+        this.code = code;
+        this.subscriptionId = subscriptionId;
+        this.message = message;
+    }
+
+    // <editor-fold desc="getters && setters">
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public HttpStatus getCode() {
+        return code;
+    }
+
+    public void setCode(HttpStatus code) {
+        this.code = code;
+    }
+
+    public Long getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(Long subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    // </editor-fold>
+
+}
@@ -0,0 +1,34 @@
+package es.javier.subscriptionservice.model;
+
+import java.util.List;
+
+/**
+ * {@link SubscriptionResponseInformation} returned by batch operations. Besides the common information, it reports the
+ * outcome of every element of the request in {@link List<SubscriptionBatchItemResult>} itemResults, in the same order.
+ */
+public class SubscriptionBatchResponseInformation extends SubscriptionResponseInformation {
+
+    private List<SubscriptionBatchItemResult> itemResults;
+
+    // <editor-fold desc="builder interface">
+    public static SubscriptionBatchResponseInformation batchBuilder() {
+        return new SubscriptionBatchResponseInformation();
+    }
+
+    public SubscriptionBatchResponseInformation withItemResults(List<SubscriptionBatchItemResult> itemResults) {
+        this.setItemResults(itemResults);
+        return this;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="getters && setters">
+    public List<SubscriptionBatchItemResult> getItemResults() {
+        return itemResults;
+    }
+
+    public void setItemResults(List<SubscriptionBatchItemResult> itemResults) {
+        this.itemResults = itemResults;
+    }
+    // </editor-fold>
+
+}
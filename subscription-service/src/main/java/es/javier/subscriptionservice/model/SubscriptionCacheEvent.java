@@ -0,0 +1,78 @@
+package es.javier.subscriptionservice.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Event broadcast to every replica of the service when subscriptions are created or deleted, so they can update their
+ * local caches, or when some of those events could not be sent (MISSED, without keys), so they clear them.
+ * - {@link String} origin: identifier of the replica that sent it, that ignores its own events
+ * - {@link Type} type: what happened to the subscriptions
+ * - {@link List} subscriptionIds and emails: the keys of the affected subscriptions
+ */
+public class SubscriptionCacheEvent implements Serializable {
+
+    public enum Type {
+        CREATED, DELETED, MISSED
+    }
+
+    private String origin;
+    private Type type;
+    private List<Long> subscriptionIds;
+    private List<String> emails;
+
+    public SubscriptionCacheEvent() {
+    }
+
+    public SubscriptionCacheEvent(String origin, Type type, List<Long> subscriptionIds, List<String> emails) {
+        this.origin = origin;
+        this.type = type;
+        this.subscriptionIds = subscriptionIds;
+        this.emails = emails;
+    }
+
+    // <editor-fold desc="getters && setters">
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public List<Long> getSubscriptionIds() {
+        return subscriptionIds;
+    }
+
+    public void setSubscriptionIds(List<Long> subscriptionIds) {
+        this.subscriptionIds = subscriptionIds;
+    }
+
+    public List<String> getEmails() {
+        return emails;
+    }
+
+    public void setEmails(List<String> emails) {
+        this.emails = emails;
+    }
+    // </editor-fold>
+
+    @Override
+    public String toString() {
+        return "SubscriptionCacheEvent{" +
+                "origin='" + origin + '\'' +
+                ", type=" + type +
+                ", subscriptionIds=" + subscriptionIds +
+                ", emails=" + emails +
+                '}';
+    }
+
+}
@@ -0,0 +1,159 @@
+package es.javier.subscriptionservice.model;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Progress of an asynchronous deletion of the subscriptions of a newsletter, which deletes them in chunks, one
+ * transaction per chunk.
+ * - {@link String} jobId: the id to query the progress with
+ * - {@link State} state: whether the job is waiting for another one, running or how it finished
+ * - {@link Long} expectedAmount: the subscriptions the newsletter had when the job started
+ * - {@link Long} deletedAmount and chunks: the subscriptions (and chunks) deleted so far
+ * - {@link Double} rowsPerSecond: the throughput of the job so far
+ */
+public class SubscriptionDeletionJob implements Serializable {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private String jobId;
+    private Long newsletterId;
+    private volatile State state;
+    private long expectedAmount;
+    private volatile long deletedAmount;
+    private volatile long chunks;
+    private Instant createdAt;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String message;
+
+    public SubscriptionDeletionJob() {
+    }
+
+    public SubscriptionDeletionJob(String jobId, Long newsletterId, long expectedAmount) {
+        this.jobId = jobId;
+        this.newsletterId = newsletterId;
+        this.expectedAmount = expectedAmount;
+        this.state = State.QUEUED;
+        this.createdAt = Instant.now();
+    }
+
+    // The progress is only updated by the thread running the job
+    public void start() {
+        this.startedAt = Instant.now();
+        this.state = State.RUNNING;
+    }
+
+    public void recordChunk(int deleted) {
+        deletedAmount += deleted;
+        chunks++;
+    }
+
+    public void finish(State state, String message) {
+        this.finishedAt = Instant.now();
+        this.message = message;
+        this.state = state;
+    }
+
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    public long getElapsedMillis() {
+        Instant end = (finishedAt == null) ? Instant.now() : finishedAt;
+
+        return (startedAt == null) ? 0 : Duration.between(startedAt, end).toMillis();
+    }
+
+    public double getRowsPerSecond() {
+        long elapsedMillis = getElapsedMillis();
+
+        return (elapsedMillis == 0) ? 0 : deletedAmount * 1000.0 / elapsedMillis;
+    }
+
+    // <editor-fold desc="getters && setters">
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public Long getNewsletterId() {
+        return newsletterId;
+    }
+
+    public void setNewsletterId(Long newsletterId) {
+        this.newsletterId = newsletterId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public long getExpectedAmount() {
+        return expectedAmount;
+    }
+
+    public void setExpectedAmount(long expectedAmount) {
+        this.expectedAmount = expectedAmount;
+    }
+
+    public long getDeletedAmount() {
+        return deletedAmount;
+    }
+
+    public void setDeletedAmount(long deletedAmount) {
+        this.deletedAmount = deletedAmount;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(long chunks) {
+        this.chunks = chunks;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    // </editor-fold>
+
+}
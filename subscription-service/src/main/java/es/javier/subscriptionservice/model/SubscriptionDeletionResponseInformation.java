@@ -0,0 +1,32 @@
+package es.javier.subscriptionservice.model;
+
+/**
+ * {@link SubscriptionResponseInformation} returned by the asynchronous deletions. Besides the common information, it
+ * reports the progress of the deletion in {@link SubscriptionDeletionJob} deletionJob.
+ */
+public class SubscriptionDeletionResponseInformation extends SubscriptionResponseInformation {
+
+    private SubscriptionDeletionJob deletionJob;
+
+    // <editor-fold desc="builder interface">
+    public static SubscriptionDeletionResponseInformation deletionBuilder() {
+        return new SubscriptionDeletionResponseInformation();
+    }
+
+    public SubscriptionDeletionResponseInformation withDeletionJob(SubscriptionDeletionJob deletionJob) {
+        this.setDeletionJob(deletionJob);
+        return this;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="getters && setters">
+    public SubscriptionDeletionJob getDeletionJob() {
+        return deletionJob;
+    }
+
+    public void setDeletionJob(SubscriptionDeletionJob deletionJob) {
+        this.deletionJob = deletionJob;
+    }
+    // </editor-fold>
+
+}
@@ -1,5 +1,6 @@
 package es.javier.subscriptionservice.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.springframework.http.HttpStatus;
 
 import java.io.Serializable;
@@ -12,6 +13,7 @@ import java.util.Map;
  * Entity that abstracts all the information that the API responses.
  * - {@link HttpStatus} code: the response code to be returned by the API
  * - {@link List<Subscription>} subscriptionData: a placeholder for none or many elements
+ * - {@link List<Map>} projectedData: the elements, when only some of their fields were requested
  * - {@link Map<String,String>} payload: a set of key-value pairs, if a header is to be sent
  * - {@link String} message: a simple message to have some info when debugging or if simple info is to be sent
  */
@@ -19,9 +21,17 @@ public class SubscriptionResponseInformation implements Serializable {
     public static final String HEADER_ID_CREATED = "Subscription-Id-Created";
     public static final String HEADER_ID_FOUND = "Subscription-Id-Found";
     public static final String HEADER_AMOUNT = "Subscriptions-Found-Amount";
+    public static final String HEADER_AMOUNT_ESTIMATED = "Subscriptions-Amount-Estimated";
+    public static final String HEADER_NEXT_CURSOR = "Subscriptions-Next-Cursor";
+    public static final String HEADER_CREATED_AMOUNT = "Subscriptions-Created-Amount";
+    public static final String HEADER_INVALID_AMOUNT = "Subscriptions-Invalid-Amount";
+    public static final String HEADER_DELETED_AMOUNT = "Subscriptions-Deleted-Amount";
+    public static final String HEADER_DELETION_JOB = "Subscriptions-Deletion-Job";
 
     private HttpStatus code;
     private List<Subscription> subscriptionData;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Map<String, Object>> projectedData;
     private Map<String, String> payload;
     private String message;
 
@@ -59,6 +69,11 @@ public class SubscriptionResponseInformation implements Serializable {
         return this;
     }
 
+    public SubscriptionResponseInformation withProjectedData(List<Map<String, Object>> projectedData) {
+        this.setProjectedData(projectedData);
+        return this;
+    }
+
     public SubscriptionResponseInformation havingInThePayload(String key, String value) {
         this.setPayload(key, value);
         return this;
@@ -100,6 +115,14 @@ public class SubscriptionResponseInformation implements Serializable {
     public void setSubscriptionData(List<Subscription> subscriptionData) {
         this.subscriptionData = subscriptionData;
     }
+
+    public List<Map<String, Object>> getProjectedData() {
+        return projectedData;
+    }
+
+    public void setProjectedData(List<Map<String, Object>> projectedData) {
+        this.projectedData = projectedData;
+    }
     // </editor-fold>
 
 }
@@ -0,0 +1,193 @@
+package es.javier.subscriptionservice.repository;
+
+import es.javier.subscriptionservice.config.ReactiveConfig;
+import es.javier.subscriptionservice.model.Subscription;
+import io.r2dbc.spi.Row;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Non-blocking counterpart of {@link SubscriptionRepository} (and {@link SubscriptionRepositoryCustom}) used by the
+ * "reactive" profile. It runs the same statements through R2DBC, so it relies on the same indexes.
+ * It is not a Spring Data repository, because {@link Subscription} is a JPA entity and would be claimed by both
+ * modules.
+ */
+@Repository
+@Profile(ReactiveConfig.PROFILE)
+public class ReactiveSubscriptionRepository {
+
+    private static final String SELECT_BY_ID = "SELECT * FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID = :id";
+
+    private static final String SELECT_BY_EMAIL = "SELECT * FROM SUBSCRIPTIONS WHERE EMAIL = :email";
+
+    private static final String SELECT_PAGE = "SELECT * FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID > :subscriptionId " +
+            "ORDER BY SUBSCRIPTION_ID LIMIT :limit";
+
+    private static final String SELECT_NEWSLETTER_PAGE = "SELECT * FROM SUBSCRIPTIONS WHERE NEWSLETTER_ID = :newsletterId " +
+            "AND SUBSCRIPTION_ID > :subscriptionId ORDER BY SUBSCRIPTION_ID LIMIT :limit";
+
+    private static final String SELECT_ALL = "SELECT * FROM SUBSCRIPTIONS ORDER BY SUBSCRIPTION_ID";
+
+    private static final String INSERT_IF_ABSENT = "WITH INSERTED AS (" +
+            "INSERT INTO SUBSCRIPTIONS (EMAIL, FIRST_NAME, GENDER, BIRTHDATE, CONSENT, NEWSLETTER_ID) " +
+            "VALUES (:email, :firstName, :gender, :birthdate, :consent, :newsletterId) " +
+            "ON CONFLICT (EMAIL) DO NOTHING " +
+            "RETURNING *), " +
+            "ENQUEUED AS (" + SubscriptionOutboxRepository.ENQUEUE_INSERTED + ") " +
+            "SELECT * FROM INSERTED";
+
+    private static final String DELETE_BY_ID = "DELETE FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID = :id RETURNING *";
+
+    private static final String COUNT = "SELECT COUNT(*) FROM SUBSCRIPTIONS";
+
+    // Before PostgreSQL 14 a table that has never been analyzed reports 0 instead of -1
+    private static final String ESTIMATE_COUNT = "SELECT CAST(RELTUPLES AS BIGINT) FROM PG_CLASS " +
+            "WHERE OID = CAST('subscriptions' AS REGCLASS)";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveSubscriptionRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Mono<Subscription> findById(Long id) {
+        return databaseClient.sql(SELECT_BY_ID) //
+                .bind("id", id) //
+                .map(ReactiveSubscriptionRepository::toSubscription) //
+                .one();
+    }
+
+    public Mono<Subscription> findByEmail(String email) {
+        return databaseClient.sql(SELECT_BY_EMAIL) //
+                .bind("email", email) //
+                .map(ReactiveSubscriptionRepository::toSubscription) //
+                .one();
+    }
+
+    /**
+     * Keyset pagination, as {@link SubscriptionRepository#findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc} and
+     * {@link SubscriptionRepository#findByNewsletterIdAndSubscriptionIdGreaterThanOrderBySubscriptionIdAsc}.
+     *
+     * @param newsletterId   if not null, only the subscriptions of this newsletter are returned.
+     * @param subscriptionId the cursor (last id of the previous page).
+     * @param limit          the maximum amount of subscriptions to return.
+     */
+    public Flux<Subscription> findPage(Long newsletterId, Long subscriptionId, int limit) {
+        GenericExecuteSpec query = (newsletterId == null) //
+                ? databaseClient.sql(SELECT_PAGE) //
+                : databaseClient.sql(SELECT_NEWSLETTER_PAGE).bind("newsletterId", newsletterId);
+
+        return query.bind("subscriptionId", subscriptionId) //
+                .bind("limit", limit) //
+                .map(ReactiveSubscriptionRepository::toSubscription) //
+                .all();
+    }
+
+    /**
+     * Streams every subscription ordered by id. The rows are requested as they are consumed, so the memory used does
+     * not depend on the amount of subscriptions.
+     */
+    public Flux<Subscription> streamAll() {
+        return databaseClient.sql(SELECT_ALL) //
+                .map(ReactiveSubscriptionRepository::toSubscription) //
+                .all();
+    }
+
+    /**
+     * Same as {@link SubscriptionRepositoryCustom#insertIfAbsent(Subscription)}.
+     *
+     * @return the subscription inserted, or empty if its email already existed.
+     */
+    public Mono<Subscription> insertIfAbsent(Subscription subscription) {
+        GenericExecuteSpec insert = databaseClient.sql(INSERT_IF_ABSENT);
+
+        insert = bindNullable(insert, "email", subscription.getEmail(), String.class);
+        insert = bindNullable(insert, "firstName", subscription.getFirstName(), String.class);
+        insert = bindNullable(insert, "gender", subscription.getGender(), String.class);
+        insert = bindNullable(insert, "birthdate", subscription.getBirthdate(), LocalDate.class);
+        insert = bindNullable(insert, "consent", subscription.getConsent(), Boolean.class);
+        insert = bindNullable(insert, "newsletterId", subscription.getNewsletterId(), Long.class);
+
+        return insert.map(ReactiveSubscriptionRepository::toSubscription).one();
+    }
+
+    /**
+     * Same as {@link SubscriptionRepositoryCustom#deleteAndReturnById(Long)}.
+     */
+    public Mono<Subscription> deleteAndReturnById(Long id) {
+        return databaseClient.sql(DELETE_BY_ID) //
+                .bind("id", id) //
+                .map(ReactiveSubscriptionRepository::toSubscription) //
+                .one();
+    }
+
+    /**
+     * Same as {@link SubscriptionRepositoryCustom#countSubscriptions(Long, Boolean)}.
+     */
+    public Mono<Long> countSubscriptions(Long newsletterId, Boolean consent) {
+        // Only the filters that are given become predicates, so PostgreSQL can plan each combination on its own
+        List<String> filters = new ArrayList<>();
+
+        if (newsletterId != null) {
+            filters.add("NEWSLETTER_ID = :newsletterId");
+        }
+
+        if (consent != null) {
+            filters.add("CONSENT = :consent");
+        }
+
+        GenericExecuteSpec query = databaseClient.sql(filters.isEmpty() //
+                ? COUNT //
+                : COUNT + " WHERE " + String.join(" AND ", filters));
+
+        if (newsletterId != null) {
+            query = query.bind("newsletterId", newsletterId);
+        }
+
+        if (consent != null) {
+            query = query.bind("consent", consent);
+        }
+
+        return query.map(row -> row.get(0, Long.class)).one();
+    }
+
+    /**
+     * Same as {@link SubscriptionRepositoryCustom#estimateCount()}.
+     */
+    public Mono<Long> estimateCount() {
+        return databaseClient.sql(ESTIMATE_COUNT) //
+                .map(row -> row.get(0, Long.class)) //
+                .one() //
+                .defaultIfEmpty(-1L);
+    }
+
+    // PostgreSQL rejects untyped null values for nullable columns
+    private static GenericExecuteSpec bindNullable(GenericExecuteSpec spec, String name, Object value, Class<?> type) {
+        return (value == null) //
+                ? spec.bindNull(name, type) //
+                : spec.bind(name, value);
+    }
+
+    private static Subscription toSubscription(Row row) {
+        Subscription subscription = new Subscription();
+
+        subscription.setSubscriptionId(row.get("SUBSCRIPTION_ID", Long.class));
+        subscription.setEmail(row.get("EMAIL", String.class));
+        subscription.setFirstName(row.get("FIRST_NAME", String.class));
+        subscription.setGender(row.get("GENDER", String.class));
+        subscription.setBirthdate(row.get("BIRTHDATE", LocalDate.class));
+        subscription.setConsent(row.get("CONSENT", Boolean.class));
+        subscription.setNewsletterId(row.get("NEWSLETTER_ID", Long.class));
+
+        return subscription;
+    }
+
+}
@@ -0,0 +1,165 @@
+package es.javier.subscriptionservice.repository;
+
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LongType;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transactional outbox of the notifications of the new subscriptions (table SUBSCRIPTION_OUTBOX). The notifications
+ * are written in the same transaction as the subscriptions, so none is lost if the broker is unavailable, and they are
+ * published afterwards by the {@link es.javier.subscriptionservice.service.SubscriptionOutboxRelay}.
+ * A relay claims a batch of notifications for a while (CLAIMED_UNTIL) in a short transaction, so it publishes them
+ * without holding any lock nor connection, and the other relays skip them until they are sent or the claim expires.
+ * The statements are synchronized with the outbox table only, so Hibernate does not evict the cached subscriptions
+ * when they are executed.
+ */
+@Repository
+public class SubscriptionOutboxRepository {
+
+    private static final String OUTBOX_TABLE = "SUBSCRIPTION_OUTBOX";
+
+    /**
+     * Enqueues the subscriptions of the INSERTED common table expression whose consent is given. It is part of the
+     * statement that inserts them (see {@link SubscriptionRepositoryImpl}).
+     */
+    static final String ENQUEUE_INSERTED = "INSERT INTO SUBSCRIPTION_OUTBOX (SUBSCRIPTION_ID) " +
+            "SELECT SUBSCRIPTION_ID FROM INSERTED WHERE CONSENT";
+
+    private static final String ENQUEUE = "INSERT INTO SUBSCRIPTION_OUTBOX (SUBSCRIPTION_ID) " +
+            "SELECT SUBSCRIPTION_ID FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID IN (:ids) AND CONSENT";
+
+    // The rows claimed (or being claimed) by another relay are skipped, so several replicas can publish at the same time
+    private static final String CLAIM_PENDING = "UPDATE SUBSCRIPTION_OUTBOX " +
+            "SET CLAIMED_UNTIL = CURRENT_TIMESTAMP + :claimSeconds * INTERVAL '1 second' WHERE OUTBOX_ID IN (" +
+            "SELECT OUTBOX_ID FROM SUBSCRIPTION_OUTBOX WHERE SENT_AT IS NULL " +
+            "AND (CLAIMED_UNTIL IS NULL OR CLAIMED_UNTIL < CURRENT_TIMESTAMP) " +
+            "ORDER BY OUTBOX_ID LIMIT :limit FOR UPDATE SKIP LOCKED) " +
+            "RETURNING OUTBOX_ID, SUBSCRIPTION_ID";
+
+    private static final String COUNT_PENDING = "SELECT COUNT(*) FROM SUBSCRIPTION_OUTBOX WHERE SENT_AT IS NULL";
+
+    private static final String MARK_SENT = "UPDATE SUBSCRIPTION_OUTBOX SET SENT_AT = CURRENT_TIMESTAMP " +
+            "WHERE OUTBOX_ID IN (:ids)";
+
+    private static final String RELEASE = "UPDATE SUBSCRIPTION_OUTBOX SET CLAIMED_UNTIL = NULL WHERE OUTBOX_ID IN (:ids)";
+
+    // Compared with the clock of the database, the one that set SENT_AT
+    private static final String PURGE_SENT = "DELETE FROM SUBSCRIPTION_OUTBOX " +
+            "WHERE SENT_AT < CURRENT_TIMESTAMP - :retentionSeconds * INTERVAL '1 second'";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Enqueues the notifications of the given subscriptions whose consent is given. It must be called in the
+     * transaction that creates them: the pending inserts are flushed first.
+     *
+     * @return the amount of notifications enqueued.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int enqueue(Collection<Long> subscriptionIds) {
+        if (subscriptionIds.isEmpty()) {
+            return 0;
+        }
+
+        entityManager.flush();
+
+        return entityManager.createNativeQuery(ENQUEUE) //
+                .unwrap(NativeQuery.class) //
+                .addSynchronizedQuerySpace(OUTBOX_TABLE) //
+                .setParameterList("ids", subscriptionIds, LongType.INSTANCE) //
+                .executeUpdate();
+    }
+
+    /**
+     * Claims the oldest notifications not sent yet (nor claimed by another relay) for the given time.
+     *
+     * @param limit maximum amount of notifications to claim.
+     * @param claim time after which the notifications can be claimed again, if they have not been sent.
+     * @return the id of the subscription of every notification, by the id of the notification, oldest first.
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public Map<Long, Long> claimPending(int limit, Duration claim) {
+        List<Object[]> rows = entityManager.createNativeQuery(CLAIM_PENDING) //
+                .unwrap(NativeQuery.class) //
+                .addSynchronizedQuerySpace(OUTBOX_TABLE) //
+                .addScalar("OUTBOX_ID", LongType.INSTANCE) //
+                .addScalar("SUBSCRIPTION_ID", LongType.INSTANCE) //
+                .setParameter("claimSeconds", claim.getSeconds(), LongType.INSTANCE) //
+                .setParameter("limit", limit, IntegerType.INSTANCE) //
+                .getResultList();
+
+        // RETURNING does not keep the order of the subquery
+        Map<Long, Long> pending = new LinkedHashMap<>();
+        rows.stream() //
+                .sorted(Comparator.comparing(row -> (Long) row[0])) //
+                .forEach(row -> pending.put((Long) row[0], (Long) row[1]));
+
+        return pending;
+    }
+
+    /**
+     * @return the amount of notifications not sent yet (read from the index of the pending notifications).
+     */
+    public long countPending() {
+        Number pending = (Number) entityManager.createNativeQuery(COUNT_PENDING) //
+                .unwrap(NativeQuery.class) //
+                .addSynchronizedQuerySpace(OUTBOX_TABLE) //
+                .getSingleResult();
+
+        return pending.longValue();
+    }
+
+    @Transactional
+    public int markSent(Collection<Long> outboxIds) {
+        return update(MARK_SENT, outboxIds);
+    }
+
+    /**
+     * Releases the claim of notifications that could not be sent, so they are published again in the next poll.
+     */
+    @Transactional
+    public int release(Collection<Long> outboxIds) {
+        return update(RELEASE, outboxIds);
+    }
+
+    /**
+     * Deletes the notifications sent longer ago than the given retention.
+     *
+     * @return the amount of notifications deleted.
+     */
+    @Transactional
+    public int purgeSent(Duration retention) {
+        return entityManager.createNativeQuery(PURGE_SENT) //
+                .unwrap(NativeQuery.class) //
+                .addSynchronizedQuerySpace(OUTBOX_TABLE) //
+                .setParameter("retentionSeconds", retention.getSeconds(), LongType.INSTANCE) //
+                .executeUpdate();
+    }
+
+    private int update(String statement, Collection<Long> outboxIds) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+
+        return entityManager.createNativeQuery(statement) //
+                .unwrap(NativeQuery.class) //
+                .addSynchronizedQuerySpace(OUTBOX_TABLE) //
+                .setParameterList("ids", outboxIds, LongType.INSTANCE) //
+                .executeUpdate();
+    }
+
+}
@@ -1,19 +1,93 @@
 package es.javier.subscriptionservice.repository;
 
 import es.javier.subscriptionservice.model.Subscription;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_CACHE_REGION;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 /**
  * {@link CrudRepository} that allows easy CRUD operations for {@link Subscription} entities.
  * A method to find by email is defined so it can be used to identify subscriptions, because it is an unique field that
  * allows finding easily the entities if the id is not known.
+ * The operations that need native SQL are declared in {@link SubscriptionRepositoryCustom}.
  */
 @Repository
-public interface SubscriptionRepository extends CrudRepository<Subscription, Long> {
+public interface SubscriptionRepository extends CrudRepository<Subscription, Long>, SubscriptionRepositoryCustom {
+
+    /**
+     * Rows fetched per round trip when streaming. PostgreSQL only honours it inside a transaction, where the driver
+     * uses a server side cursor instead of reading the whole result set into memory.
+     */
+    String STREAM_FETCH_SIZE = "500";
 
+    /**
+     * Region of the query cache (configured in ehcache.xml) for the lookups by email.
+     */
+    String BY_EMAIL_CACHE_REGION = "subscriptions-by-email";
+
+    /**
+     * The result (the id, or none) is kept in the query cache, and the subscription in the second-level cache, so
+     * repeated lookups of the same email do not reach the database until the table is written again.
+     */
+    @QueryHints(value = {
+            @QueryHint(name = HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HINT_CACHE_REGION, value = BY_EMAIL_CACHE_REGION)
+    })
     Optional<Subscription> findByEmail(String email);
 
+    List<Subscription> findByEmailIn(Collection<String> emails);
+
+    /**
+     * Keyset pagination: returns the subscriptions whose id is greater than the given cursor, ordered by id.
+     * It is resolved with a range scan on the primary key index, so its cost does not depend on the page position.
+     *
+     * @param subscriptionId the cursor (last id of the previous page).
+     * @param pageable       only its page size is relevant, the page number must be always 0.
+     */
+    List<Subscription> findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(Long subscriptionId, Pageable pageable);
+
+    /**
+     * Keyset pagination of the subscriptions of a newsletter. It is resolved with a range scan on the
+     * (NEWSLETTER_ID, SUBSCRIPTION_ID) index, so it only reads the rows of that newsletter.
+     *
+     * @param newsletterId   the newsletter the subscriptions belong to.
+     * @param subscriptionId the cursor (last id of the previous page).
+     * @param pageable       only its page size is relevant, the page number must be always 0.
+     */
+    List<Subscription> findByNewsletterIdAndSubscriptionIdGreaterThanOrderBySubscriptionIdAsc(Long newsletterId, //
+            Long subscriptionId, Pageable pageable);
+
+    /**
+     * Streams every subscription ordered by id. It must be consumed inside a transaction and closed afterwards.
+     */
+    @QueryHints(value = {
+            @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select s from Subscription s order by s.subscriptionId")
+    Stream<Subscription> streamAll();
+
+    /**
+     * Streams the email of every subscription. It must be consumed inside a transaction and closed afterwards.
+     */
+    @QueryHints(value = {
+            @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select s.email from Subscription s")
+    Stream<String> streamAllEmails();
+
 }
@@ -0,0 +1,98 @@
+package es.javier.subscriptionservice.repository;
+
+import es.javier.subscriptionservice.model.Subscription;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Operations of {@link SubscriptionRepository} that cannot be derived by Spring Data and are implemented with native
+ * SQL or the Criteria API in {@link SubscriptionRepositoryImpl}.
+ */
+public interface SubscriptionRepositoryCustom {
+
+    /**
+     * Inserts the subscription unless its email already exists, in a single statement. The id is always generated by
+     * the database. If it is inserted and its consent is given, the same statement enqueues its notification in the
+     * outbox (see {@link SubscriptionOutboxRepository}).
+     *
+     * @return {@link Optional<Subscription>} optional that contains the inserted {@link Subscription}, or empty if the
+     * email was already in the database.
+     */
+    Optional<Subscription> insertIfAbsent(Subscription subscription);
+
+    /**
+     * Deletes the subscription with the given id in a single statement, without loading it first.
+     *
+     * @return {@link Optional<Subscription>} optional that contains the deleted {@link Subscription}, or empty if there
+     * was no subscription with that id.
+     */
+    Optional<Subscription> deleteAndReturnById(Long id);
+
+    /**
+     * Deletes the subscription with the given email in a single statement, without loading it first.
+     *
+     * @return {@link Optional<Subscription>} optional that contains the deleted {@link Subscription}, or empty if there
+     * was no subscription with that email.
+     */
+    Optional<Subscription> deleteAndReturnByEmail(String email);
+
+    /**
+     * Deletes the subscriptions with the given ids in a single statement, without loading them first.
+     *
+     * @return {@link List<Subscription>} the deleted subscriptions (the ids that did not exist are ignored).
+     */
+    List<Subscription> deleteAndReturnByIds(Collection<Long> ids);
+
+    /**
+     * Deletes, in a single statement, up to the given amount of subscriptions of a newsletter (the ones with the
+     * lowest ids). Deleting a whole newsletter in bounded chunks keeps every transaction (its locks and WAL) small.
+     *
+     * @param newsletterId the newsletter the subscriptions belong to.
+     * @param limit        maximum amount of subscriptions to delete.
+     * @return {@link List<Subscription>} the deleted subscriptions. If there are less than the limit, there are no
+     * more subscriptions of the newsletter.
+     */
+    List<Subscription> deleteAndReturnChunkByNewsletterId(Long newsletterId, int limit);
+
+    /**
+     * Counts the subscriptions in the database with a single COUNT query, without loading them.
+     *
+     * @param newsletterId if not null, only the subscriptions of this newsletter are counted.
+     * @param consent      if not null, only the subscriptions with this consent are counted.
+     */
+    long countSubscriptions(Long newsletterId, Boolean consent);
+
+    /**
+     * Gets the amount of subscriptions estimated by the PostgreSQL statistics ({@code pg_class.reltuples}). It is
+     * read from the catalog, so it costs the same for any table size, but it is only as fresh as the last VACUUM or
+     * ANALYZE of the table.
+     *
+     * @return the estimated amount, or a negative number if the table has not been analyzed yet.
+     */
+    long estimateCount();
+
+    /**
+     * Keyset pagination (see {@link SubscriptionRepository#findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc})
+     * that only selects the given fields, without creating the entities.
+     *
+     * @param fields         names of the {@link Subscription} fields to select.
+     * @param newsletterId   if not null, only the subscriptions of this newsletter are returned.
+     * @param subscriptionId the cursor (last id of the previous page).
+     * @param limit          maximum amount of subscriptions to return.
+     * @return a map per subscription, with the selected fields in the given order.
+     */
+    List<Map<String, Object>> findProjectedPage(List<String> fields, Long newsletterId, Long subscriptionId, int limit);
+
+    /**
+     * Finds a subscription by id, only selecting the given fields.
+     *
+     * @param fields names of the {@link Subscription} fields to select.
+     * @return {@link Optional} optional that contains the selected fields of the {@link Subscription}, in the given
+     * order, or empty if there was no subscription with that id.
+     */
+    Optional<Map<String, Object>> findProjectedById(List<String> fields, Long id);
+
+}
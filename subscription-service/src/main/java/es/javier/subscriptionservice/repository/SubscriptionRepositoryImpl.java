@@ -0,0 +1,267 @@
+package es.javier.subscriptionservice.repository;
+
+import es.javier.subscriptionservice.model.Subscription;
+import org.hibernate.CacheMode;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.BooleanType;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LocalDateType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Native SQL and Criteria API implementation of {@link SubscriptionRepositoryCustom}.
+ * Parameters are bound with explicit types, because PostgreSQL rejects untyped null values for nullable columns.
+ * Hibernate does not know what the native statements change, so they keep its second-level cache up to date
+ * themselves (see {@link #invalidateSecondLevelCache(List)}).
+ */
+public class SubscriptionRepositoryImpl implements SubscriptionRepositoryCustom {
+
+    // The notification is enqueued by the same statement, so it exists if and only if the subscription was inserted
+    private static final String INSERT_IF_ABSENT = "WITH INSERTED AS (" +
+            "INSERT INTO SUBSCRIPTIONS (EMAIL, FIRST_NAME, GENDER, BIRTHDATE, CONSENT, NEWSLETTER_ID) " +
+            "VALUES (:email, :firstName, :gender, :birthdate, :consent, :newsletterId) " +
+            "ON CONFLICT (EMAIL) DO NOTHING " +
+            "RETURNING *), " +
+            "ENQUEUED AS (" + SubscriptionOutboxRepository.ENQUEUE_INSERTED + ") " +
+            "SELECT * FROM INSERTED";
+
+    private static final String DELETE_BY_ID = "DELETE FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID = :id RETURNING *";
+
+    private static final String DELETE_BY_EMAIL = "DELETE FROM SUBSCRIPTIONS WHERE EMAIL = :email RETURNING *";
+
+    private static final String DELETE_BY_IDS = "DELETE FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID IN (:ids) RETURNING *";
+
+    // The chunk is selected with a range scan on the (NEWSLETTER_ID, SUBSCRIPTION_ID) index
+    private static final String DELETE_CHUNK_BY_NEWSLETTER_ID = "DELETE FROM SUBSCRIPTIONS WHERE SUBSCRIPTION_ID IN (" +
+            "SELECT SUBSCRIPTION_ID FROM SUBSCRIPTIONS WHERE NEWSLETTER_ID = :newsletterId " +
+            "ORDER BY SUBSCRIPTION_ID LIMIT :limit) " +
+            "RETURNING *";
+
+    // Before PostgreSQL 14 a table that has never been analyzed reports 0 instead of -1
+    private static final String ESTIMATE_COUNT = "SELECT CAST(RELTUPLES AS BIGINT) FROM PG_CLASS " +
+            "WHERE OID = CAST('subscriptions' AS REGCLASS)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public Optional<Subscription> insertIfAbsent(Subscription subscription) {
+        List<Subscription> inserted = entityManager.createNativeQuery(INSERT_IF_ABSENT, Subscription.class) //
+                .unwrap(NativeQuery.class) //
+                .setCacheMode(CacheMode.IGNORE) //
+                .setParameter("email", subscription.getEmail(), StringType.INSTANCE) //
+                .setParameter("firstName", subscription.getFirstName(), StringType.INSTANCE) //
+                .setParameter("gender", subscription.getGender(), StringType.INSTANCE) //
+                .setParameter("birthdate", subscription.getBirthdate(), LocalDateType.INSTANCE) //
+                .setParameter("consent", subscription.getConsent(), BooleanType.INSTANCE) //
+                .setParameter("newsletterId", subscription.getNewsletterId(), LongType.INSTANCE) //
+                .getResultList();
+
+        // The new email could be in the cached results of a query (findByEmail misses, among others)
+        if (!inserted.isEmpty()) {
+            invalidateSecondLevelCache(List.of());
+        }
+
+        return inserted.stream().findFirst();
+    }
+
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public Optional<Subscription> deleteAndReturnById(Long id) {
+        List<Subscription> deleted = entityManager.createNativeQuery(DELETE_BY_ID, Subscription.class) //
+                .unwrap(NativeQuery.class) //
+                .setCacheMode(CacheMode.IGNORE) //
+                .setParameter("id", id, LongType.INSTANCE) //
+                .getResultList();
+
+        return detachFirst(deleted);
+    }
+
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public Optional<Subscription> deleteAndReturnByEmail(String email) {
+        List<Subscription> deleted = entityManager.createNativeQuery(DELETE_BY_EMAIL, Subscription.class) //
+                .unwrap(NativeQuery.class) //
+                .setCacheMode(CacheMode.IGNORE) //
+                .setParameter("email", email, StringType.INSTANCE) //
+                .getResultList();
+
+        return detachFirst(deleted);
+    }
+
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Subscription> deleteAndReturnByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        List<Subscription> deleted = entityManager.createNativeQuery(DELETE_BY_IDS, Subscription.class) //
+                .unwrap(NativeQuery.class) //
+                .setCacheMode(CacheMode.IGNORE) //
+                .setParameterList("ids", ids, LongType.INSTANCE) //
+                .getResultList();
+
+        return detach(deleted);
+    }
+
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Subscription> deleteAndReturnChunkByNewsletterId(Long newsletterId, int limit) {
+        List<Subscription> deleted = entityManager.createNativeQuery(DELETE_CHUNK_BY_NEWSLETTER_ID, Subscription.class) //
+                .unwrap(NativeQuery.class) //
+                .setCacheMode(CacheMode.IGNORE) //
+                .setParameter("newsletterId", newsletterId, LongType.INSTANCE) //
+                .setParameter("limit", limit, IntegerType.INSTANCE) //
+                .getResultList();
+
+        return detach(deleted);
+    }
+
+    @Override
+    public long countSubscriptions(Long newsletterId, Boolean consent) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<Subscription> subscription = query.from(Subscription.class);
+
+        // Only the filters that are given become predicates, so PostgreSQL can plan each combination on its own
+        List<Predicate> filters = new ArrayList<>();
+
+        if (newsletterId != null) {
+            filters.add(builder.equal(subscription.get("newsletterId"), newsletterId));
+        }
+
+        if (consent != null) {
+            filters.add(builder.equal(subscription.get("consent"), consent));
+        }
+
+        query.select(builder.count(subscription)).where(filters.toArray(new Predicate[0]));
+
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    @Override
+    public long estimateCount() {
+        Number estimate = (Number) entityManager.createNativeQuery(ESTIMATE_COUNT).getSingleResult();
+
+        return (estimate == null) ? -1 : estimate.longValue();
+    }
+
+    @Override
+    public List<Map<String, Object>> findProjectedPage(List<String> fields, Long newsletterId, Long subscriptionId, //
+                                                       int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<Subscription> subscription = query.from(Subscription.class);
+
+        List<Predicate> filters = new ArrayList<>();
+        filters.add(builder.greaterThan(subscription.get("subscriptionId"), subscriptionId));
+
+        if (newsletterId != null) {
+            filters.add(builder.equal(subscription.get("newsletterId"), newsletterId));
+        }
+
+        query.multiselect(select(subscription, fields)) //
+                .where(filters.toArray(new Predicate[0])) //
+                .orderBy(builder.asc(subscription.get("subscriptionId")));
+
+        return entityManager.createQuery(query).setMaxResults(limit).getResultStream() //
+                .map(SubscriptionRepositoryImpl::toMap) //
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Map<String, Object>> findProjectedById(List<String> fields, Long id) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<Subscription> subscription = query.from(Subscription.class);
+
+        query.multiselect(select(subscription, fields)) //
+                .where(builder.equal(subscription.get("subscriptionId"), id));
+
+        return entityManager.createQuery(query).getResultStream() //
+                .findFirst() //
+                .map(SubscriptionRepositoryImpl::toMap);
+    }
+
+    private static List<Selection<?>> select(Root<Subscription> subscription, List<String> fields) {
+        return fields.stream() //
+                .<Selection<?>>map(field -> subscription.get(field).alias(field)) //
+                .collect(Collectors.toList());
+    }
+
+    private static Map<String, Object> toMap(Tuple tuple) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+
+        for (TupleElement<?> element : tuple.getElements()) {
+            fields.put(element.getAlias(), tuple.get(element));
+        }
+
+        return fields;
+    }
+
+    private Optional<Subscription> detachFirst(List<Subscription> deleted) {
+        return detach(deleted).stream().findFirst();
+    }
+
+    // The rows do not exist anymore, so they must not stay managed by the persistence context (nor cached)
+    private List<Subscription> detach(List<Subscription> deleted) {
+        deleted.forEach(entityManager::detach);
+
+        if (!deleted.isEmpty()) {
+            invalidateSecondLevelCache(deleted);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Does what Hibernate does for its own writes: the cached query results that read the table are not trusted
+     * until the transaction completes (so the ones cached meanwhile are discarded too), and the changed entities are
+     * evicted once it completes, so the entities read concurrently are not cached again with the old values.
+     */
+    private void invalidateSecondLevelCache(List<Subscription> changed) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        SessionFactoryImplementor sessionFactory = session.getFactory();
+        TimestampsCache timestampsCache = sessionFactory.getCache().getTimestampsCache();
+        String[] querySpaces = (String[]) sessionFactory.getMetamodel().entityPersister(Subscription.class) //
+                .getQuerySpaces();
+        List<Long> changedIds = changed.stream().map(Subscription::getSubscriptionId).collect(Collectors.toList());
+
+        timestampsCache.preInvalidate(querySpaces, session);
+
+        session.getActionQueue().registerProcess((success, completedSession) -> {
+            timestampsCache.invalidate(querySpaces, completedSession);
+            changedIds.forEach(id -> sessionFactory.getCache().evictEntityData(Subscription.class, id));
+        });
+    }
+
+}
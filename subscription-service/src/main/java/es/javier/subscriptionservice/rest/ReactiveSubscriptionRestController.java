@@ -0,0 +1,120 @@
+package es.javier.subscriptionservice.rest;
+
+import es.javier.subscriptionservice.config.ReactiveConfig;
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.service.ReactiveSubscriptionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+
+import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
+
+/**
+ * WebFlux counterpart of {@link SubscriptionRestController}, used by the "reactive" profile. It exposes the same
+ * endpoints, headers and {@link SubscriptionResponseInformation} bodies (its API docs apply), except the batch
+ * creation, the bulk deletions and the projections ('fields' parameter), which are only served by the servlet stack.
+ */
+@RestController
+@RequestMapping("/rest/subscriptions")
+@Profile(ReactiveConfig.PROFILE)
+public class ReactiveSubscriptionRestController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveSubscriptionRestController.class);
+
+    private final ReactiveSubscriptionService subscriptionService;
+
+    public ReactiveSubscriptionRestController(ReactiveSubscriptionService subscriptionService) {
+        this.subscriptionService = subscriptionService;
+    }
+
+    @GetMapping
+    public Mono<ResponseEntity<SubscriptionResponseInformation>> getAll( //
+            @RequestParam(required = false) Long newsletterId, //
+            @RequestParam(required = false) Long after, //
+            @RequestParam(required = false) Integer limit) {
+        return subscriptionService.findAllSubscriptions(newsletterId, after, limit).map(response -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(HEADER_AMOUNT, String.valueOf(response.getPayload().get(HEADER_AMOUNT)));
+
+            if (response.getPayload().get(HEADER_NEXT_CURSOR) != null) {
+                headers.add(HEADER_NEXT_CURSOR, String.valueOf(response.getPayload().get(HEADER_NEXT_CURSOR)));
+            }
+
+            return new ResponseEntity<>(response, headers, response.getCode());
+        });
+    }
+
+    @RequestMapping(method = RequestMethod.HEAD)
+    public Mono<ResponseEntity<Void>> count( //
+            @RequestParam(required = false) Long newsletterId, //
+            @RequestParam(required = false) Boolean consent) {
+        return subscriptionService.countSubscriptions(newsletterId, consent) //
+                .map(response -> new ResponseEntity<>(getCountHeaders(response), response.getCode()));
+    }
+
+    @GetMapping(params = "countOnly=true")
+    public Mono<ResponseEntity<SubscriptionResponseInformation>> getCount( //
+            @RequestParam Boolean countOnly, //
+            @RequestParam(required = false) Long newsletterId, //
+            @RequestParam(required = false) Boolean consent) {
+        return subscriptionService.countSubscriptions(newsletterId, consent) //
+                .map(response -> new ResponseEntity<>(response, getCountHeaders(response), response.getCode()));
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Subscription> export() {
+        return subscriptionService.exportSubscriptions() //
+                .doOnComplete(() -> logger.info("Export finished"));
+    }
+
+    @GetMapping("{id}")
+    public Mono<ResponseEntity<SubscriptionResponseInformation>> getEntityById(@PathVariable Long id) {
+        return subscriptionService.findSubscriptionById(id).map(response -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(HEADER_ID_FOUND, String.valueOf(response.getPayload().get(HEADER_ID_FOUND)));
+
+            return new ResponseEntity<>(response, headers, response.getCode());
+        });
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<SubscriptionResponseInformation>> postEntity( //
+            @Valid @RequestBody Subscription subscription) {
+        return subscriptionService.createSubscription(subscription).map(response -> {
+            HttpHeaders headers = new HttpHeaders();
+
+            String reportedHeader = (response.getCode().equals(HttpStatus.CREATED))
+                    ? HEADER_ID_CREATED
+                    : HEADER_ID_FOUND;
+
+            headers.add(reportedHeader, String.valueOf(response.getPayload().get(reportedHeader)));
+
+            return new ResponseEntity<>(response, headers, response.getCode());
+        });
+    }
+
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<SubscriptionResponseInformation>> removeEntity(@PathVariable Long id) {
+        return subscriptionService.deleteSubscriptionById(id) //
+                .map(response -> new ResponseEntity<>(response, response.getCode()));
+    }
+
+    private HttpHeaders getCountHeaders(SubscriptionResponseInformation response) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HEADER_AMOUNT, String.valueOf(response.getPayload().get(HEADER_AMOUNT)));
+        headers.add(HEADER_AMOUNT_ESTIMATED, String.valueOf(response.getPayload().get(HEADER_AMOUNT_ESTIMATED)));
+
+        return headers;
+    }
+
+}
@@ -3,6 +3,9 @@ package es.javier.subscriptionservice.rest;
 import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
 import org.springframework.amqp.AmqpAuthenticationException;
 import org.springframework.amqp.AmqpConnectException;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -11,10 +14,13 @@ import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.server.ServerWebInputException;
 
 /**
  * {@link RestControllerAdvice} that handles the exceptions that can be thrown when using the API.
+ * The WebFlux exceptions are the equivalents of the Spring MVC ones for the "reactive" profile.
  */
 @RestControllerAdvice
 public class SubscriptionControllerExceptionHandler {
@@ -42,6 +48,19 @@ public class SubscriptionControllerExceptionHandler {
         return new ResponseEntity(response, response.getCode());
     }
 
+    @ExceptionHandler(value = {WebExchangeBindException.class})
+    public ResponseEntity<SubscriptionResponseInformation> validationErrorException(WebExchangeBindException ex) {
+        SubscriptionResponseInformation response = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.BAD_REQUEST) //
+                .withSubscription(null) //
+                .havingInThePayload("Error-Message", ex.getMessage())
+                .havingInThePayload("Error-Values", ex.getAllErrors().toString())
+                .havingInThePayload("Message", "Validation error")
+                .withMessage("Validation error");
+
+        return new ResponseEntity(response, response.getCode());
+    }
+
     @ExceptionHandler(value = {HttpMessageNotReadableException.class})
     public ResponseEntity<SubscriptionResponseInformation> validationErrorBecauseOfParsingException(HttpMessageNotReadableException ex) {
 
@@ -69,6 +88,19 @@ public class SubscriptionControllerExceptionHandler {
         return new ResponseEntity(response, response.getCode());
     }
 
+    @ExceptionHandler(value = {DataIntegrityViolationException.class, ConcurrencyFailureException.class})
+    public ResponseEntity<SubscriptionResponseInformation> conflictException(DataAccessException ex) {
+
+        SubscriptionResponseInformation response = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.CONFLICT) //
+                .withSubscription(null) //
+                .havingInThePayload("Error-Message", ex.getMessage())
+                .havingInThePayload("Message", "Some subscription was created concurrently. The request can be retried.")
+                .withMessage("Conflict with a concurrent request. Try again.");
+
+        return new ResponseEntity(response, response.getCode());
+    }
+
     @ExceptionHandler(value = {AmqpAuthenticationException.class, AmqpConnectException.class})
     public ResponseEntity<SubscriptionResponseInformation> databaseConnectionException(Exception ex) {
 
@@ -96,5 +128,18 @@ public class SubscriptionControllerExceptionHandler {
         return new ResponseEntity(response, response.getCode());
     }
 
-}
+    // Unreadable bodies and parameters of the wrong type
+    @ExceptionHandler(value = {ServerWebInputException.class})
+    public ResponseEntity<SubscriptionResponseInformation> badRequestException(ServerWebInputException ex) {
 
+        SubscriptionResponseInformation response = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.BAD_REQUEST) //
+                .withSubscription(null) //
+                .havingInThePayload("Error-Message", ex.getMessage())
+                .havingInThePayload("Message", "Request malformed")
+                .withMessage("Check the wrong request");
+
+        return new ResponseEntity(response, response.getCode());
+    }
+
+}
@@ -1,25 +1,33 @@
 package es.javier.subscriptionservice.rest;
 
+import es.javier.subscriptionservice.config.ReactiveConfig;
 import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionBatchResponseInformation;
+import es.javier.subscriptionservice.model.SubscriptionDeletionResponseInformation;
 import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
 import es.javier.subscriptionservice.repository.AccessTokenRepository;
-import es.javier.subscriptionservice.service.MessageQueueService;
+import es.javier.subscriptionservice.service.SubscriptionDeletionJobService;
 import es.javier.subscriptionservice.service.SubscriptionService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.AmqpConnectException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.validation.Valid;
+import java.util.List;
 
 import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
 
@@ -28,6 +36,7 @@ import static es.javier.subscriptionservice.model.SubscriptionResponseInformatio
  */
 @RestController
 @RequestMapping("/rest/subscriptions")
+@Profile("!" + ReactiveConfig.PROFILE)
 public class SubscriptionRestController {
 
     private static final Logger logger = LoggerFactory.getLogger(SubscriptionRestController.class);
@@ -38,9 +47,10 @@ public class SubscriptionRestController {
     private AccessTokenRepository tokenRepository;
 
     @Autowired
-    private MessageQueueService messageQueueService;
+    private SubscriptionDeletionJobService deletionJobService;
 
-    @Operation(summary = "Gets all subscriptions in the system")
+    @Operation(summary = "Gets a page of the subscriptions in the system (or of a newsletter), ordered by id. The next " +
+            "page can be requested using the value of the header " + HEADER_NEXT_CURSOR + " as the 'after' parameter")
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200", description = "Found 1 or more items",
@@ -50,6 +60,10 @@ public class SubscriptionRestController {
                     responseCode = "404", description = "No items found",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
             ),
+            @ApiResponse(
+                    responseCode = "400", description = "Unknown fields requested",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
             @ApiResponse(
                     responseCode = "500", description = "Internal server error",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
@@ -60,15 +74,107 @@ public class SubscriptionRestController {
             )
     })
     @GetMapping
-    public ResponseEntity<SubscriptionResponseInformation> getAll() {
-        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions();
+    public ResponseEntity<SubscriptionResponseInformation> getAll( //
+            @Parameter(description = "Id of the newsletter to get the subscriptions of") //
+            @RequestParam(required = false) Long newsletterId, //
+            @Parameter(description = "Id of the last subscription of the previous page") //
+            @RequestParam(required = false) Long after, //
+            @Parameter(description = "Maximum amount of subscriptions to return") //
+            @RequestParam(required = false) Integer limit, //
+            @Parameter(description = "Fields of the subscriptions to return (comma separated). If given, they are " +
+                    "returned as 'projectedData' instead of 'subscriptionData'") //
+            @RequestParam(required = false) List<String> fields) {
+        SubscriptionResponseInformation response = (fields == null || fields.isEmpty()) //
+                ? subscriptionService.findAllSubscriptions(newsletterId, after, limit) //
+                : subscriptionService.findAllSubscriptionProjections(fields, newsletterId, after, limit);
 
         HttpHeaders headers = new HttpHeaders();
         headers.add(HEADER_AMOUNT, String.valueOf(response.getPayload().get(HEADER_AMOUNT)));
 
+        if (response.getPayload().get(HEADER_NEXT_CURSOR) != null) {
+            headers.add(HEADER_NEXT_CURSOR, String.valueOf(response.getPayload().get(HEADER_NEXT_CURSOR)));
+        }
+
         return new ResponseEntity(response, headers, response.getCode());
     }
 
+    @Operation(summary = "Gets the amount of subscriptions in the system (or of a newsletter) in the header " + //
+            HEADER_AMOUNT + ", without sending them. For big tables the amount may be an estimate, which is notified in " +
+            "the header " + HEADER_AMOUNT_ESTIMATED)
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200", description = "Amount of items counted"
+            ),
+            @ApiResponse(
+                    responseCode = "500", description = "Internal server error"
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error"
+            )
+    })
+    @RequestMapping(method = RequestMethod.HEAD)
+    public ResponseEntity<Void> count( //
+            @Parameter(description = "Id of the newsletter to count the subscriptions of") //
+            @RequestParam(required = false) Long newsletterId, //
+            @Parameter(description = "Count only the subscriptions with this consent") //
+            @RequestParam(required = false) Boolean consent) {
+        SubscriptionResponseInformation response = subscriptionService.countSubscriptions(newsletterId, consent);
+
+        return new ResponseEntity<>(getCountHeaders(response), response.getCode());
+    }
+
+    @Operation(summary = "Gets the amount of subscriptions in the system (or of a newsletter), without the subscriptions. " +
+            "For big tables the amount may be an estimate, which is notified in the header " + HEADER_AMOUNT_ESTIMATED)
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200", description = "Amount of items counted",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "500", description = "Internal server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @GetMapping(params = "countOnly=true")
+    public ResponseEntity<SubscriptionResponseInformation> getCount( //
+            @Parameter(description = "Only the amount of subscriptions is returned") //
+            @RequestParam Boolean countOnly, //
+            @Parameter(description = "Id of the newsletter to count the subscriptions of") //
+            @RequestParam(required = false) Long newsletterId, //
+            @Parameter(description = "Count only the subscriptions with this consent") //
+            @RequestParam(required = false) Boolean consent) {
+        SubscriptionResponseInformation response = subscriptionService.countSubscriptions(newsletterId, consent);
+
+        return new ResponseEntity<>(response, getCountHeaders(response), response.getCode());
+    }
+
+    @Operation(summary = "Streams every subscription in the system as newline-delimited JSON (one subscription per line)")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200", description = "Subscriptions streamed",
+                    content = {@Content(mediaType = "application/x-ndjson", schema = @Schema(implementation = Subscription.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> export() {
+        StreamingResponseBody body = outputStream -> {
+            long exported = subscriptionService.exportSubscriptions(outputStream);
+            logger.info("Export finished. Amount of elements streamed: {}", exported);
+        };
+
+        return ResponseEntity.ok() //
+                .contentType(MediaType.APPLICATION_NDJSON) //
+                .body(body);
+    }
+
     @Operation(summary = "Gets the subscription with the id specified")
     @ApiResponses(value = {
             @ApiResponse(
@@ -79,6 +185,10 @@ public class SubscriptionRestController {
                     responseCode = "404", description = "No items found",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
             ),
+            @ApiResponse(
+                    responseCode = "400", description = "Unknown fields requested",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
             @ApiResponse(
                     responseCode = "500", description = "Internal server error",
                     content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
@@ -89,8 +199,13 @@ public class SubscriptionRestController {
             )
     })
     @GetMapping("{id}")
-    public ResponseEntity<SubscriptionResponseInformation> getEntityById(@PathVariable Long id) {
-        SubscriptionResponseInformation response = subscriptionService.findSubscriptionById(id);
+    public ResponseEntity<SubscriptionResponseInformation> getEntityById(@PathVariable Long id, //
+            @Parameter(description = "Fields of the subscription to return (comma separated). If given, they are " +
+                    "returned as 'projectedData' instead of 'subscriptionData'") //
+            @RequestParam(required = false) List<String> fields) {
+        SubscriptionResponseInformation response = (fields == null || fields.isEmpty()) //
+                ? subscriptionService.findSubscriptionById(id) //
+                : subscriptionService.findSubscriptionProjectionById(fields, id);
 
         HttpHeaders headers = new HttpHeaders();
         headers.add(HEADER_ID_FOUND, String.valueOf(response.getPayload().get(HEADER_ID_FOUND)));
@@ -132,10 +247,49 @@ public class SubscriptionRestController {
                 : HEADER_ID_FOUND;
 
         headers.add(reportedHeader, String.valueOf(response.getPayload().get(reportedHeader)));
-        try {
-            handleNotification(response);
-        } catch (AmqpConnectException e) {
-            logger.error("Error when enqueueing messages. These should be retried...");
+
+        return new ResponseEntity(response, headers, response.getCode());
+    }
+
+
+    @Operation(summary = "Persists the Subscriptions in the request body whose email was not in the database yet. " +
+            "The outcome of every element is reported in the same order it was sent")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "201", description = "Created one or more items",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionBatchResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "302", description = "Every valid item already existed",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionBatchResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "400", description = "Bad request: no valid items or too many items",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionBatchResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "409", description = "Some item was created concurrently by another request",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "500", description = "Internal server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<SubscriptionResponseInformation> postEntities(@RequestBody List<Subscription> subscriptions) {
+        SubscriptionResponseInformation response = subscriptionService.createSubscriptions(subscriptions);
+
+        HttpHeaders headers = new HttpHeaders();
+
+        for (String reportedHeader : List.of(HEADER_CREATED_AMOUNT, HEADER_AMOUNT, HEADER_INVALID_AMOUNT)) {
+            if (response.getPayload().get(reportedHeader) != null) {
+                headers.add(reportedHeader, String.valueOf(response.getPayload().get(reportedHeader)));
+            }
         }
 
         return new ResponseEntity(response, headers, response.getCode());
@@ -168,16 +322,114 @@ public class SubscriptionRestController {
         return new ResponseEntity(response, null, response.getCode());
     }
 
-    private void handleNotification(SubscriptionResponseInformation response) {
-        logger.debug("A subscription creation request was handling. Checking if a notification must be sent...");
+    @Operation(summary = "Deletes the subscriptions with the specified ids that are present in the system. They are " +
+            "deleted in chunks, each one in its own transaction")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200", description = "Deleted one or more items",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "404", description = "No items found",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "400", description = "Bad request: no ids or too many ids",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "500", description = "Internal server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @DeleteMapping(params = {"ids", "!newsletterId"})
+    public ResponseEntity<SubscriptionResponseInformation> removeEntities( //
+            @Parameter(description = "Ids of the subscriptions to delete (comma separated)") //
+            @RequestParam List<Long> ids) {
+        SubscriptionResponseInformation response = subscriptionService.deleteSubscriptionsByIds(ids);
+
+        HttpHeaders headers = new HttpHeaders();
 
-        if (response.getCode().equals(HttpStatus.CREATED)) {
-            logger.debug("Sending email if consent is enabled...");
-            response.getSubscriptionData().stream() //
-                    .filter(subscription -> subscription.isConsent()) //
-                    .forEach(messageQueueService::send);
-        } else {
-            logger.debug("No new subscription was created, so no email must be sent...");
+        if (response.getPayload().get(HEADER_DELETED_AMOUNT) != null) {
+            headers.add(HEADER_DELETED_AMOUNT, String.valueOf(response.getPayload().get(HEADER_DELETED_AMOUNT)));
         }
+
+        return new ResponseEntity(response, headers, response.getCode());
     }
+
+    @Operation(summary = "Starts the asynchronous deletion of every subscription of a newsletter. Its progress can be " +
+            "followed in the URL of the Location header (the id of the job is in the header " + HEADER_DELETION_JOB + ")")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "202", description = "Deletion started, or already running",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionDeletionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "500", description = "Internal server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @DeleteMapping(params = {"newsletterId", "!ids"})
+    public ResponseEntity<SubscriptionResponseInformation> removeNewsletterEntities( //
+            @Parameter(description = "Id of the newsletter to delete the subscriptions of") //
+            @RequestParam Long newsletterId) {
+        SubscriptionResponseInformation response = deletionJobService.startNewsletterDeletion(newsletterId);
+
+        return new ResponseEntity(response, getDeletionJobHeaders(response), response.getCode());
+    }
+
+    @Operation(summary = "Gets the progress of an asynchronous deletion")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200", description = "Found the deletion",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionDeletionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "404", description = "Deletion not found (or finished too long ago)",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = SubscriptionResponseInformation.class))}
+            ),
+            @ApiResponse(
+                    responseCode = "401", description = "Unauthorized server error",
+                    content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ResponseEntity.class))}
+            )
+    })
+    @GetMapping("/deletions/{jobId}")
+    public ResponseEntity<SubscriptionResponseInformation> getDeletionJob(@PathVariable String jobId) {
+        SubscriptionResponseInformation response = deletionJobService.findDeletionJob(jobId);
+
+        return new ResponseEntity(response, getDeletionJobHeaders(response), response.getCode());
+    }
+
+    private HttpHeaders getDeletionJobHeaders(SubscriptionResponseInformation response) {
+        HttpHeaders headers = new HttpHeaders();
+        Object jobId = response.getPayload() == null ? null : response.getPayload().get(HEADER_DELETION_JOB);
+
+        if (jobId != null) {
+            headers.add(HEADER_DELETION_JOB, String.valueOf(jobId));
+            headers.add(HEADER_DELETED_AMOUNT, String.valueOf(response.getPayload().get(HEADER_DELETED_AMOUNT)));
+            headers.setLocation(ServletUriComponentsBuilder.fromCurrentContextPath() //
+                    .path("/rest/subscriptions/deletions/{jobId}") //
+                    .buildAndExpand(jobId) //
+                    .toUri());
+        }
+
+        return headers;
+    }
+
+    private HttpHeaders getCountHeaders(SubscriptionResponseInformation response) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HEADER_AMOUNT, String.valueOf(response.getPayload().get(HEADER_AMOUNT)));
+        headers.add(HEADER_AMOUNT_ESTIMATED, String.valueOf(response.getPayload().get(HEADER_AMOUNT_ESTIMATED)));
+
+        return headers;
+    }
+
 }
@@ -2,33 +2,204 @@ package es.javier.subscriptionservice.service;
 
 import es.javier.subscriptionservice.config.RabbitConfig;
 import es.javier.subscriptionservice.model.Subscription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Service to easily enqueue a message in the configured queue (Config: {@link RabbitConfig}
+ * The messages are published with correlated publisher confirms and as mandatory, so a message only counts as sent
+ * once the broker has confirmed it and it was routed to a queue. The ones nacked, returned or not confirmed in time
+ * are published again, up to subscriptions.notifications.publish-attempts times.
+ * The notifications are encoded in subscriptions.notifications.content-type: application/json, or the smaller (and
+ * cheaper to parse) application/cbor. Every consumer must support CBOR before switching to it.
  */
 @Service
 public class MessageQueueService {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageQueueService.class);
 
-    @Autowired
-    private RabbitTemplate rabbitTemplate;
+    private final RabbitTemplate rabbitTemplate;
+
+    private final String exchange;
+
+    private final String routingkey;
+
+    private final int publishAttempts;
+
+    private final Duration confirmTimeout;
+
+    private final String contentType;
+
+    private final Timer confirmTimer;
+
+    private final Counter nackedCounter;
+
+    private final Counter returnedCounter;
+
+    private final Counter unconfirmedCounter;
+
+    public MessageQueueService(RabbitTemplate rabbitTemplate, //
+                               MeterRegistry meterRegistry, //
+                               @Value("${spring.rabbitmq.exchange}") String exchange, //
+                               @Value("${spring.rabbitmq.routingkey}") String routingkey, //
+                               @Value("${subscriptions.notifications.publish-attempts:3}") int publishAttempts, //
+                               @Value("${subscriptions.notifications.confirm-timeout:5s}") Duration confirmTimeout, //
+                               @Value("${subscriptions.notifications.content-type:application/json}") String contentType) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.exchange = exchange;
+        this.routingkey = routingkey;
+        this.publishAttempts = publishAttempts;
+        this.confirmTimeout = confirmTimeout;
+        this.contentType = contentType;
+
+        this.confirmTimer = Timer.builder("subscriptions.notifications.confirms") //
+                .description("Time from the publication of a notification until the broker confirms it") //
+                .publishPercentiles(0.5, 0.95, 0.99) //
+                .register(meterRegistry);
+        this.nackedCounter = Counter.builder("subscriptions.notifications.nacked") //
+                .description("Notifications rejected by the broker") //
+                .register(meterRegistry);
+        this.returnedCounter = Counter.builder("subscriptions.notifications.returned") //
+                .description("Notifications returned by the broker because they could not be routed to a queue") //
+                .register(meterRegistry);
+        this.unconfirmedCounter = Counter.builder("subscriptions.notifications.unconfirmed") //
+                .description("Notifications not confirmed by the broker in subscriptions.notifications.confirm-timeout") //
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return whether the broker confirmed the subscription.
+     */
+    public boolean send(Subscription subscription) {
+        boolean confirmed = !publishAll(List.of(subscription)).isEmpty();
+        logger.debug("[x] Sent subscription: '{}' (confirmed: {})", subscription, confirmed);
+
+        return confirmed;
+    }
+
+    /**
+     * Sends all the subscriptions using the same channel, instead of getting one from the cache for every message,
+     * and then waits for the confirms of the whole batch, so the round trips to the broker overlap.
+     *
+     * @return the ids of the subscriptions confirmed by the broker. The rest were not published after every attempt.
+     */
+    public Set<Long> publishAll(List<Subscription> subscriptions) {
+        Set<Long> confirmed = new HashSet<>();
+        List<Subscription> pending = subscriptions;
+
+        for (int attempt = 1; attempt <= publishAttempts && !pending.isEmpty(); attempt++) {
+            Map<CorrelationData, Subscription> published = publishBatch(pending);
+            long deadline = System.nanoTime() + confirmTimeout.toNanos();
 
-    @Value("${spring.rabbitmq.exchange}")
-    private String exchange;
+            pending = new ArrayList<>();
+
+            for (Map.Entry<CorrelationData, Subscription> message : published.entrySet()) {
+                if (isConfirmed(message.getKey(), deadline)) {
+                    confirmed.add(message.getValue().getSubscriptionId());
+                } else {
+                    pending.add(message.getValue());
+                }
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            if (!pending.isEmpty()) {
+                logger.warn("{} of {} notifications were not confirmed by the broker (attempt {} of {})", //
+                        pending.size(), published.size(), attempt, publishAttempts);
+            }
+        }
+
+        logger.debug("[x] Sent {} subscriptions ({} confirmed)", subscriptions.size(), confirmed.size());
+
+        return confirmed;
+    }
+
+    private Map<CorrelationData, Subscription> publishBatch(List<Subscription> subscriptions) {
+        Map<CorrelationData, Subscription> published = new LinkedHashMap<>();
+
+        rabbitTemplate.invoke(operations -> {
+            for (Subscription subscription : subscriptions) {
+                CorrelationData correlation = new CorrelationData(UUID.randomUUID().toString());
+                long publishedAt = System.nanoTime();
+
+                correlation.getFuture().addCallback( //
+                        confirm -> confirmTimer.record(System.nanoTime() - publishedAt, TimeUnit.NANOSECONDS), //
+                        e -> logger.debug("Confirm of the subscription {} failed", subscription.getSubscriptionId(), e));
+
+                operations.send(exchange, routingkey, toMessage(subscription), correlation);
+                published.put(correlation, subscription);
+            }
+            return null;
+        });
+
+        return published;
+    }
+
+    /**
+     * Waits, until the deadline at most, for the confirm of a message.
+     */
+    private boolean isConfirmed(CorrelationData correlation, long deadline) {
+        try {
+            CorrelationData.Confirm confirm = correlation.getFuture() //
+                    .get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+
+            // The returns arrive before the confirms. RabbitMQ acks the returned messages, other brokers nack them
+            if (correlation.getReturned() != null) {
+                returnedCounter.increment();
+                logger.debug("Notification returned by the broker: {}", correlation.getReturned().getReplyText());
+                return false;
+            }
+
+            if (!confirm.isAck()) {
+                nackedCounter.increment();
+                logger.debug("Notification nacked by the broker: {}", confirm.getReason());
+                return false;
+            }
+
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            unconfirmedCounter.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-    @Value("${spring.rabbitmq.routingkey}")
-    private String routingkey;
+    /**
+     * The notifications may be sent more than once (see {@link SubscriptionOutboxRelay}), so they are identified by
+     * the id of their subscription.
+     * The converter of the template chooses the encoding from the content type (see {@link RabbitConfig}).
+     */
+    private Message toMessage(Subscription subscription) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        properties.setMessageId(String.valueOf(subscription.getSubscriptionId()));
 
-    public void send(Subscription subscription) {
-        rabbitTemplate.convertAndSend(exchange, routingkey, subscription);
-        logger.debug("[x] Sent subscription: '{}'", subscription);
+        return rabbitTemplate.getMessageConverter().toMessage(subscription, properties);
     }
 
-}
\ No newline at end of file
+}
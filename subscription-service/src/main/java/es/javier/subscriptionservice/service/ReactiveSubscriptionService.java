@@ -0,0 +1,188 @@
+package es.javier.subscriptionservice.service;
+
+import es.javier.subscriptionservice.cache.SubscriptionCache;
+import es.javier.subscriptionservice.cache.SubscriptionCacheBus;
+import es.javier.subscriptionservice.cache.SubscriptionEmailFilter;
+import es.javier.subscriptionservice.config.ReactiveConfig;
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.repository.ReactiveSubscriptionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Non-blocking counterpart of {@link SubscriptionService}, used by the "reactive" profile. It accesses the database
+ * through the {@link ReactiveSubscriptionRepository}, and returns the same {@link SubscriptionResponseInformation}.
+ * The {@link SubscriptionCache} and the {@link SubscriptionEmailFilter} are shared with the servlet stack, because
+ * they are only accessed in memory. The replicas are not used: R2DBC connects to the primary only.
+ * Publishing to the broker blocks, so the cache events are sent in the bounded elastic scheduler instead of in the
+ * event loop. The notifications are published by the {@link SubscriptionOutboxRelay}.
+ */
+@Service
+@Profile(ReactiveConfig.PROFILE)
+public class ReactiveSubscriptionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveSubscriptionService.class);
+
+    private static final int MAX_CREATE_ATTEMPTS = 3;
+
+    @Autowired
+    private ReactiveSubscriptionRepository repository;
+
+    @Autowired
+    private SubscriptionCache cache;
+
+    @Autowired
+    private SubscriptionCacheBus cacheBus;
+
+    @Autowired
+    private SubscriptionEmailFilter emailFilter;
+
+    @Value("${subscriptions.page.default-size:100}")
+    private int defaultPageSize;
+
+    @Value("${subscriptions.page.max-size:1000}")
+    private int maxPageSize;
+
+    @Value("${subscriptions.count.estimate-threshold:1000000}")
+    private long countEstimateThreshold;
+
+    @Value("${subscriptions.count.estimate-ttl:30s}")
+    private Duration countEstimateTtl;
+
+    // The estimate only changes when the table is analyzed, so it is shared by every request for a while
+    private Mono<Long> countEstimate;
+
+    @PostConstruct
+    public void init() {
+        countEstimate = Mono.defer(repository::estimateCount) //
+                .cache(amount -> countEstimateTtl, e -> Duration.ZERO, () -> Duration.ZERO);
+    }
+
+    /**
+     * Same as {@link SubscriptionService#findSubscriptionById(Long)}.
+     */
+    public Mono<SubscriptionResponseInformation> findSubscriptionById(Long id) {
+        Optional<Subscription> cached = (id == null) ? Optional.empty() : cache.getIfPresentById(id);
+
+        Mono<Subscription> found = cached.isPresent() //
+                ? Mono.just(cached.get()) //
+                : Mono.justOrEmpty(id).flatMap(repository::findById).doOnNext(cache::put);
+
+        return found.map(Optional::of) //
+                .defaultIfEmpty(Optional.empty()) //
+                .map(subscription -> SubscriptionService.getFoundByIdResponse(id, subscription));
+    }
+
+    /**
+     * Same as {@link SubscriptionService#findAllSubscriptions(Long, Long, Integer)}.
+     */
+    public Mono<SubscriptionResponseInformation> findAllSubscriptions(Long newsletterId, Long after, Integer limit) {
+        int pageSize = SubscriptionService.getPageSize(limit, defaultPageSize, maxPageSize);
+        Long cursor = (after == null) ? 0L : after;
+
+        // One extra element is requested to know if there is a following page without an additional query
+        return repository.findPage(newsletterId, cursor, pageSize + 1) //
+                .collectList() //
+                .map(subscriptions -> SubscriptionService.getPageResponse(subscriptions, pageSize));
+    }
+
+    /**
+     * Same as {@link SubscriptionService#countSubscriptions(Long, Boolean)}.
+     */
+    public Mono<SubscriptionResponseInformation> countSubscriptions(Long newsletterId, Boolean consent) {
+        Mono<Long> estimate = (newsletterId == null && consent == null) ? countEstimate : Mono.just(-1L);
+
+        return estimate.flatMap(amount -> (amount > countEstimateThreshold) //
+                ? Mono.just(SubscriptionService.getCountResponse(amount, true)) //
+                : repository.countSubscriptions(newsletterId, consent) //
+                        .map(count -> SubscriptionService.getCountResponse(count, false)));
+    }
+
+    /**
+     * Same as {@link SubscriptionService#exportSubscriptions(java.io.OutputStream)}, but the subscriptions are
+     * emitted as they are read, and written by WebFlux as they are requested by the client.
+     */
+    public Flux<Subscription> exportSubscriptions() {
+        return repository.streamAll();
+    }
+
+    /**
+     * Same as {@link SubscriptionService#createSubscription(Subscription)}. If the subscription is created and its
+     * consent is given, its notification is enqueued in the outbox by the same statement.
+     */
+    public Mono<SubscriptionResponseInformation> createSubscription(Subscription subscription) {
+        String email = subscription.getEmail();
+        Optional<Subscription> cached = cache.getIfPresentByEmail(email);
+
+        if (cached.isPresent()) {
+            return Mono.fromCallable(() -> SubscriptionService.getCreationResponse(email, Optional.empty(), cached));
+        }
+
+        // Added beforehand, so the email is never reported as absent once it is committed
+        emailFilter.add(email);
+
+        return tryToCreate(subscription, 1);
+    }
+
+    /**
+     * Same as {@link SubscriptionService#deleteSubscriptionById(Long)}.
+     */
+    public Mono<SubscriptionResponseInformation> deleteSubscriptionById(Long id) {
+        return Mono.justOrEmpty(id) //
+                .flatMap(repository::deleteAndReturnById) //
+                .doOnNext(cache::evict) //
+                .flatMap(deleted -> offload(() -> cacheBus.publishDeleted(deleted)).thenReturn(deleted)) //
+                .map(Optional::of) //
+                .defaultIfEmpty(Optional.empty()) //
+                .map(deleted -> SubscriptionService.getDeletedResponse(id, deleted));
+    }
+
+    /**
+     * The existing entry may be deleted between the insertion attempt and the read, so the insertion is retried.
+     */
+    private Mono<SubscriptionResponseInformation> tryToCreate(Subscription subscription, int attempt) {
+        String email = subscription.getEmail();
+
+        logger.info("Persisting new entity with email {}...", email);
+
+        Mono<SubscriptionResponseInformation> created = repository.insertIfAbsent(subscription) //
+                .doOnNext(cache::put) //
+                .flatMap(result -> offload(() -> cacheBus.publishCreated(List.of(result))).thenReturn(result)) //
+                .map(result -> SubscriptionService.getCreationResponse(email, Optional.of(result), Optional.empty()));
+
+        // Somebody else inserted the email, so a miss cached for it is outdated
+        Mono<SubscriptionResponseInformation> found = Mono.defer(() -> {
+            cache.evictEmail(email);
+
+            return repository.findByEmail(email);
+        }).doOnNext(cache::put) //
+                .map(result -> SubscriptionService.getCreationResponse(email, Optional.empty(), Optional.of(result)));
+
+        Mono<SubscriptionResponseInformation> retried = Mono.defer(() -> (attempt < MAX_CREATE_ATTEMPTS) //
+                ? tryToCreate(subscription, attempt + 1) //
+                : Mono.fromCallable(() -> SubscriptionService.getCreationResponse(email, Optional.empty(), //
+                        Optional.empty())));
+
+        return created.switchIfEmpty(found).switchIfEmpty(retried);
+    }
+
+    private static Mono<Void> offload(Runnable blockingAction) {
+        return Mono.fromRunnable(blockingAction) //
+                .subscribeOn(Schedulers.boundedElastic()) //
+                .then();
+    }
+
+}
@@ -0,0 +1,220 @@
+package es.javier.subscriptionservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import es.javier.subscriptionservice.model.SubscriptionDeletionJob;
+import es.javier.subscriptionservice.model.SubscriptionDeletionResponseInformation;
+import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.HEADER_DELETED_AMOUNT;
+import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.HEADER_DELETION_JOB;
+
+/**
+ * Deletes every subscription of a newsletter asynchronously, for newsletters too big to be deleted in a request.
+ * The subscriptions are deleted in chunks of subscriptions.delete.chunk-size, each one in its own transaction (see
+ * {@link SubscriptionService#deleteSubscriptionChunkOfNewsletter(Long, int)}), optionally pausing between them, so
+ * neither the locks nor the WAL written grow with the size of the newsletter.
+ * At most subscriptions.delete.max-concurrent-jobs jobs run at the same time (the rest wait), and a newsletter is only
+ * deleted by one job at a time. The progress of the jobs is kept in memory for subscriptions.delete.job-retention after
+ * their last update, so it can only be queried in the replica that runs them.
+ */
+@Service
+public class SubscriptionDeletionJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionDeletionJobService.class);
+
+    private final SubscriptionService subscriptionService;
+
+    private final SubscriptionRepository repository;
+
+    private final int chunkSize;
+
+    private final Duration chunkPause;
+
+    private final ExecutorService executor;
+
+    private final Cache<String, SubscriptionDeletionJob> jobs;
+
+    // The job that is queued or running for each newsletter
+    private final Map<Long, SubscriptionDeletionJob> activeJobs = new ConcurrentHashMap<>();
+
+    private final Timer chunkTimer;
+
+    private final Counter deletedCounter;
+
+    public SubscriptionDeletionJobService(SubscriptionService subscriptionService, //
+                                          SubscriptionRepository repository, //
+                                          MeterRegistry meterRegistry, //
+                                          @Value("${subscriptions.delete.chunk-size:1000}") int chunkSize, //
+                                          @Value("${subscriptions.delete.chunk-pause:0ms}") Duration chunkPause, //
+                                          @Value("${subscriptions.delete.max-concurrent-jobs:1}") int maxConcurrentJobs, //
+                                          @Value("${subscriptions.delete.job-retention:1h}") Duration jobRetention) {
+        this.subscriptionService = subscriptionService;
+        this.repository = repository;
+        this.chunkSize = chunkSize;
+        this.chunkPause = chunkPause;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrentJobs, runnable -> {
+            Thread thread = new Thread(runnable, "deletion-job-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.jobs = Caffeine.newBuilder() //
+                .expireAfterWrite(jobRetention) //
+                .build();
+
+        this.chunkTimer = Timer.builder("subscriptions.deletion.chunks") //
+                .description("Chunks of subscriptions deleted by the deletion jobs") //
+                .register(meterRegistry);
+        this.deletedCounter = Counter.builder("subscriptions.deletion.deleted") //
+                .description("Subscriptions deleted by the deletion jobs") //
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts the deletion of every subscription of a newsletter, unless it is already being deleted.
+     *
+     * @return {@link SubscriptionDeletionResponseInformation} having the information. Most importantly:
+     * {@link SubscriptionDeletionJob} deletionJob: the progress of the deletion, whose id is in the payload too.
+     * {@link HttpStatus} code: {@link HttpStatus#ACCEPTED} if the deletion was started (or it was already running) or
+     * {@link HttpStatus#BAD_REQUEST} if no newsletter was given.
+     */
+    public SubscriptionResponseInformation startNewsletterDeletion(Long newsletterId) {
+        if (newsletterId == null) {
+            String msg = "The newsletter must be specified.";
+
+            return SubscriptionResponseInformation.builder() //
+                    .withCode(HttpStatus.BAD_REQUEST) //
+                    .withMessage(msg) //
+                    .havingInThePayload("Message", msg);
+        }
+
+        SubscriptionDeletionJob activeJob = activeJobs.get(newsletterId);
+
+        if (activeJob == null) {
+            SubscriptionDeletionJob job = new SubscriptionDeletionJob(UUID.randomUUID().toString(), newsletterId, //
+                    repository.countSubscriptions(newsletterId, null));
+
+            // Another request may have started it meanwhile
+            activeJob = activeJobs.putIfAbsent(newsletterId, job);
+
+            if (activeJob == null) {
+                jobs.put(job.getJobId(), job);
+                executor.execute(() -> run(job));
+
+                logger.info("Deletion job {} of the newsletter {} created", job.getJobId(), newsletterId);
+
+                return getJobResponse(job, HttpStatus.ACCEPTED, "Deletion of the " + job.getExpectedAmount() + //
+                        " subscriptions of the newsletter " + newsletterId + " started.");
+            }
+        }
+
+        return getJobResponse(activeJob, HttpStatus.ACCEPTED, "The subscriptions of the newsletter " + newsletterId + //
+                " are already being deleted.");
+    }
+
+    /**
+     * @return {@link SubscriptionDeletionResponseInformation} having the information. Most importantly:
+     * {@link SubscriptionDeletionJob} deletionJob: the progress of the deletion.
+     * {@link HttpStatus} code: {@link HttpStatus#OK} if the job was found or {@link HttpStatus#NOT_FOUND} if it does
+     * not exist (or it finished too long ago).
+     */
+    public SubscriptionResponseInformation findDeletionJob(String jobId) {
+        Optional<SubscriptionDeletionJob> job = Optional.ofNullable((jobId == null) ? null : jobs.getIfPresent(jobId));
+
+        if (job.isEmpty()) {
+            return SubscriptionResponseInformation.builder() //
+                    .withCode(HttpStatus.NOT_FOUND) //
+                    .withMessage("Deletion job " + jobId + " was not found.");
+        }
+
+        return getJobResponse(job.get(), HttpStatus.OK, "Deletion job " + jobId + " is " + job.get().getState() + ".");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // The running jobs stop after their current chunk, which is committed or rolled back as a whole
+        executor.shutdownNow();
+    }
+
+    private void run(SubscriptionDeletionJob job) {
+        Long newsletterId = job.getNewsletterId();
+
+        job.start();
+        logger.info("Deleting the subscriptions of the newsletter {} in chunks of {}...", newsletterId, chunkSize);
+
+        try {
+            int deleted;
+
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                deleted = chunkTimer.recordCallable(() -> //
+                        subscriptionService.deleteSubscriptionChunkOfNewsletter(newsletterId, chunkSize));
+
+                job.recordChunk(deleted);
+                deletedCounter.increment(deleted);
+                // Also keeps the job from expiring while it runs
+                jobs.put(job.getJobId(), job);
+
+                logger.debug("Deletion job {}: {} of {} subscriptions deleted", job.getJobId(), //
+                        job.getDeletedAmount(), job.getExpectedAmount());
+
+                if (deleted == chunkSize && !chunkPause.isZero()) {
+                    Thread.sleep(chunkPause.toMillis());
+                }
+            } while (deleted == chunkSize);
+
+            job.finish(SubscriptionDeletionJob.State.COMPLETED, "Deleted " + job.getDeletedAmount() + //
+                    " subscriptions of the newsletter " + newsletterId + ".");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish(SubscriptionDeletionJob.State.FAILED, "Interrupted after deleting " + job.getDeletedAmount() + //
+                    " subscriptions. It can be started again.");
+        } catch (Exception e) {
+            logger.error("Deletion job {} of the newsletter {} failed", job.getJobId(), newsletterId, e);
+            job.finish(SubscriptionDeletionJob.State.FAILED, "Failed after deleting " + job.getDeletedAmount() + //
+                    " subscriptions: " + e.getMessage() + ". It can be started again.");
+        } finally {
+            activeJobs.remove(newsletterId, job);
+            jobs.put(job.getJobId(), job);
+        }
+
+        logger.info("Deletion job {} finished: {} ({} subscriptions/s)", job.getJobId(), job.getMessage(), //
+                Math.round(job.getRowsPerSecond()));
+    }
+
+    private static SubscriptionResponseInformation getJobResponse(SubscriptionDeletionJob job, HttpStatus statusCode, //
+                                                                  String msg) {
+        return SubscriptionDeletionResponseInformation.deletionBuilder() //
+                .withDeletionJob(job) //
+                .withCode(statusCode) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_DELETION_JOB, job.getJobId()) //
+                .havingInThePayload(HEADER_DELETED_AMOUNT, String.valueOf(job.getDeletedAmount()));
+    }
+
+}
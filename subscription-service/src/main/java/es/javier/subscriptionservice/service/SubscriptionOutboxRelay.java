@@ -0,0 +1,263 @@
+package es.javier.subscriptionservice.service;
+
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.repository.SubscriptionOutboxRepository;
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static es.javier.subscriptionservice.datasource.ReadWriteRoutingDataSource.onPrimaryIf;
+
+/**
+ * Publishes the notifications of the new subscriptions enqueued in the outbox (see
+ * {@link SubscriptionOutboxRepository}), so the requests that create them never wait for (nor fail because of) the
+ * broker.
+ * Every batch is claimed in a short transaction (for subscriptions.outbox.claim-timeout), published without holding
+ * any lock nor database connection, and then marked as sent in another short transaction. Only the notifications
+ * confirmed by the broker are marked as sent (see {@link MessageQueueService#publishAll(List)}): the claim of the rest,
+ * or of the whole batch if the broker is unavailable, is released so they are published again in the next poll. If
+ * the relay stops before, they are published again once the claim expires. So the notifications are delivered at
+ * least once (the message id is the id of the subscription, so the consumers can discard the repeated ones). The rows
+ * claimed by a replica are skipped by the others, so every replica can run the relay. The claim must outlast the
+ * publication of a batch: subscriptions.notifications.publish-attempts times the confirm-timeout.
+ * The outbox is the queue of the notifications, so its pending notifications are published as the
+ * subscriptions.outbox.pending metric.
+ * The notifications of the subscriptions deleted before being published are discarded. The subscriptions are looked up
+ * in the replicas, which may not have received the ones just created yet, so only those missing in the primary too
+ * are considered deleted.
+ * While the broker is unreachable the outbox keeps the notifications (it survives restarts and is shared by every
+ * replica), and the relay backs off exponentially, up to subscriptions.outbox.max-backoff, instead of trying to
+ * connect in every poll. As soon as a connection to the broker is established again (by this relay or by any other
+ * component, like the {@link es.javier.subscriptionservice.cache.SubscriptionCacheBus}), the backoff is reset, so
+ * the outbox is drained in the next poll.
+ */
+@Service
+public class SubscriptionOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionOutboxRelay.class);
+
+    private final SubscriptionOutboxRepository outboxRepository;
+
+    private final SubscriptionRepository repository;
+
+    private final MessageQueueService messageQueueService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final Duration claimTimeout;
+
+    private final Duration sentRetention;
+
+    private final Duration pollInterval;
+
+    private final Duration maxBackoff;
+
+    private final ConnectionFactory connectionFactory;
+
+    private final Counter publishedCounter;
+
+    private final Counter discardedCounter;
+
+    private final Counter failedCounter;
+
+    private final AtomicLong pendingNotifications = new AtomicLong();
+
+    // Zero while the broker is reachable
+    private volatile long backoffNanos;
+
+    private volatile long retryAtNanos;
+
+    public SubscriptionOutboxRelay(SubscriptionOutboxRepository outboxRepository, //
+                                   SubscriptionRepository repository, //
+                                   MessageQueueService messageQueueService, //
+                                   PlatformTransactionManager transactionManager, //
+                                   ConnectionFactory connectionFactory, //
+                                   MeterRegistry meterRegistry, //
+                                   @Value("${subscriptions.outbox.batch-size:500}") int batchSize, //
+                                   @Value("${subscriptions.outbox.sent-retention:1d}") Duration sentRetention, //
+                                   @Value("${subscriptions.outbox.poll-interval:1000}") long pollInterval, //
+                                   @Value("${subscriptions.outbox.max-backoff:60s}") Duration maxBackoff, //
+                                   @Value("${subscriptions.outbox.claim-timeout:60s}") Duration claimTimeout) {
+        this.outboxRepository = outboxRepository;
+        this.repository = repository;
+        this.messageQueueService = messageQueueService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.claimTimeout = claimTimeout;
+        this.sentRetention = sentRetention;
+        this.pollInterval = Duration.ofMillis(pollInterval);
+        this.maxBackoff = maxBackoff;
+        this.connectionFactory = connectionFactory;
+
+        this.publishedCounter = Counter.builder("subscriptions.outbox.published") //
+                .description("Notifications published from the outbox") //
+                .register(meterRegistry);
+        this.discardedCounter = Counter.builder("subscriptions.outbox.discarded") //
+                .description("Notifications of subscriptions deleted before being published") //
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("subscriptions.outbox.failed") //
+                .description("Batches of notifications that could not be published, to be retried") //
+                .register(meterRegistry);
+        Gauge.builder("subscriptions.outbox.pending", pendingNotifications, AtomicLong::get) //
+                .description("Notifications in the outbox not sent yet") //
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void drainOnConnection() {
+        connectionFactory.addConnectionListener(connection -> {
+            if (backoffNanos > 0) {
+                logger.info("Connected to the broker again, draining the outbox...");
+                backoffNanos = 0;
+                retryAtNanos = 0;
+            }
+        });
+    }
+
+    /**
+     * Publishes the pending notifications, batch by batch, until there are no more (or a batch is not published
+     * completely). Nothing is published while backing off because the broker is unreachable.
+     *
+     * @return the amount of notifications relayed: published, or discarded because their subscription was deleted.
+     */
+    @Scheduled(fixedDelayString = "${subscriptions.outbox.poll-interval:1000}")
+    public int relayPending() {
+        int relayed = 0;
+        int batchRelayed;
+
+        if (backoffNanos > 0 && System.nanoTime() - retryAtNanos < 0) {
+            pendingNotifications.set(outboxRepository.countPending());
+            return 0;
+        }
+
+        try {
+            do {
+                batchRelayed = relayBatch();
+                relayed += batchRelayed;
+            } while (batchRelayed == batchSize);
+
+            backoffNanos = 0;
+        } catch (AmqpConnectException e) {
+            failedCounter.increment();
+            backOff();
+            logger.warn("The broker is unreachable, the notifications will be retried in {} ms: {}", //
+                    TimeUnit.NANOSECONDS.toMillis(backoffNanos), e.getMessage());
+        } catch (AmqpException e) {
+            failedCounter.increment();
+            logger.warn("Notifications could not be published, they will be retried: {}", e.getMessage());
+        }
+
+        if (relayed > 0) {
+            logger.debug("{} notifications relayed from the outbox", relayed);
+        }
+
+        pendingNotifications.set(outboxRepository.countPending());
+
+        return relayed;
+    }
+
+    /**
+     * Deletes the notifications already sent, once they are older than subscriptions.outbox.sent-retention.
+     */
+    @Scheduled(fixedDelayString = "${subscriptions.outbox.purge-interval:3600000}")
+    public void purgeSent() {
+        int purged = outboxRepository.purgeSent(sentRetention);
+
+        logger.debug("{} sent notifications purged from the outbox", purged);
+    }
+
+    /**
+     * Doubles the time until the next attempt, from the poll interval up to the maximum backoff.
+     */
+    private void backOff() {
+        long backoff = backoffNanos == 0 ? pollInterval.toNanos() : backoffNanos * 2;
+
+        backoffNanos = Math.min(backoff, maxBackoff.toNanos());
+        retryAtNanos = System.nanoTime() + backoffNanos;
+    }
+
+    /**
+     * @return the amount of notifications marked as sent, whether they were published or discarded.
+     */
+    private int relayBatch() {
+        Map<Long, Long> pending = outboxRepository.claimPending(batchSize, claimTimeout);
+
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, Subscription> found = new HashMap<>();
+        repository.findAllById(pending.values()).forEach(subscription -> //
+                found.put(subscription.getSubscriptionId(), subscription));
+
+        List<Long> missing = pending.values().stream() //
+                .filter(subscriptionId -> !found.containsKey(subscriptionId)) //
+                .collect(Collectors.toList());
+
+        if (!missing.isEmpty()) {
+            onPrimaryIf(true, () -> repository.findAllById(missing)).forEach(subscription -> //
+                    found.put(subscription.getSubscriptionId(), subscription));
+        }
+
+        // In the order they were enqueued
+        List<Subscription> subscriptions = pending.values().stream() //
+                .map(found::get) //
+                .filter(Objects::nonNull) //
+                .collect(Collectors.toList());
+
+        Set<Long> confirmed;
+
+        try {
+            confirmed = messageQueueService.publishAll(subscriptions);
+        } catch (AmqpException e) {
+            outboxRepository.release(pending.keySet());
+            throw e;
+        }
+
+        // The notifications not confirmed stay pending, the ones of the deleted subscriptions are discarded
+        Map<Boolean, List<Long>> sentOrNot = pending.entrySet().stream() //
+                .collect(Collectors.partitioningBy(notification -> confirmed.contains(notification.getValue()) //
+                                || !found.containsKey(notification.getValue()), //
+                        Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+        List<Long> sent = sentOrNot.get(true);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxRepository.markSent(sent);
+            outboxRepository.release(sentOrNot.get(false));
+        });
+
+        publishedCounter.increment(confirmed.size());
+        discardedCounter.increment(pending.size() - subscriptions.size());
+
+        if (sent.size() < pending.size()) {
+            failedCounter.increment();
+        }
+
+        return sent.size();
+    }
+
+}
@@ -1,18 +1,43 @@
 package es.javier.subscriptionservice.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import es.javier.subscriptionservice.cache.SubscriptionCache;
+import es.javier.subscriptionservice.cache.SubscriptionCacheBus;
+import es.javier.subscriptionservice.cache.SubscriptionEmailFilter;
+import es.javier.subscriptionservice.datasource.ReadYourWritesTracker;
 import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionBatchItemResult;
+import es.javier.subscriptionservice.model.SubscriptionBatchResponseInformation;
 import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.repository.SubscriptionOutboxRepository;
 import es.javier.subscriptionservice.repository.SubscriptionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static es.javier.subscriptionservice.datasource.ReadWriteRoutingDataSource.onPrimaryIf;
 import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
 
 @Service
@@ -26,20 +51,88 @@ public class SubscriptionService {
 
     private static final Logger logger = LoggerFactory.getLogger(SubscriptionService.class);
 
+    private static final int EMAIL_LOOKUP_CHUNK_SIZE = 1000;
+
+    private static final int MAX_CREATE_ATTEMPTS = 3;
+
+    private static final String ID_FIELD = "subscriptionId";
+
+    private static final Set<String> PROJECTABLE_FIELDS = Set.of(ID_FIELD, "email", "firstName", "gender", "consent", //
+            "birthdate", "newsletterId");
+
     @Autowired
     private SubscriptionRepository repository;
 
+    @Autowired
+    private SubscriptionOutboxRepository outboxRepository;
+
+    @Autowired
+    private SubscriptionCache cache;
+
+    @Autowired
+    private SubscriptionCacheBus cacheBus;
+
+    @Autowired
+    private SubscriptionEmailFilter emailFilter;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    @Value("${subscriptions.page.default-size:100}")
+    private int defaultPageSize;
+
+    @Value("${subscriptions.page.max-size:1000}")
+    private int maxPageSize;
+
+    @Value("${subscriptions.export.flush-size:500}")
+    private int exportFlushSize;
+
+    @Value("${subscriptions.batch.max-size:5000}")
+    private int maxBatchSize;
+
+    @Value("${subscriptions.delete.chunk-size:1000}")
+    private int deleteChunkSize;
+
+    @Value("${subscriptions.count.estimate-threshold:1000000}")
+    private long countEstimateThreshold;
+
+    @Value("${subscriptions.count.estimate-ttl:30s}")
+    private Duration countEstimateTtl;
+
+    private volatile CountEstimate countEstimate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private Validator validator;
+
+    // The trailing line break of every row is written by hand, so Jackson must not add its own root separator
+    private final ObjectWriter exportWriter = new ObjectMapper().writerFor(Subscription.class) //
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE) //
+            .withRootValueSeparator("");
+
     /**
-     * Search a subscription by email. Wraps the response in an {@link Optional}.
+     * Search a subscription by email, through the {@link SubscriptionCache}. Wraps the response in an {@link Optional}.
+     * The emails that the {@link SubscriptionEmailFilter} reports as definitely absent are not looked up.
      *
      * @param email the (unique) key we are looking the subscription for.
      * @return {@link Optional<Subscription>} optional that contains the {@link Subscription} if the entry exists in
      * the database already.
      */
     private Optional<Subscription> checkIfEmailIsInDatabase(String email) {
-        Optional<Subscription> subscription = (email == null || email.isBlank())
+        return checkIfEmailIsInDatabase(email, true);
+    }
+
+    /**
+     * As {@link #checkIfEmailIsInDatabase(String)}, but the email filter is only consulted if useFilter is true.
+     * The emails known to exist (like after an insertion conflict) are looked up without it.
+     */
+    private Optional<Subscription> checkIfEmailIsInDatabase(String email, boolean useFilter) {
+        Optional<Subscription> subscription = (email == null || email.isBlank()
+                || (useFilter && emailFilter.isDefinitelyAbsent(email)))
                 ? Optional.empty()
-                : repository.findByEmail(email);
+                : cache.getByEmail(email, this::findByEmailInDatabase);
 
         if (subscription.isEmpty()) {
             logger.debug("Subscription email {} was not found...", email);
@@ -52,7 +145,7 @@ public class SubscriptionService {
     }
 
     /**
-     * Search a subscription by email. Wraps the response in an {@link Optional}.
+     * Search a subscription by id, through the {@link SubscriptionCache}. Wraps the response in an {@link Optional}.
      *
      * @param id the key from the entry
      * @return {@link Optional<Subscription>} optional that contains the {@link Subscription} if the entry exists in
@@ -61,7 +154,7 @@ public class SubscriptionService {
     private Optional<Subscription> checkIfIdIsInDatabase(Long id) {
         Optional<Subscription> subscription = (id == null)
                 ? Optional.empty()
-                : repository.findById(id);
+                : cache.getById(id, repository::findById);
 
         if (subscription.isEmpty()) {
             logger.debug("Subscription id {} was not found...", id);
@@ -82,8 +175,10 @@ public class SubscriptionService {
      * {@link HttpStatus} code: the result of the operation, either {@link HttpStatus#FOUND} if the entry was already
      * in the database or {@link HttpStatus#NOT_FOUND} if the entry does not exist.
      */
+    @Transactional(readOnly = true)
     public SubscriptionResponseInformation findSubscriptionByEmail(String email) {
-        Optional<Subscription> found = checkIfEmailIsInDatabase(email);
+        Optional<Subscription> found = onPrimaryIf(readYourWrites.wasRecentlyWritten(email), //
+                () -> checkIfEmailIsInDatabase(email));
 
         Subscription result;
         HttpStatus statusCode;
@@ -118,62 +213,241 @@ public class SubscriptionService {
      * {@link HttpStatus} code: the result of the operation, either {@link HttpStatus#OK} if the entry was already
      * in the database or {@link HttpStatus#NOT_FOUND} if the entry does not exist.
      */
+    @Transactional(readOnly = true)
     public SubscriptionResponseInformation findSubscriptionById(Long id) {
-        Optional<Subscription> found = checkIfIdIsInDatabase(id);
+        Optional<Subscription> found = onPrimaryIf(readYourWrites.wasRecentlyWritten(id), //
+                () -> checkIfIdIsInDatabase(id));
 
-        Subscription result;
-        HttpStatus statusCode;
-        String msg;
-        String persistedId;
+        return getFoundByIdResponse(id, found);
+    }
 
-        if (found.isEmpty()) {
-            statusCode = HttpStatus.NOT_FOUND;
-            result = null;
-            msg = "Entity of id: " + id + " was not found.";
-            persistedId = null;
-        } else {
-            statusCode = HttpStatus.OK;
-            result = found.get();
-            msg = "Entity of email: " + result.getEmail() + " was found (id: " + result.getSubscriptionId() + ").";
-            persistedId = result.getSubscriptionId().toString();
+    /**
+     * Finds a page of subscriptions using keyset pagination (the subscriptions are ordered by id).
+     *
+     * @param newsletterId if not null, only the subscriptions of this newsletter are returned.
+     * @param after the cursor: only subscriptions with a greater id are returned. If null, the first page is returned.
+     * @param limit the maximum amount of subscriptions to return. If null, not positive or greater than the
+     *              configured maximum, it is adjusted.
+     * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
+     * {@link HttpStatus} code: the result of the operation, either {@link HttpStatus#OK} if entries were found in the
+     * the database or {@link HttpStatus#NOT_FOUND} if no entries were found.
+     * {@link String} next cursor: the id to request the following page with, only if there are more entries.
+     */
+    @Transactional(readOnly = true)
+    public SubscriptionResponseInformation findAllSubscriptions(Long newsletterId, Long after, Integer limit) {
+        int pageSize = getPageSize(limit);
+        Long cursor = (after == null) ? 0L : after;
+
+        // One extra element is requested to know if there is a following page without an additional query
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+
+        List<Subscription> subscriptionList = (newsletterId == null)
+                ? repository.findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(cursor, page)
+                : repository.findByNewsletterIdAndSubscriptionIdGreaterThanOrderBySubscriptionIdAsc(newsletterId, cursor, page);
+
+        return getPageResponse(subscriptionList, pageSize);
+    }
+
+    /**
+     * Builds the response of a page of subscriptions.
+     *
+     * @param subscriptions the subscriptions found, with one element more than the page size if there are more pages.
+     * @param pageSize      the amount of subscriptions of a page.
+     */
+    static SubscriptionResponseInformation getPageResponse(List<Subscription> subscriptions, int pageSize) {
+        List<Subscription> subscriptionList = new ArrayList<>(subscriptions);
+        String nextCursor = null;
+
+        if (subscriptionList.size() > pageSize) {
+            subscriptionList = new ArrayList<>(subscriptionList.subList(0, pageSize));
+            nextCursor = subscriptionList.get(pageSize - 1).getSubscriptionId().toString();
         }
 
+        HttpStatus statusCode = (subscriptionList.size() == 0) //
+                ? HttpStatus.NOT_FOUND //
+                : HttpStatus.OK;
+
+        String msg = "Amount of elements found: " + subscriptionList.size();
+
         return SubscriptionResponseInformation.builder() //
                 .withCode(statusCode) //
-                .withSubscription(result) //
+                .withSubscriptions(subscriptionList) //
                 .withMessage(msg) //
-                .havingInThePayload(HEADER_ID_FOUND, persistedId);
-
+                .havingInThePayload(HEADER_AMOUNT, String.valueOf(subscriptionList.size())) //
+                .havingInThePayload(HEADER_NEXT_CURSOR, nextCursor);
     }
 
     /**
-     * Finds all existing subscriptions in the database.
+     * Same as {@link #findSubscriptionById(Long)}, but only the given fields of the subscription are read from the
+     * database, and they are returned as the projected data of the response.
      *
+     * @param fields names of the {@link Subscription} fields to return.
      * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
-     * {@link HttpStatus} code: the result of the operation, either {@link HttpStatus#OK} if entries were found in the
-     * the database or {@link HttpStatus#NOT_FOUND} if no entries were found.
+     * {@link HttpStatus} code: {@link HttpStatus#OK} if the entry was in the database, {@link HttpStatus#NOT_FOUND}
+     * if it does not exist or {@link HttpStatus#BAD_REQUEST} if any field is unknown.
      */
-    public SubscriptionResponseInformation findAllSubscriptions() {
-        List<Subscription> subscriptionList = new ArrayList<>();
+    @Transactional(readOnly = true)
+    public SubscriptionResponseInformation findSubscriptionProjectionById(List<String> fields, Long id) {
+        String unknownFields = getUnknownFields(fields);
+
+        if (unknownFields != null) {
+            return SubscriptionResponseInformation.builder() //
+                    .withCode(HttpStatus.BAD_REQUEST) //
+                    .withMessage("Unknown fields: " + unknownFields + ". The valid fields are: " + PROJECTABLE_FIELDS) //
+                    .havingInThePayload(HEADER_ID_FOUND, null);
+        }
 
-        repository.findAll().forEach(subscriptionList::add);
+        Optional<Map<String, Object>> found = onPrimaryIf(readYourWrites.wasRecentlyWritten(id), //
+                () -> repository.findProjectedById(new ArrayList<>(new LinkedHashSet<>(fields)), id));
 
-        HttpStatus statusCode = (subscriptionList.size() == 0) //
+        HttpStatus statusCode = found.isEmpty() //
                 ? HttpStatus.NOT_FOUND //
                 : HttpStatus.OK;
 
-        String msg = "Amount of elements found: " + subscriptionList.size();
+        String msg = found.isEmpty() //
+                ? "Entity of id: " + id + " was not found." //
+                : "Entity of id: " + id + " was found.";
 
         return SubscriptionResponseInformation.builder() //
                 .withCode(statusCode) //
-                .withSubscriptions(subscriptionList) //
+                .withProjectedData(found.map(List::of).orElse(null)) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_ID_FOUND, found.isEmpty() ? null : id.toString());
+    }
+
+    /**
+     * Same as {@link #findAllSubscriptions(Long, Long, Integer)}, but only the given fields of the subscriptions are
+     * read from the database, and they are returned as the projected data of the response.
+     *
+     * @param fields names of the {@link Subscription} fields to return.
+     * @return {@link SubscriptionResponseInformation} as in {@link #findAllSubscriptions(Long, Long, Integer)}, or with
+     * the code {@link HttpStatus#BAD_REQUEST} if any field is unknown.
+     */
+    @Transactional(readOnly = true)
+    public SubscriptionResponseInformation findAllSubscriptionProjections(List<String> fields, Long newsletterId, //
+                                                                          Long after, Integer limit) {
+        String unknownFields = getUnknownFields(fields);
+
+        if (unknownFields != null) {
+            return SubscriptionResponseInformation.builder() //
+                    .withCode(HttpStatus.BAD_REQUEST) //
+                    .withMessage("Unknown fields: " + unknownFields + ". The valid fields are: " + PROJECTABLE_FIELDS) //
+                    .havingInThePayload(HEADER_AMOUNT, "0");
+        }
+
+        int pageSize = getPageSize(limit);
+        Long cursor = (after == null) ? 0L : after;
+
+        // The id is always selected, because the cursor of the next page is taken from it
+        List<String> selected = new ArrayList<>(new LinkedHashSet<>(fields));
+        boolean idRequested = selected.contains(ID_FIELD);
+
+        if (!idRequested) {
+            selected.add(ID_FIELD);
+        }
+
+        List<Map<String, Object>> projections = repository.findProjectedPage(selected, newsletterId, cursor, pageSize + 1);
+        String nextCursor = null;
+
+        if (projections.size() > pageSize) {
+            projections = new ArrayList<>(projections.subList(0, pageSize));
+            nextCursor = String.valueOf(projections.get(pageSize - 1).get(ID_FIELD));
+        }
+
+        if (!idRequested) {
+            projections.forEach(projection -> projection.remove(ID_FIELD));
+        }
+
+        HttpStatus statusCode = (projections.size() == 0) //
+                ? HttpStatus.NOT_FOUND //
+                : HttpStatus.OK;
+
+        String msg = "Amount of elements found: " + projections.size();
+
+        return SubscriptionResponseInformation.builder() //
+                .withCode(statusCode) //
+                .withProjectedData(projections) //
                 .withMessage(msg) //
-                .havingInThePayload(HEADER_AMOUNT, String.valueOf(subscriptionList.size()));
+                .havingInThePayload(HEADER_AMOUNT, String.valueOf(projections.size())) //
+                .havingInThePayload(HEADER_NEXT_CURSOR, nextCursor);
     }
 
     /**
-     * Checks if the entry already exists in database before performing the insertion in order
-     * to simplify exception handling.
+     * Counts the subscriptions without loading them. When no filter is given and the table is big enough (more than
+     * subscriptions.count.estimate-threshold rows), the estimate of the PostgreSQL statistics is returned instead of
+     * an exact count, which would have to scan the whole table. The estimate is cached for a short time, because it
+     * only changes when the table is analyzed.
+     *
+     * @param newsletterId if not null, only the subscriptions of this newsletter are counted.
+     * @param consent      if not null, only the subscriptions with this consent are counted.
+     * @return {@link SubscriptionResponseInformation} with the code {@link HttpStatus#OK} and in the payload:
+     * {@link String} amount: the amount of subscriptions.
+     * {@link String} amount estimated: whether the amount is an estimate.
+     */
+    @Transactional(readOnly = true)
+    public SubscriptionResponseInformation countSubscriptions(Long newsletterId, Boolean consent) {
+        long estimate = (newsletterId == null && consent == null) ? getCountEstimate() : -1;
+        boolean estimated = estimate > countEstimateThreshold;
+
+        long amount = estimated //
+                ? estimate //
+                : repository.countSubscriptions(newsletterId, consent);
+
+        return getCountResponse(amount, estimated);
+    }
+
+    static SubscriptionResponseInformation getCountResponse(long amount, boolean estimated) {
+        String msg = (estimated ? "Estimated amount of elements: " : "Amount of elements found: ") + amount;
+
+        return SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_AMOUNT, String.valueOf(amount)) //
+                .havingInThePayload(HEADER_AMOUNT_ESTIMATED, String.valueOf(estimated));
+    }
+
+    /**
+     * Writes every subscription in the database to the given stream as newline-delimited JSON.
+     * The rows are read through a database cursor and detached as soon as they are written, and the stream is flushed
+     * every few rows, so the memory used does not depend on the amount of subscriptions.
+     *
+     * @param outputStream where the subscriptions are written to. It is flushed, but not closed.
+     * @return the amount of subscriptions written.
+     */
+    @Transactional(readOnly = true)
+    public long exportSubscriptions(OutputStream outputStream) throws IOException {
+        long exported = 0;
+
+        JsonGenerator generator = exportWriter.getFactory().createGenerator(outputStream) //
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        try (Stream<Subscription> subscriptions = repository.streamAll()) {
+            Iterator<Subscription> iterator = subscriptions.iterator();
+
+            while (iterator.hasNext()) {
+                Subscription subscription = iterator.next();
+
+                exportWriter.writeValue(generator, subscription);
+                generator.writeRaw('\n');
+                entityManager.detach(subscription);
+
+                if (++exported % exportFlushSize == 0) {
+                    generator.flush();
+                }
+            }
+        } finally {
+            generator.close();
+        }
+
+        logger.debug("Exported {} subscriptions...", exported);
+
+        return exported;
+    }
+
+    /**
+     * Inserts the entry unless its email already exists in a single statement, so concurrent requests for the same
+     * email do not race between the check and the insertion. The existing entry is only read back when nothing was
+     * inserted, and the database is not accessed at all if the entry is cached already.
      *
      * @param subscription {@link Subscription} having the information to be saved into database.
      * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
@@ -182,56 +456,224 @@ public class SubscriptionService {
      * in the database and no insertion was performed or {@link HttpStatus#CREATED} if the entry has been generated.
      */
     public SubscriptionResponseInformation createSubscription(Subscription subscription) {
-        Optional<Subscription> found = checkIfEmailIsInDatabase(subscription.getEmail());
+        String email = subscription.getEmail();
 
+        Optional<Subscription> found = cache.getIfPresentByEmail(email);
+        Optional<Subscription> created = Optional.empty();
+
+        // Added beforehand, so the email is never reported as absent once it is committed
+        emailFilter.add(email);
+
+        // The existing entry may be deleted between the insertion attempt and the read, so the insertion is retried
+        for (int attempt = 0; attempt < MAX_CREATE_ATTEMPTS && found.isEmpty() && created.isEmpty(); attempt++) {
+            logger.info("Persisting new entity with email {}...", email);
+
+            created = repository.insertIfAbsent(subscription);
+
+            if (created.isEmpty()) {
+                // Somebody else inserted the email, so a miss cached for it is outdated, and it may not have
+                // reached the replicas yet
+                cache.evictEmail(email);
+                found = onPrimaryIf(true, () -> checkIfEmailIsInDatabase(email, false));
+            }
+        }
+
+        created.ifPresent(result -> {
+            cache.put(result);
+            readYourWrites.recordWrite(result.getEmail(), result.getSubscriptionId());
+            cacheBus.publishCreated(List.of(result));
+        });
+
+        return getCreationResponse(email, created, found);
+    }
+
+    /**
+     * Builds the response of the creation of a subscription.
+     *
+     * @throws ConcurrencyFailureException if the subscription was neither created nor found.
+     */
+    static SubscriptionResponseInformation getCreationResponse(String email, Optional<Subscription> created, //
+                                                               Optional<Subscription> found) {
         Subscription result;
         HttpStatus statusCode;
         String msg;
-        String persistedId;
         String headerIdName;
 
-        if (found.isPresent()) {
+        if (created.isPresent()) {
+            result = created.get();
+            statusCode = HttpStatus.CREATED;
+            msg = "Created entry with email: " + result.getEmail() + " and id: " + result.getSubscriptionId();
+            headerIdName = HEADER_ID_CREATED;
+        } else if (found.isPresent()) {
             logger.debug("Skipping insertion because entry with email {} is already present [ENTRY'S ID: {}]", //
-                    found.get().getSubscriptionId(), subscription.getEmail());
+                    email, found.get().getSubscriptionId());
 
-            statusCode = HttpStatus.FOUND;
             result = found.get();
-            msg = "Entry of email: " + subscription.getEmail() + " already exists.";
-            persistedId = found.get().getSubscriptionId().toString();
+            statusCode = HttpStatus.FOUND;
+            msg = "Entry of email: " + email + " already exists.";
             headerIdName = HEADER_ID_FOUND;
         } else {
-            logger.info("Persisting new entity with email {}...", subscription.getEmail());
-
-            result = repository.save(subscription);
-            statusCode = HttpStatus.CREATED;
-            msg = "Created entry with email: " + result.getEmail() + " and id: " + result.getSubscriptionId();
-            persistedId = result.getSubscriptionId().toString();
-            headerIdName = HEADER_ID_CREATED;
+            throw new ConcurrencyFailureException("Entry of email: " + email + " is being modified concurrently.");
         }
 
         return SubscriptionResponseInformation.builder() //
                 .withCode(statusCode) //
                 .withSubscription(result) //
                 .withMessage(msg) //
-                .havingInThePayload(headerIdName, persistedId);
+                .havingInThePayload(headerIdName, result.getSubscriptionId().toString());
+    }
+
+    /**
+     * Creates in a single transaction the subscriptions whose email is not in the database yet.
+     * The elements are validated one by one and the repeated emails are only inserted once. The emails that already
+     * exist are looked up in chunks (skipping the ones the {@link SubscriptionEmailFilter} reports as definitely
+     * absent), and the new subscriptions are inserted using JDBC batches, together with the
+     * notifications of the ones whose consent is given.
+     *
+     * @param subscriptions the {@link Subscription} list to be saved into database.
+     * @return {@link SubscriptionBatchResponseInformation} having the information. Most importantly:
+     * {@link List<SubscriptionBatchItemResult>} itemResults: the outcome of every element, in the same order.
+     * {@link List<Subscription>} subscriptionData: the subscriptions that have been created.
+     * {@link HttpStatus} code: {@link HttpStatus#CREATED} if any subscription was created, {@link HttpStatus#FOUND}
+     * if every valid element already existed or {@link HttpStatus#BAD_REQUEST} if no element was valid.
+     */
+    @Transactional
+    public SubscriptionResponseInformation createSubscriptions(List<Subscription> subscriptions) {
+        if (subscriptions == null || subscriptions.isEmpty() || subscriptions.size() > maxBatchSize) {
+            String msg = "Between 1 and " + maxBatchSize + " subscriptions must be sent.";
+
+            return SubscriptionBatchResponseInformation.batchBuilder() //
+                    .withCode(HttpStatus.BAD_REQUEST) //
+                    .withMessage(msg) //
+                    .havingInThePayload("Message", msg);
+        }
+
+        SubscriptionBatchItemResult[] results = new SubscriptionBatchItemResult[subscriptions.size()];
+        Map<String, Subscription> uniqueSubscriptions = new LinkedHashMap<>();
+
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription subscription = subscriptions.get(i);
+            String errors = validate(subscription);
+
+            if (errors != null) {
+                results[i] = new SubscriptionBatchItemResult(i, (subscription == null) ? null : subscription.getEmail(), //
+                        HttpStatus.BAD_REQUEST, null, errors);
+            } else {
+                uniqueSubscriptions.putIfAbsent(subscription.getEmail(), subscription);
+            }
+        }
+
+        Map<String, Subscription> existing = findExistingByEmail(uniqueSubscriptions.keySet());
+
+        List<Subscription> toCreate = uniqueSubscriptions.values().stream() //
+                .filter(subscription -> !existing.containsKey(subscription.getEmail())) //
+                .collect(Collectors.toList());
+
+        // The ids are always generated by the database sequence
+        toCreate.forEach(subscription -> {
+            subscription.setSubscriptionId(null);
+            emailFilter.add(subscription.getEmail());
+        });
+
+        logger.info("Persisting {} new entities in batch ({} were already present)...", toCreate.size(), existing.size());
+
+        List<Subscription> created = new ArrayList<>();
+        repository.saveAll(toCreate).forEach(created::add);
+
+        // In the same transaction, so the notifications are published if and only if the subscriptions are created
+        outboxRepository.enqueue(created.stream().map(Subscription::getSubscriptionId).collect(Collectors.toList()));
+
+        afterCommit(() -> {
+            created.forEach(subscription -> {
+                cache.put(subscription);
+                readYourWrites.recordWrite(subscription.getEmail(), subscription.getSubscriptionId());
+            });
+            existing.values().forEach(cache::put);
+            cacheBus.publishCreated(created);
+        });
+
+        Map<String, Subscription> createdByEmail = created.stream() //
+                .collect(Collectors.toMap(Subscription::getEmail, subscription -> subscription));
+
+        int createdAmount = 0;
+        int foundAmount = 0;
+        int invalidAmount = 0;
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                invalidAmount++;
+                continue;
+            }
+
+            String email = subscriptions.get(i).getEmail();
+            Subscription newSubscription = createdByEmail.remove(email);
+
+            if (newSubscription != null) {
+                createdAmount++;
+                results[i] = new SubscriptionBatchItemResult(i, email, HttpStatus.CREATED, //
+                        newSubscription.getSubscriptionId(), "Created entry with email: " + email);
+            } else {
+                // Either it was in the database or it is repeated in the request
+                Subscription foundSubscription = existing.containsKey(email)
+                        ? existing.get(email)
+                        : uniqueSubscriptions.get(email);
+
+                foundAmount++;
+                results[i] = new SubscriptionBatchItemResult(i, email, HttpStatus.FOUND, //
+                        foundSubscription.getSubscriptionId(), "Entry of email: " + email + " already exists.");
+            }
+        }
+
+        HttpStatus statusCode;
+
+        if (createdAmount > 0) {
+            statusCode = HttpStatus.CREATED;
+        } else if (foundAmount > 0) {
+            statusCode = HttpStatus.FOUND;
+        } else {
+            statusCode = HttpStatus.BAD_REQUEST;
+        }
+
+        String msg = "Created: " + createdAmount + ", already existing: " + foundAmount + ", invalid: " + invalidAmount;
+
+        return SubscriptionBatchResponseInformation.batchBuilder() //
+                .withItemResults(Arrays.asList(results)) //
+                .withCode(statusCode) //
+                .withSubscriptions(created) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_CREATED_AMOUNT, String.valueOf(createdAmount)) //
+                .havingInThePayload(HEADER_AMOUNT, String.valueOf(foundAmount)) //
+                .havingInThePayload(HEADER_INVALID_AMOUNT, String.valueOf(invalidAmount));
     }
 
+    /**
+     * Deletes a subscription from the database in a single statement, given its email.
+     *
+     * @param email
+     * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
+     * {@link HttpStatus} code: the result of the operation, either {@link HttpStatus#OK} if the entry was in the
+     * database or {@link HttpStatus#NOT_FOUND} if the entry was not in the database.
+     */
     public SubscriptionResponseInformation deleteSubscriptionByEmail(String email) {
-        Optional<Subscription> found = checkIfEmailIsInDatabase(email);
+        Optional<Subscription> deleted = (email == null || email.isBlank())
+                ? Optional.empty()
+                : repository.deleteAndReturnByEmail(email);
 
         Subscription result;
         HttpStatus statusCode;
         String msg;
 
-        if (found.isEmpty()) {
+        if (deleted.isEmpty()) {
             statusCode = HttpStatus.NOT_FOUND;
             result = null;
             msg = "Entity of email: " + email + " was not found.";
         } else {
             statusCode = HttpStatus.OK;
-            result = found.get();
+            result = deleted.get();
             msg = "Entity of email: " + email + " was deleted (id: " + result.getSubscriptionId() + ").";
-            repository.delete(found.get());
+            cache.evict(result);
+            readYourWrites.recordWrite(result.getEmail(), result.getSubscriptionId());
+            cacheBus.publishDeleted(result);
         }
 
         return SubscriptionResponseInformation.builder() //
@@ -241,7 +683,7 @@ public class SubscriptionService {
     }
 
     /**
-     * Deletes a subscription from the database.
+     * Deletes a subscription from the database in a single statement, without loading it first.
      *
      * @param id
      * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
@@ -250,21 +692,90 @@ public class SubscriptionService {
      * database or {@link HttpStatus#NOT_FOUND} if the entry was not in the database.
      */
     public SubscriptionResponseInformation deleteSubscriptionById(Long id) {
-        Optional<Subscription> found = checkIfIdIsInDatabase(id);
+        Optional<Subscription> deleted = (id == null)
+                ? Optional.empty()
+                : repository.deleteAndReturnById(id);
+
+        deleted.ifPresent(result -> {
+            cache.evict(result);
+            readYourWrites.recordWrite(result.getEmail(), result.getSubscriptionId());
+            cacheBus.publishDeleted(result);
+        });
+
+        return getDeletedResponse(id, deleted);
+    }
+
+    /**
+     * Deletes the subscriptions with the given ids without loading them first, in chunks of
+     * subscriptions.delete.chunk-size ids. Every chunk is deleted in a single statement and in its own transaction, so
+     * the locks are held for a short time, and a failure only rolls back its chunk.
+     *
+     * @param ids the ids of the subscriptions to delete. The ones not in the database are ignored.
+     * @return {@link SubscriptionResponseInformation} having the information. Most importantly:
+     * {@link List<Subscription>} subscriptionData: the subscriptions that have been deleted.
+     * {@link HttpStatus} code: {@link HttpStatus#OK} if any subscription was deleted, {@link HttpStatus#NOT_FOUND} if
+     * none of them was in the database or {@link HttpStatus#BAD_REQUEST} if no ids or too many ids were sent.
+     */
+    public SubscriptionResponseInformation deleteSubscriptionsByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty() || ids.size() > maxBatchSize) {
+            String msg = "Between 1 and " + maxBatchSize + " ids must be sent.";
+
+            return SubscriptionResponseInformation.builder() //
+                    .withCode(HttpStatus.BAD_REQUEST) //
+                    .withMessage(msg) //
+                    .havingInThePayload("Message", msg);
+        }
+
+        List<Long> uniqueIds = ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        List<Subscription> deleted = new ArrayList<>();
+
+        for (int from = 0; from < uniqueIds.size(); from += deleteChunkSize) {
+            List<Long> chunk = uniqueIds.subList(from, Math.min(from + deleteChunkSize, uniqueIds.size()));
+            List<Subscription> deletedChunk = repository.deleteAndReturnByIds(chunk);
+
+            onDeleted(deletedChunk);
+            deleted.addAll(deletedChunk);
+        }
+
+        logger.info("Deleted {} entities by id ({} were not found)...", deleted.size(), uniqueIds.size() - deleted.size());
+
+        HttpStatus statusCode = deleted.isEmpty() ? HttpStatus.NOT_FOUND : HttpStatus.OK;
+        String msg = "Deleted: " + deleted.size() + ", not found: " + (uniqueIds.size() - deleted.size());
 
+        return SubscriptionResponseInformation.builder() //
+                .withCode(statusCode) //
+                .withSubscriptions(deleted) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_DELETED_AMOUNT, String.valueOf(deleted.size()));
+    }
+
+    /**
+     * Deletes, in a single statement and transaction, up to the given amount of subscriptions of a newsletter. It is
+     * called repeatedly by the {@link SubscriptionDeletionJobService} to delete a whole newsletter.
+     *
+     * @return the amount of subscriptions deleted. If it is less than the chunk size, the newsletter has no more.
+     */
+    public int deleteSubscriptionChunkOfNewsletter(Long newsletterId, int chunkSize) {
+        List<Subscription> deleted = repository.deleteAndReturnChunkByNewsletterId(newsletterId, chunkSize);
+
+        onDeleted(deleted);
+
+        return deleted.size();
+    }
+
+    static SubscriptionResponseInformation getDeletedResponse(Long id, Optional<Subscription> deleted) {
         Subscription result;
         HttpStatus statusCode;
         String msg;
 
-        if (found.isEmpty()) {
+        if (deleted.isEmpty()) {
             statusCode = HttpStatus.NOT_FOUND;
             result = null;
             msg = "Entity of id: " + id + " was not found.";
         } else {
             statusCode = HttpStatus.OK;
-            result = found.get();
+            result = deleted.get();
             msg = "Entity of id: " + id + " was deleted (id: " + result.getSubscriptionId() + ").";
-            repository.delete(found.get());
         }
 
         return SubscriptionResponseInformation.builder() //
@@ -273,4 +784,148 @@ public class SubscriptionService {
                 .withMessage(msg);
     }
 
+    static SubscriptionResponseInformation getFoundByIdResponse(Long id, Optional<Subscription> found) {
+        Subscription result;
+        HttpStatus statusCode;
+        String msg;
+        String persistedId;
+
+        if (found.isEmpty()) {
+            statusCode = HttpStatus.NOT_FOUND;
+            result = null;
+            msg = "Entity of id: " + id + " was not found.";
+            persistedId = null;
+        } else {
+            statusCode = HttpStatus.OK;
+            result = found.get();
+            msg = "Entity of email: " + result.getEmail() + " was found (id: " + result.getSubscriptionId() + ").";
+            persistedId = result.getSubscriptionId().toString();
+        }
+
+        return SubscriptionResponseInformation.builder() //
+                .withCode(statusCode) //
+                .withSubscription(result) //
+                .withMessage(msg) //
+                .havingInThePayload(HEADER_ID_FOUND, persistedId);
+    }
+
+    private void onDeleted(List<Subscription> deleted) {
+        if (deleted.isEmpty()) {
+            return;
+        }
+
+        deleted.forEach(result -> {
+            cache.evict(result);
+            readYourWrites.recordWrite(result.getEmail(), result.getSubscriptionId());
+        });
+        cacheBus.publishAllDeleted(deleted);
+    }
+
+    /**
+     * Runs the action once the current transaction is committed, so nothing rolled back is ever cached.
+     * If there is no transaction, it runs straight away.
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private Optional<Subscription> findByEmailInDatabase(String email) {
+        Optional<Subscription> subscription = repository.findByEmail(email);
+
+        if (subscription.isEmpty()) {
+            emailFilter.recordFalsePositive();
+        }
+
+        return subscription;
+    }
+
+    private long getCountEstimate() {
+        CountEstimate current = countEstimate;
+
+        if (current == null || current.isExpired()) {
+            current = new CountEstimate(repository.estimateCount(), System.nanoTime() + countEstimateTtl.toNanos());
+            countEstimate = current;
+        }
+
+        return current.amount;
+    }
+
+    private String getUnknownFields(List<String> fields) {
+        List<String> unknownFields = fields.stream() //
+                .filter(field -> !PROJECTABLE_FIELDS.contains(field)) //
+                .collect(Collectors.toList());
+
+        return unknownFields.isEmpty() ? null : String.join(", ", unknownFields);
+    }
+
+    private int getPageSize(Integer limit) {
+        return getPageSize(limit, defaultPageSize, maxPageSize);
+    }
+
+    static int getPageSize(Integer limit, int defaultPageSize, int maxPageSize) {
+        if (limit == null || limit < 1) {
+            return defaultPageSize;
+        }
+
+        return Math.min(limit, maxPageSize);
+    }
+
+    private String validate(Subscription subscription) {
+        if (subscription == null) {
+            return "Subscription must be specified";
+        }
+
+        Set<ConstraintViolation<Subscription>> violations = validator.validate(subscription);
+
+        return violations.isEmpty()
+                ? null
+                : violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Looks up the subscriptions of the emails, except the ones that the {@link SubscriptionEmailFilter} reports as
+     * definitely absent, which are most of them in a burst of sign-ups.
+     */
+    private Map<String, Subscription> findExistingByEmail(Collection<String> emails) {
+        Map<String, Subscription> existing = new HashMap<>();
+        List<String> pending = emails.stream() //
+                .filter(email -> !emailFilter.isDefinitelyAbsent(email)) //
+                .collect(Collectors.toList());
+
+        // Big IN lists are split so the statements stay reasonably sized
+        for (int from = 0; from < pending.size(); from += EMAIL_LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = pending.subList(from, Math.min(from + EMAIL_LOOKUP_CHUNK_SIZE, pending.size()));
+
+            repository.findByEmailIn(chunk).forEach(subscription -> existing.put(subscription.getEmail(), subscription));
+        }
+
+        pending.stream().filter(email -> !existing.containsKey(email)).forEach(email -> emailFilter.recordFalsePositive());
+
+        return existing;
+    }
+
+    private static final class CountEstimate {
+        private final long amount;
+        private final long expiresAt;
+
+        private CountEstimate(long amount, long expiresAt) {
+            this.amount = amount;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
 }
@@ -0,0 +1,110 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.cache.EmailBloomFilter;
+import es.javier.subscriptionservice.cache.SubscriptionEmailFilter;
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EmailBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        EmailBloomFilter filter = new EmailBloomFilter(10_000, 0.01);
+
+        IntStream.range(0, 10_000).forEach(i -> filter.add("user" + i + "@test.com"));
+
+        IntStream.range(0, 10_000).forEach(i -> Assertions.assertTrue(filter.mightContain("user" + i + "@test.com")));
+
+        // Normalized emails
+        Assertions.assertTrue(filter.mightContain(" USER1@Test.com "));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        EmailBloomFilter filter = new EmailBloomFilter(10_000, 0.01);
+
+        IntStream.range(0, 10_000).forEach(i -> filter.add("user" + i + "@test.com"));
+
+        long falsePositives = IntStream.range(0, 100_000) //
+                .filter(i -> filter.mightContain("other" + i + "@test.com")) //
+                .count();
+
+        Assertions.assertTrue(falsePositives < 2_000, "False positives: " + falsePositives);
+        Assertions.assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+
+        // About 9.6 bits per email
+        Assertions.assertTrue(filter.sizeInBytes() < 13_000);
+    }
+
+    @Test
+    public void testConcurrentAdditions() throws InterruptedException {
+        EmailBloomFilter filter = new EmailBloomFilter(40_000, 0.01);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> IntStream.range(0, 10_000) //
+                    .forEach(i -> filter.add("user" + thread + "-" + i + "@test.com"))));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 10_000; i++) {
+                Assertions.assertTrue(filter.mightContain("user" + t + "-" + i + "@test.com"));
+            }
+        }
+    }
+
+    @Test
+    public void testMergedFilters() {
+        EmailBloomFilter filter = new EmailBloomFilter(1_000, 0.01);
+        EmailBloomFilter other = new EmailBloomFilter(1_000, 0.01);
+
+        IntStream.range(0, 500).forEach(i -> filter.add("user" + i + "@test.com"));
+        IntStream.range(500, 1_000).forEach(i -> other.add("user" + i + "@test.com"));
+        double expectedFalsePositiveRate = filter.expectedFalsePositiveRate();
+
+        filter.addAll(other);
+
+        IntStream.range(0, 1_000).forEach(i -> Assertions.assertTrue(filter.mightContain("user" + i + "@test.com")));
+        Assertions.assertTrue(filter.expectedFalsePositiveRate() > expectedFalsePositiveRate);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> filter.addAll(new EmailBloomFilter(10, 0.01)));
+    }
+
+    @Test
+    public void testRebuildKeepsTheEmailsAddedBeforeTheirInsertion() {
+        SubscriptionRepository repository = mock(SubscriptionRepository.class);
+        when(repository.streamAllEmails()).thenAnswer(invocation -> Stream.of("present@test.com"));
+
+        SubscriptionEmailFilter emailFilter = new SubscriptionEmailFilter(repository, //
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), true, 1_000, 0.01);
+        emailFilter.build();
+        Assertions.assertTrue(emailFilter.isDefinitelyAbsent("new@test.com"));
+
+        // Added before its insertion is committed, so the rebuild does not read it from the table
+        emailFilter.add("new@test.com");
+        emailFilter.build();
+
+        Assertions.assertTrue(emailFilter.isReady());
+        Assertions.assertFalse(emailFilter.isDefinitelyAbsent("present@test.com"));
+        Assertions.assertFalse(emailFilter.isDefinitelyAbsent("new@test.com"));
+    }
+
+}
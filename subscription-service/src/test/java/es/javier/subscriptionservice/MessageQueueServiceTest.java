@@ -0,0 +1,163 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.config.Jackson2CborMessageConverter;
+import es.javier.subscriptionservice.config.RabbitConfig;
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.service.MessageQueueService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.qpid.server.SystemLauncher;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.amqp.RabbitAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Publishes notifications to an embedded AMQP 0-9-1 broker (Qpid Broker-J), which confirms (or returns) them.
+ */
+public class MessageQueueServiceTest {
+
+    private static SystemLauncher broker;
+    private static ConfigurableApplicationContext context;
+
+    @Configuration
+    @ImportAutoConfiguration(RabbitAutoConfiguration.class)
+    @Import({RabbitConfig.class, MessageQueueService.class})
+    static class Publisher {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+    }
+
+    @BeforeAll
+    public static void startBrokerAndPublisher() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation", MessageQueueServiceTest.class.getClassLoader() //
+                .getResource("qpid-config.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", Map.of("qpid.amqp_port", String.valueOf(port), //
+                "qpid.work_dir", "target/qpid-publisher"));
+
+        broker = new SystemLauncher();
+        broker.startup(attributes);
+
+        // As arguments, so they take precedence over application.properties
+        context = new SpringApplicationBuilder(Publisher.class) //
+                .web(WebApplicationType.NONE) //
+                .run("--spring.rabbitmq.host=localhost", //
+                        "--spring.rabbitmq.port=" + port, //
+                        "--spring.rabbitmq.username=developer", //
+                        "--spring.rabbitmq.password=developer", //
+                        "--subscriptions.notifications.publish-attempts=2");
+    }
+
+    @AfterAll
+    public static void stop() {
+        context.close();
+        broker.shutdown();
+    }
+
+    @Test
+    public void testNotificationsAreConfirmed() {
+        MessageQueueService messageQueueService = context.getBean(MessageQueueService.class);
+        RabbitTemplate rabbitTemplate = context.getBean(RabbitTemplate.class);
+        MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+        String queue = context.getEnvironment().getProperty("spring.rabbitmq.queue");
+
+        List<Subscription> subscriptions = List.of(TestUtils.generateRandomSubscriptionWithMandatoryData(), //
+                TestUtils.generateRandomSubscriptionWithMandatoryData(), //
+                TestUtils.generateRandomSubscriptionWithMandatoryData());
+
+        Set<Long> confirmed = messageQueueService.publishAll(subscriptions);
+
+        Assertions.assertEquals(Set.of(subscriptions.get(0).getSubscriptionId(), subscriptions.get(1).getSubscriptionId(), //
+                subscriptions.get(2).getSubscriptionId()), confirmed);
+        // The latency is recorded by the callbacks of the confirms, which may run after the confirms are received
+        Timer confirms = meterRegistry.timer("subscriptions.notifications.confirms");
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (confirms.count() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        Assertions.assertEquals(3, confirms.count());
+
+        // Identified by the id of their subscription
+        Set<String> messageIds = new HashSet<>();
+
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Message message = rabbitTemplate.receive(queue, 5000);
+
+            Assertions.assertNotNull(message);
+            messageIds.add(message.getMessageProperties().getMessageId());
+        }
+
+        Assertions.assertEquals(Set.of(String.valueOf(subscriptions.get(0).getSubscriptionId()), //
+                String.valueOf(subscriptions.get(1).getSubscriptionId()), //
+                String.valueOf(subscriptions.get(2).getSubscriptionId())), messageIds);
+    }
+
+    @Test
+    public void testNotificationsInCbor() {
+        RabbitTemplate rabbitTemplate = context.getBean(RabbitTemplate.class);
+        MessageQueueService cbor = new MessageQueueService(rabbitTemplate, new SimpleMeterRegistry(), //
+                context.getEnvironment().getProperty("spring.rabbitmq.exchange"), //
+                context.getEnvironment().getProperty("spring.rabbitmq.routingkey"), 1, Duration.ofSeconds(5), //
+                Jackson2CborMessageConverter.CONTENT_TYPE_CBOR);
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        Assertions.assertTrue(cbor.send(subscription));
+
+        Message message = rabbitTemplate.receive(context.getEnvironment().getProperty("spring.rabbitmq.queue"), 5000);
+
+        Assertions.assertNotNull(message);
+        Assertions.assertEquals(Jackson2CborMessageConverter.CONTENT_TYPE_CBOR, //
+                message.getMessageProperties().getContentType());
+        Assertions.assertEquals(subscription, rabbitTemplate.getMessageConverter().fromMessage(message));
+    }
+
+    @Test
+    public void testUnroutableNotificationsAreNotConfirmed() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MessageQueueService unroutable = new MessageQueueService(context.getBean(RabbitTemplate.class), meterRegistry, //
+                context.getEnvironment().getProperty("spring.rabbitmq.exchange"), "unroutable", 2, Duration.ofSeconds(5), //
+                MessageProperties.CONTENT_TYPE_JSON);
+
+        Assertions.assertTrue(unroutable.publishAll(List.of(TestUtils.generateRandomSubscriptionWithMandatoryData())) //
+                .isEmpty());
+
+        // Rejected in every attempt: RabbitMQ returns the unroutable messages, Qpid nacks them
+        Assertions.assertEquals(2, meterRegistry.counter("subscriptions.notifications.returned").count() //
+                + meterRegistry.counter("subscriptions.notifications.nacked").count());
+    }
+
+}
@@ -0,0 +1,162 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.rest.ReactiveSubscriptionRestController;
+import es.javier.subscriptionservice.rest.SubscriptionControllerExceptionHandler;
+import es.javier.subscriptionservice.service.ReactiveSubscriptionService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReactiveSubscriptionRestControllerTest {
+
+    private final String rootEndpoint = "/rest/subscriptions";
+
+    @Mock
+    private ReactiveSubscriptionService subscriptionService;
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        webTestClient = WebTestClient.bindToController(new ReactiveSubscriptionRestController(subscriptionService)) //
+                .controllerAdvice(new SubscriptionControllerExceptionHandler()) //
+                .build();
+    }
+
+    @Test
+    public void testGetAllSubscriptions() {
+        SubscriptionResponseInformation pageResponse = TestUtils.generateResponseWithData(HttpStatus.OK, 3);
+
+        pageResponse.setPayload(HEADER_AMOUNT, "3");
+        pageResponse.setPayload(HEADER_NEXT_CURSOR, "9");
+        when(subscriptionService.findAllSubscriptions(2L, 6L, 3)).thenReturn(Mono.just(pageResponse));
+
+        SubscriptionResponseInformation response = webTestClient.get() //
+                .uri(rootEndpoint + "?newsletterId=2&after=6&limit=3") //
+                .exchange() //
+                .expectStatus().isOk() //
+                .expectHeader().valueEquals(HEADER_AMOUNT, "3") //
+                .expectHeader().valueEquals(HEADER_NEXT_CURSOR, "9") //
+                .expectBody(SubscriptionResponseInformation.class) //
+                .returnResult().getResponseBody();
+
+        Assertions.assertNotNull(response);
+        Assertions.assertEquals(pageResponse.getSubscriptionData(), response.getSubscriptionData());
+    }
+
+    @Test
+    public void testCountSubscriptions() {
+        SubscriptionResponseInformation countResponse = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .havingInThePayload(HEADER_AMOUNT, "42") //
+                .havingInThePayload(HEADER_AMOUNT_ESTIMATED, "false");
+
+        when(subscriptionService.countSubscriptions(2L, true)).thenReturn(Mono.just(countResponse));
+
+        webTestClient.head() //
+                .uri(rootEndpoint + "?newsletterId=2&consent=true") //
+                .exchange() //
+                .expectStatus().isOk() //
+                .expectHeader().valueEquals(HEADER_AMOUNT, "42") //
+                .expectHeader().valueEquals(HEADER_AMOUNT_ESTIMATED, "false") //
+                .expectBody().isEmpty();
+
+        webTestClient.get() //
+                .uri(rootEndpoint + "?countOnly=true&newsletterId=2&consent=true") //
+                .exchange() //
+                .expectStatus().isOk() //
+                .expectHeader().valueEquals(HEADER_AMOUNT, "42") //
+                .expectBody().jsonPath("$.payload['" + HEADER_AMOUNT + "']").isEqualTo("42");
+    }
+
+    @Test
+    public void testGetNonExistingSubscription() {
+        SubscriptionResponseInformation notFound = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.NOT_FOUND) //
+                .withSubscription(null) //
+                .withMessage("Entity of id: 5 was not found.") //
+                .havingInThePayload(HEADER_ID_FOUND, null);
+
+        when(subscriptionService.findSubscriptionById(5L)).thenReturn(Mono.just(notFound));
+
+        webTestClient.get() //
+                .uri(rootEndpoint + "/5") //
+                .exchange() //
+                .expectStatus().isNotFound() //
+                .expectHeader().valueEquals(HEADER_ID_FOUND, "null") //
+                .expectBody().jsonPath("$.code").isEqualTo("NOT_FOUND");
+    }
+
+    @Test
+    public void testCreateSubscription() throws Exception {
+        Subscription subscription = TestUtils.generateRandomSubscription("reactive@test.com");
+
+        SubscriptionResponseInformation created = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.CREATED) //
+                .withSubscription(subscription) //
+                .havingInThePayload(HEADER_ID_CREATED, subscription.getSubscriptionId().toString());
+
+        when(subscriptionService.createSubscription(any())).thenReturn(Mono.just(created));
+
+        webTestClient.post() //
+                .uri(rootEndpoint) //
+                .contentType(MediaType.APPLICATION_JSON) //
+                .bodyValue(TestUtils.asJsonString(subscription)) //
+                .exchange() //
+                .expectStatus().isCreated() //
+                .expectHeader().valueEquals(HEADER_ID_CREATED, subscription.getSubscriptionId().toString());
+    }
+
+    @Test
+    public void testCreateInvalidSubscription() throws Exception {
+        Subscription subscription = TestUtils.generateRandomSubscription("not an email");
+
+        webTestClient.post() //
+                .uri(rootEndpoint) //
+                .contentType(MediaType.APPLICATION_JSON) //
+                .bodyValue(TestUtils.asJsonString(subscription)) //
+                .exchange() //
+                .expectStatus().isBadRequest() //
+                .expectBody().jsonPath("$.message").isEqualTo("Validation error");
+
+        verify(subscriptionService, never()).createSubscription(any());
+    }
+
+    @Test
+    public void testExportSubscriptions() {
+        List<Subscription> subscriptions = List.of(TestUtils.generateRandomSubscription("first@test.com"), //
+                TestUtils.generateRandomSubscription("second@test.com"));
+
+        when(subscriptionService.exportSubscriptions()).thenReturn(Flux.fromIterable(subscriptions));
+
+        List<Subscription> exported = webTestClient.get() //
+                .uri(rootEndpoint + "/export") //
+                .accept(MediaType.APPLICATION_NDJSON) //
+                .exchange() //
+                .expectStatus().isOk() //
+                .expectHeader().contentType(MediaType.APPLICATION_NDJSON) //
+                .expectBodyList(Subscription.class) //
+                .returnResult().getResponseBody();
+
+        Assertions.assertEquals(subscriptions, exported);
+    }
+
+}
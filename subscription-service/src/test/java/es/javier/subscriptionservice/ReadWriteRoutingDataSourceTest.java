@@ -0,0 +1,132 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.datasource.ReadWriteRoutingDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+public class ReadWriteRoutingDataSourceTest {
+
+    @Mock
+    private DataSource primary;
+    @Mock
+    private DataSource replica0;
+    @Mock
+    private DataSource replica1;
+    @Mock
+    private Connection primaryConnection;
+    @Mock
+    private Connection replica0Connection;
+    @Mock
+    private Connection replica1Connection;
+
+    private ReadWriteRoutingDataSource routingDataSource;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica0.getConnection()).thenReturn(replica0Connection);
+        when(replica1.getConnection()).thenReturn(replica1Connection);
+        when(replica0Connection.isValid(anyInt())).thenReturn(true);
+        when(replica1Connection.isValid(anyInt())).thenReturn(true);
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-0", replica0);
+        replicas.put("replica-1", replica1);
+
+        routingDataSource = new ReadWriteRoutingDataSource(primary, replicas);
+        routingDataSource.afterPropertiesSet();
+    }
+
+    @AfterEach
+    public void clearTransaction() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    public void testWritesGoToThePrimary() throws SQLException {
+        Assertions.assertSame(primaryConnection, routingDataSource.getConnection());
+    }
+
+    @Test
+    public void testReadsAreSpreadAmongTheReplicas() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        Assertions.assertSame(replica0Connection, routingDataSource.getConnection());
+        Assertions.assertSame(replica1Connection, routingDataSource.getConnection());
+        Assertions.assertSame(replica0Connection, routingDataSource.getConnection());
+    }
+
+    @Test
+    public void testConnectionsWithCredentialsAreRoutedToo() throws SQLException {
+        when(primary.getConnection("user", "password")).thenReturn(primaryConnection);
+        when(replica0.getConnection("user", "password")).thenReturn(replica0Connection);
+        when(replica1.getConnection("user", "password")).thenThrow(new SQLException("Connection refused"));
+
+        Assertions.assertSame(primaryConnection, routingDataSource.getConnection("user", "password"));
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        Assertions.assertSame(replica0Connection, routingDataSource.getConnection("user", "password"));
+        Assertions.assertSame(primaryConnection, routingDataSource.getConnection("user", "password"));
+        Assertions.assertEquals(List.of("replica-0"), routingDataSource.getHealthyReplicas());
+    }
+
+    @Test
+    public void testReadYourWritesUsesThePrimary() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        Connection connection = ReadWriteRoutingDataSource.onPrimaryIf(true, () -> {
+            try {
+                return routingDataSource.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Assertions.assertSame(primaryConnection, connection);
+        Assertions.assertSame(replica0Connection, routingDataSource.getConnection());
+    }
+
+    @Test
+    public void testFailedReplicasAreSkippedUntilTheyRecover() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        when(replica0.getConnection()).thenThrow(new SQLException("Connection refused"));
+
+        // The failing replica falls back to the primary and is not used any more
+        Assertions.assertSame(primaryConnection, routingDataSource.getConnection());
+        Assertions.assertEquals(List.of("replica-1"), routingDataSource.getHealthyReplicas());
+        Assertions.assertSame(replica1Connection, routingDataSource.getConnection());
+        Assertions.assertSame(replica1Connection, routingDataSource.getConnection());
+
+        // Nothing healthy: everything goes to the primary
+        when(replica1Connection.isValid(anyInt())).thenReturn(false);
+        routingDataSource.checkReplicas();
+        Assertions.assertTrue(routingDataSource.getHealthyReplicas().isEmpty());
+        Assertions.assertSame(primaryConnection, routingDataSource.getConnection());
+
+        // Recovered
+        doReturn(replica0Connection).when(replica0).getConnection();
+        routingDataSource.checkReplicas();
+        Assertions.assertEquals(List.of("replica-0"), routingDataSource.getHealthyReplicas());
+        Assertions.assertSame(replica0Connection, routingDataSource.getConnection());
+    }
+
+}
@@ -0,0 +1,133 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.datasource.SqlStatistics;
+import es.javier.subscriptionservice.datasource.SqlStatisticsListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SqlStatisticsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SqlStatistics statistics = new SqlStatistics(meterRegistry, 3, Duration.ofMillis(100), 1.0, 2);
+
+    @Test
+    public void testStatementsAreGroupedByShape() {
+        statistics.recordExecution("select * from SUBSCRIPTIONS where EMAIL = 'a@test.com'", Duration.ofMillis(2), //
+                true, -1, () -> "");
+        statistics.recordExecution("select *\n  from SUBSCRIPTIONS where EMAIL = 'it''s@test.com'", Duration.ofMillis(4), //
+                true, -1, () -> "");
+        statistics.recordExecution("delete from SUBSCRIPTIONS where ID in (?, ?, ?)", Duration.ofMillis(1), true, 3, //
+                () -> "");
+        statistics.recordExecution("delete from SUBSCRIPTIONS where ID in (?,?)", Duration.ofMillis(1), false, 0, //
+                () -> "");
+
+        List<Map<String, Object>> shapes = statistics.getShapes();
+
+        Assertions.assertEquals(2, shapes.size());
+        Assertions.assertEquals("select * from SUBSCRIPTIONS where EMAIL = ?", shapes.get(0).get("statement"));
+        Assertions.assertEquals(2L, shapes.get(0).get("executions"));
+        Assertions.assertEquals(6.0, (double) shapes.get(0).get("totalTimeMs"), 0.001);
+        Assertions.assertEquals("delete from SUBSCRIPTIONS where ID in (?, ...)", shapes.get(1).get("statement"));
+        Assertions.assertEquals(1L, shapes.get(1).get("errors"));
+        Assertions.assertEquals(3L, shapes.get(1).get("rows"));
+    }
+
+    @Test
+    public void testShapesAreLimited() {
+        for (int i = 0; i < 5; i++) {
+            statistics.recordExecution("select COLUMN_" + i + " from SUBSCRIPTIONS", Duration.ofMillis(1), true, -1, //
+                    () -> "");
+        }
+
+        List<Map<String, Object>> shapes = statistics.getShapes();
+
+        Assertions.assertEquals(4, shapes.size());
+        Assertions.assertTrue(shapes.stream().anyMatch(shape -> "(other statements)".equals(shape.get("statement")) //
+                && Long.valueOf(2).equals(shape.get("executions"))));
+    }
+
+    @Test
+    public void testSlowStatementsAreKept() {
+        for (int i = 0; i < 3; i++) {
+            int id = i;
+            statistics.recordExecution("select * from SUBSCRIPTIONS where ID = ?", Duration.ofMillis(100 + i), true, //
+                    -1, () -> "[1=" + id + "]");
+        }
+        statistics.recordExecution("select * from SUBSCRIPTIONS where ID = ?", Duration.ofMillis(99), true, -1, //
+                () -> "[1=fast]");
+
+        List<Map<String, Object>> slowQueries = statistics.getSlowQueries();
+
+        Assertions.assertEquals(2, slowQueries.size());
+        Assertions.assertEquals(101L, slowQueries.get(0).get("timeMs"));
+        Assertions.assertEquals(102L, slowQueries.get(1).get("timeMs"));
+        // The parameters may contain personal data, so they are only logged
+        Assertions.assertFalse(slowQueries.get(1).containsKey("parameters"));
+
+        statistics.reset();
+
+        Assertions.assertTrue(statistics.getShapes().isEmpty());
+        Assertions.assertTrue(statistics.getSlowQueries().isEmpty());
+        Assertions.assertTrue(meterRegistry.find("subscriptions.sql.executions").timers().isEmpty());
+    }
+
+    @Test
+    public void testRowsReadThroughTheProxyAreCounted() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(statement.executeUpdate()).thenReturn(4);
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        when(resultSet.getStatement()).thenReturn(statement);
+
+        SqlStatisticsListener listener = new SqlStatisticsListener(statistics);
+        DataSource proxy = ProxyDataSourceBuilder.create(dataSource) //
+                .listener(listener) //
+                .methodListener(listener) //
+                .proxyResultSet() //
+                .build();
+
+        try (Connection proxyConnection = proxy.getConnection()) {
+            try (PreparedStatement query = proxyConnection.prepareStatement("select * from SUBSCRIPTIONS")) {
+                ResultSet rows = query.executeQuery();
+
+                while (rows.next()) {
+                    // Only counted
+                }
+            }
+
+            try (PreparedStatement update = proxyConnection.prepareStatement("update SUBSCRIPTIONS set CONSENT = ?")) {
+                update.setBoolean(1, true);
+                update.executeUpdate();
+            }
+        }
+
+        Map<String, Map<String, Object>> shapes = statistics.getShapes().stream() //
+                .collect(Collectors.toMap(shape -> (String) shape.get("statement"), shape -> shape));
+
+        Assertions.assertEquals(3L, shapes.get("select * from SUBSCRIPTIONS").get("rows"));
+        Assertions.assertEquals(4L, shapes.get("update SUBSCRIPTIONS set CONSENT = ?").get("rows"));
+    }
+
+}
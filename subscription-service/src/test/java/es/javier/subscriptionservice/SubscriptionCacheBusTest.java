@@ -0,0 +1,206 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.cache.SubscriptionCache;
+import es.javier.subscriptionservice.cache.SubscriptionCacheBus;
+import es.javier.subscriptionservice.cache.SubscriptionEmailFilter;
+import es.javier.subscriptionservice.cache.SubscriptionSecondLevelCache;
+import es.javier.subscriptionservice.config.RabbitConfig;
+import es.javier.subscriptionservice.datasource.ReadYourWritesTracker;
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionCacheEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.qpid.server.SystemLauncher;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.amqp.RabbitAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs two replicas of the cache invalidation bus against an embedded AMQP 0-9-1 broker (Qpid Broker-J).
+ */
+public class SubscriptionCacheBusTest {
+
+    private static SystemLauncher broker;
+    private static ConfigurableApplicationContext replicaA;
+    private static ConfigurableApplicationContext replicaB;
+
+    @Configuration
+    @ImportAutoConfiguration(RabbitAutoConfiguration.class)
+    @Import({RabbitConfig.class, SubscriptionCacheBus.class, ReadYourWritesTracker.class})
+    static class Replica {
+
+        @Bean
+        SubscriptionCache subscriptionCache() {
+            return new SubscriptionCache(100, Duration.ofMinutes(10), Duration.ofSeconds(30), new SimpleMeterRegistry());
+        }
+
+        @Bean
+        SubscriptionEmailFilter subscriptionEmailFilter() {
+            return mock(SubscriptionEmailFilter.class);
+        }
+
+        @Bean
+        SubscriptionSecondLevelCache subscriptionSecondLevelCache() {
+            return mock(SubscriptionSecondLevelCache.class);
+        }
+
+    }
+
+    @BeforeAll
+    public static void startBrokerAndReplicas() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation", SubscriptionCacheBusTest.class.getClassLoader() //
+                .getResource("qpid-config.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", Map.of("qpid.amqp_port", String.valueOf(port), //
+                "qpid.work_dir", "target/qpid"));
+
+        broker = new SystemLauncher();
+        broker.startup(attributes);
+
+        replicaA = startReplica(port);
+        replicaB = startReplica(port);
+    }
+
+    @AfterAll
+    public static void stop() {
+        replicaA.close();
+        replicaB.close();
+        broker.shutdown();
+    }
+
+    @Test
+    public void testEventsEvictTheOtherReplicas() throws Exception {
+        SubscriptionCache cacheA = replicaA.getBean(SubscriptionCache.class);
+        SubscriptionCache cacheB = replicaB.getBean(SubscriptionCache.class);
+        SubscriptionCacheBus busA = replicaA.getBean(SubscriptionCacheBus.class);
+        SubscriptionCacheBus busB = replicaB.getBean(SubscriptionCacheBus.class);
+
+        Subscription deleted = TestUtils.generateRandomSubscription("deleted@test.com");
+        Subscription created = TestUtils.generateRandomSubscription("created@test.com");
+
+        cacheA.put(deleted);
+        cacheB.put(deleted);
+        cacheA.put(created);
+
+        // A deletes: B evicts the subscription
+        busA.publishDeleted(deleted);
+        waitUntil(() -> cacheB.getIfPresentByEmail(deleted.getEmail()).isEmpty());
+        Assertions.assertTrue(replicaB.getBean(ReadYourWritesTracker.class).wasRecentlyWritten(deleted.getSubscriptionId()));
+        verify(replicaB.getBean(SubscriptionSecondLevelCache.class)).evict(List.of(deleted.getSubscriptionId()));
+
+        // B creates: A evicts whatever it had for the email, and adds it to its email filter
+        busB.publishCreated(List.of(created));
+        waitUntil(() -> cacheA.getIfPresentByEmail(created.getEmail()).isEmpty());
+        verify(replicaA.getBean(SubscriptionEmailFilter.class)).add(created.getEmail());
+        verify(replicaB.getBean(SubscriptionEmailFilter.class), never()).add(created.getEmail());
+
+        // The events are processed in order, so by now A has ignored its own event
+        Assertions.assertTrue(cacheA.getIfPresentByEmail(deleted.getEmail()).isPresent());
+    }
+
+    @Test
+    public void testEventsAreSentInTheBackground() throws Exception {
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        CountDownLatch brokerUnreachable = new CountDownLatch(1);
+        doAnswer(invocation -> brokerUnreachable.await(5, TimeUnit.SECONDS)).when(rabbitTemplate) //
+                .convertAndSend(anyString(), anyString(), any(Object.class));
+
+        SubscriptionCacheBus bus = new SubscriptionCacheBus(1);
+        ReflectionTestUtils.setField(bus, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(bus, "exchange", "exchange");
+
+        long start = System.nanoTime();
+
+        // One being sent, one pending and one dropped
+        for (int i = 0; i < 3; i++) {
+            bus.publishDeleted(TestUtils.generateRandomSubscription("deleted" + i + "@test.com"));
+        }
+
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        brokerUnreachable.countDown();
+        bus.shutdown();
+
+        // The dropped one is notified as missed, before the next event is sent
+        ArgumentCaptor<SubscriptionCacheEvent> sent = ArgumentCaptor.forClass(SubscriptionCacheEvent.class);
+        verify(rabbitTemplate, times(3)).convertAndSend(anyString(), anyString(), sent.capture());
+        Assertions.assertEquals(Map.of(SubscriptionCacheEvent.Type.DELETED, 2L, SubscriptionCacheEvent.Type.MISSED, 1L), //
+                sent.getAllValues().stream() //
+                        .collect(Collectors.groupingBy(SubscriptionCacheEvent::getType, Collectors.counting())));
+    }
+
+    @Test
+    public void testReplicasClearTheirCachesIfEventsWereMissed() throws Exception {
+        SubscriptionCache cacheB = replicaB.getBean(SubscriptionCache.class);
+        SubscriptionEmailFilter emailFilterB = replicaB.getBean(SubscriptionEmailFilter.class);
+        SubscriptionCacheBus busA = replicaA.getBean(SubscriptionCacheBus.class);
+        Subscription cached = TestUtils.generateRandomSubscription("cached@test.com");
+
+        cacheB.put(cached);
+        clearInvocations(emailFilterB);
+
+        // A could not send some events: B cannot know which emails it missed, so it rebuilds its email filter
+        ((AtomicBoolean) ReflectionTestUtils.getField(busA, "eventsMissed")).set(true);
+        busA.publishDeleted(TestUtils.generateRandomSubscription("other@test.com"));
+
+        waitUntil(() -> cacheB.getIfPresentByEmail(cached.getEmail()).isEmpty());
+        verify(emailFilterB).rebuildIfBuilt();
+    }
+
+    private static ConfigurableApplicationContext startReplica(int port) {
+        // As arguments, so they take precedence over application.properties
+        return new SpringApplicationBuilder(Replica.class) //
+                .web(WebApplicationType.NONE) //
+                .run("--spring.rabbitmq.host=localhost", //
+                        "--spring.rabbitmq.port=" + port, //
+                        "--spring.rabbitmq.username=developer", //
+                        "--spring.rabbitmq.password=developer");
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+
+}
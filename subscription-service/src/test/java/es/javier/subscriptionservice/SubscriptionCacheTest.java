@@ -0,0 +1,110 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.cache.SubscriptionCache;
+import es.javier.subscriptionservice.model.Subscription;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class SubscriptionCacheTest {
+
+    private final SubscriptionCache cache = new SubscriptionCache(100, Duration.ofMinutes(10), Duration.ofSeconds(30), //
+            new SimpleMeterRegistry());
+
+    @Test
+    public void testConcurrentLookupsLoadOnce() throws Exception {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        Function<Long, Optional<Subscription>> loader = id -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            awaitQuietly(release);
+
+            return Optional.of(subscription);
+        };
+
+        CompletableFuture<Optional<Subscription>> first = CompletableFuture.supplyAsync(() -> cache.getById(1L, loader));
+        Assertions.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Optional<Subscription>> second = CompletableFuture.supplyAsync(() -> cache.getById(1L, loader));
+
+        // A lookup in progress is not reported as cached, nor does it block the other lookups
+        Assertions.assertEquals(Optional.empty(), cache.getIfPresentById(1L));
+        Assertions.assertFalse(second.isDone());
+
+        release.countDown();
+
+        Assertions.assertEquals(Optional.of(subscription), first.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Optional.of(subscription), second.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(Optional.of(subscription), cache.getIfPresentById(1L));
+
+        // Only the key of the lookup is filled
+        Assertions.assertEquals(Optional.empty(), cache.getIfPresentByEmail(subscription.getEmail()));
+    }
+
+    @Test
+    public void testFailedLookupIsNotCached() {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> cache.getByEmail(subscription.getEmail(), email -> {
+            throw new IllegalStateException("Database not available");
+        }));
+
+        Assertions.assertEquals(Optional.of(subscription), //
+                cache.getByEmail(subscription.getEmail(), email -> Optional.of(subscription)));
+    }
+
+    @Test
+    public void testLookupFailedWithAnErrorDoesNotBlockTheKey() throws Exception {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Optional<Subscription>> failed = CompletableFuture.supplyAsync(() -> cache.getById(1L, id -> {
+            loading.countDown();
+            awaitQuietly(release);
+
+            throw new AssertionError("Unexpected row");
+        }));
+        Assertions.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Optional<Subscription>> waiting = CompletableFuture.supplyAsync(() -> cache.getById(1L, //
+                id -> Optional.of(subscription)));
+        release.countDown();
+
+        // The lookup waiting for the failed one fails too, instead of blocking forever
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof AssertionError);
+
+        try {
+            Assertions.assertEquals(Optional.of(subscription), waiting.get(5, TimeUnit.SECONDS));
+        } catch (ExecutionException ignored) {
+            // It joined the failed lookup instead of starting its own
+        }
+
+        Assertions.assertEquals(Optional.of(subscription), CompletableFuture.supplyAsync(() -> cache.getById(1L, //
+                id -> Optional.of(subscription))).get(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.model.SubscriptionDeletionJob;
+import es.javier.subscriptionservice.model.SubscriptionDeletionResponseInformation;
+import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import es.javier.subscriptionservice.service.SubscriptionDeletionJobService;
+import es.javier.subscriptionservice.service.SubscriptionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.HEADER_DELETION_JOB;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SubscriptionDeletionJobServiceTest {
+
+    private final SubscriptionService subscriptionService = mock(SubscriptionService.class);
+
+    private final SubscriptionRepository repository = mock(SubscriptionRepository.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SubscriptionDeletionJobService deletionJobService = new SubscriptionDeletionJobService( //
+            subscriptionService, repository, meterRegistry, 2, Duration.ZERO, 1, Duration.ofMinutes(1));
+
+    @AfterEach
+    public void shutdown() {
+        deletionJobService.shutdown();
+    }
+
+    @Test
+    public void testNewsletterIsDeletedInChunks() throws Exception {
+        CountDownLatch firstChunk = new CountDownLatch(1);
+
+        when(repository.countSubscriptions(1L, null)).thenReturn(5L);
+        when(subscriptionService.deleteSubscriptionChunkOfNewsletter(1L, 2)).thenAnswer(invocation -> {
+            firstChunk.await(5, TimeUnit.SECONDS);
+            return 2;
+        }).thenReturn(2, 1);
+
+        SubscriptionResponseInformation started = deletionJobService.startNewsletterDeletion(1L);
+        SubscriptionDeletionJob job = ((SubscriptionDeletionResponseInformation) started).getDeletionJob();
+
+        Assertions.assertEquals(HttpStatus.ACCEPTED, started.getCode());
+        Assertions.assertEquals(5, job.getExpectedAmount());
+        Assertions.assertEquals(job.getJobId(), started.getPayload().get(HEADER_DELETION_JOB));
+
+        // The newsletter is already being deleted, so no other job is started
+        SubscriptionResponseInformation repeated = deletionJobService.startNewsletterDeletion(1L);
+
+        Assertions.assertEquals(HttpStatus.ACCEPTED, repeated.getCode());
+        Assertions.assertSame(job, ((SubscriptionDeletionResponseInformation) repeated).getDeletionJob());
+
+        firstChunk.countDown();
+
+        // The last chunk is not full, so there is nothing else to delete
+        verify(subscriptionService, timeout(5000).times(3)).deleteSubscriptionChunkOfNewsletter(1L, 2);
+        awaitFinished(job);
+
+        Assertions.assertEquals(SubscriptionDeletionJob.State.COMPLETED, job.getState());
+        Assertions.assertEquals(5, job.getDeletedAmount());
+        Assertions.assertEquals(3, job.getChunks());
+        Assertions.assertEquals(5, meterRegistry.counter("subscriptions.deletion.deleted").count());
+        Assertions.assertEquals(3, meterRegistry.timer("subscriptions.deletion.chunks").count());
+
+        SubscriptionResponseInformation found = deletionJobService.findDeletionJob(job.getJobId());
+
+        Assertions.assertEquals(HttpStatus.OK, found.getCode());
+        Assertions.assertSame(job, ((SubscriptionDeletionResponseInformation) found).getDeletionJob());
+
+        // Once finished, the newsletter can be deleted again
+        when(subscriptionService.deleteSubscriptionChunkOfNewsletter(1L, 2)).thenReturn(0);
+
+        SubscriptionDeletionJob nextJob = ((SubscriptionDeletionResponseInformation) deletionJobService //
+                .startNewsletterDeletion(1L)).getDeletionJob();
+
+        Assertions.assertNotEquals(job.getJobId(), nextJob.getJobId());
+        awaitFinished(nextJob);
+        verify(subscriptionService, times(4)).deleteSubscriptionChunkOfNewsletter(1L, 2);
+    }
+
+    @Test
+    public void testFailedDeletion() throws Exception {
+        when(subscriptionService.deleteSubscriptionChunkOfNewsletter(2L, 2)).thenReturn(2) //
+                .thenThrow(new IllegalStateException("Database unavailable"));
+
+        SubscriptionDeletionJob job = ((SubscriptionDeletionResponseInformation) deletionJobService //
+                .startNewsletterDeletion(2L)).getDeletionJob();
+
+        awaitFinished(job);
+
+        Assertions.assertEquals(SubscriptionDeletionJob.State.FAILED, job.getState());
+        Assertions.assertEquals(2, job.getDeletedAmount());
+        Assertions.assertTrue(job.getMessage().contains("Database unavailable"));
+    }
+
+    @Test
+    public void testInvalidRequests() {
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, deletionJobService.startNewsletterDeletion(null).getCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, deletionJobService.findDeletionJob("unknown").getCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, deletionJobService.findDeletionJob(null).getCode());
+    }
+
+    private static void awaitFinished(SubscriptionDeletionJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertTrue(job.isFinished());
+    }
+
+}
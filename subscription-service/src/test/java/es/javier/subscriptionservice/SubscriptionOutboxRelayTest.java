@@ -0,0 +1,190 @@
+package es.javier.subscriptionservice;
+
+import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.repository.SubscriptionOutboxRepository;
+import es.javier.subscriptionservice.repository.SubscriptionRepository;
+import es.javier.subscriptionservice.service.MessageQueueService;
+import es.javier.subscriptionservice.service.SubscriptionOutboxRelay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SubscriptionOutboxRelayTest {
+
+    private static final Duration CLAIM_TIMEOUT = Duration.ofMinutes(1);
+
+    private final SubscriptionOutboxRepository outboxRepository = mock(SubscriptionOutboxRepository.class);
+
+    private final SubscriptionRepository repository = mock(SubscriptionRepository.class);
+
+    private final MessageQueueService messageQueueService = mock(MessageQueueService.class);
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    private final ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SubscriptionOutboxRelay relay = new SubscriptionOutboxRelay(outboxRepository, repository, //
+            messageQueueService, transactionManager, connectionFactory, meterRegistry, 2, Duration.ofDays(1), //
+            60000, Duration.ofMinutes(5), CLAIM_TIMEOUT);
+
+    @Test
+    public void testPendingNotificationsArePublishedInBatches() {
+        Subscription first = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription second = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription third = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Long deletedId = TestUtils.id++;
+
+        when(outboxRepository.claimPending(2, CLAIM_TIMEOUT)) //
+                .thenReturn(pending(10L, second.getSubscriptionId(), 11L, first.getSubscriptionId())) //
+                .thenReturn(pending(12L, deletedId, 13L, third.getSubscriptionId())) //
+                .thenReturn(Map.of());
+        when(repository.findAllById(any())) //
+                .thenReturn(List.of(first, second)) //
+                .thenReturn(List.of(third));
+        // Not in the primary either
+        doReturn(List.of()).when(repository).findAllById(List.of(deletedId));
+        when(messageQueueService.publishAll(any())).thenAnswer(invocation -> confirmAll(invocation.getArgument(0)));
+
+        Assertions.assertEquals(4, relay.relayPending());
+
+        // In the order they were enqueued, every batch marked as sent in its own transaction
+        verify(messageQueueService).publishAll(List.of(second, first));
+        verify(outboxRepository).markSent(List.of(10L, 11L));
+        verify(messageQueueService).publishAll(List.of(third));
+        verify(outboxRepository).markSent(List.of(12L, 13L));
+        verify(transactionManager, times(2)).commit(any());
+        verify(repository).findAllById(List.of(deletedId));
+
+        Assertions.assertEquals(3, meterRegistry.counter("subscriptions.outbox.published").count());
+        Assertions.assertEquals(1, meterRegistry.counter("subscriptions.outbox.discarded").count());
+    }
+
+    @Test
+    public void testSubscriptionsNotReplicatedYetAreNotDiscarded() {
+        Subscription replicated = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription created = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        when(outboxRepository.claimPending(2, CLAIM_TIMEOUT)) //
+                .thenReturn(pending(50L, replicated.getSubscriptionId(), 51L, created.getSubscriptionId()));
+        // The replica has not received the new subscription yet, the primary has
+        when(repository.findAllById(any())).thenReturn(List.of(replicated));
+        doReturn(List.of(created)).when(repository).findAllById(List.of(created.getSubscriptionId()));
+        when(messageQueueService.publishAll(any())).thenReturn(Set.of(replicated.getSubscriptionId()));
+
+        relay.relayPending();
+
+        // Published, and pending until the broker confirms it
+        verify(messageQueueService).publishAll(List.of(replicated, created));
+        verify(outboxRepository).markSent(List.of(50L));
+        verify(outboxRepository).release(List.of(51L));
+        Assertions.assertEquals(0, meterRegistry.counter("subscriptions.outbox.discarded").count());
+    }
+
+    @Test
+    public void testNotificationsNotConfirmedStayPending() {
+        Subscription confirmed = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription nacked = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        when(outboxRepository.claimPending(2, CLAIM_TIMEOUT)) //
+                .thenReturn(pending(30L, confirmed.getSubscriptionId(), 31L, nacked.getSubscriptionId()));
+        when(repository.findAllById(any())).thenReturn(List.of(confirmed, nacked));
+        when(messageQueueService.publishAll(any())).thenReturn(Set.of(confirmed.getSubscriptionId()));
+        when(outboxRepository.countPending()).thenReturn(1L);
+
+        // The batch was not published completely, so the relay waits for the next poll
+        Assertions.assertEquals(1, relay.relayPending());
+
+        verify(outboxRepository).markSent(List.of(30L));
+        verify(outboxRepository).release(List.of(31L));
+        verify(outboxRepository).claimPending(2, CLAIM_TIMEOUT);
+        Assertions.assertEquals(1, meterRegistry.counter("subscriptions.outbox.failed").count());
+        Assertions.assertEquals(1, meterRegistry.get("subscriptions.outbox.pending").gauge().value());
+    }
+
+    @Test
+    public void testNotificationsAreKeptIfTheBrokerFails() {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        when(outboxRepository.claimPending(2, CLAIM_TIMEOUT)).thenReturn(pending(20L, subscription.getSubscriptionId()));
+        when(repository.findAllById(any())).thenReturn(List.of(subscription));
+        when(messageQueueService.publishAll(List.of(subscription))) //
+                .thenThrow(new AmqpConnectException(new ConnectException("Connection refused")));
+
+        Assertions.assertEquals(0, relay.relayPending());
+
+        // Released, so they are published in the next poll
+        verify(outboxRepository, never()).markSent(any());
+        verify(outboxRepository).release(Set.of(20L));
+        verify(transactionManager, never()).commit(any());
+        Assertions.assertEquals(1, meterRegistry.counter("subscriptions.outbox.failed").count());
+    }
+
+    @Test
+    public void testRelayBacksOffUntilTheBrokerIsReachable() {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        ArgumentCaptor<ConnectionListener> listener = ArgumentCaptor.forClass(ConnectionListener.class);
+        relay.drainOnConnection();
+        verify(connectionFactory).addConnectionListener(listener.capture());
+
+        when(outboxRepository.claimPending(2, CLAIM_TIMEOUT)).thenReturn(pending(40L, subscription.getSubscriptionId()));
+        when(repository.findAllById(any())).thenReturn(List.of(subscription));
+        when(messageQueueService.publishAll(List.of(subscription))) //
+                .thenThrow(new AmqpConnectException(new ConnectException("Connection refused"))) //
+                .thenAnswer(invocation -> confirmAll(invocation.getArgument(0)));
+        when(outboxRepository.countPending()).thenReturn(1L);
+
+        Assertions.assertEquals(0, relay.relayPending());
+
+        // Backing off: the broker is not tried again
+        Assertions.assertEquals(0, relay.relayPending());
+        verify(messageQueueService, times(1)).publishAll(any());
+        Assertions.assertEquals(1, meterRegistry.get("subscriptions.outbox.pending").gauge().value());
+
+        // Until the connection is established again
+        listener.getValue().onCreate(mock(Connection.class));
+
+        Assertions.assertEquals(1, relay.relayPending());
+        verify(outboxRepository).markSent(List.of(40L));
+        Assertions.assertEquals(1, meterRegistry.counter("subscriptions.outbox.failed").count());
+    }
+
+    private static Set<Long> confirmAll(List<Subscription> subscriptions) {
+        return subscriptions.stream().map(Subscription::getSubscriptionId).collect(Collectors.toSet());
+    }
+
+    private static Map<Long, Long> pending(Long... outboxAndSubscriptionIds) {
+        Map<Long, Long> pending = new LinkedHashMap<>();
+
+        for (int i = 0; i < outboxAndSubscriptionIds.length; i += 2) {
+            pending.put(outboxAndSubscriptionIds[i], outboxAndSubscriptionIds[i + 1]);
+        }
+
+        return pending;
+    }
+
+}
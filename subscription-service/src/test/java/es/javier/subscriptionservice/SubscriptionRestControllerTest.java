@@ -2,9 +2,11 @@ package es.javier.subscriptionservice;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionDeletionJob;
+import es.javier.subscriptionservice.model.SubscriptionDeletionResponseInformation;
 import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
 import es.javier.subscriptionservice.rest.SubscriptionRestController;
-import es.javier.subscriptionservice.service.MessageQueueService;
+import es.javier.subscriptionservice.service.SubscriptionDeletionJobService;
 import es.javier.subscriptionservice.service.SubscriptionService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -19,8 +21,18 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 public class SubscriptionRestControllerTest {
@@ -32,7 +44,7 @@ public class SubscriptionRestControllerTest {
     @Mock
     private SubscriptionService subscriptionService;
     @Mock
-    private MessageQueueService messageQueueService;
+    private SubscriptionDeletionJobService deletionJobService;
     private MockMvc mockMvc;
 
     @BeforeEach
@@ -50,11 +62,16 @@ public class SubscriptionRestControllerTest {
                 HttpStatus.OK, 3);
 
         emptyResponse.setPayload(HEADER_AMOUNT, "3");
-        when(subscriptionService.findAllSubscriptions()).thenReturn(emptyResponse);
+        emptyResponse.setPayload(HEADER_NEXT_CURSOR, "9");
+        when(subscriptionService.findAllSubscriptions(2L, 6L, 3)).thenReturn(emptyResponse);
 
-        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint))
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint) //
+                .param("newsletterId", "2") //
+                .param("after", "6") //
+                .param("limit", "3"))
                 .andExpect(status().isOk())
                 .andExpect(header().string(HEADER_AMOUNT, "3"))
+                .andExpect(header().string(HEADER_NEXT_CURSOR, "9"))
                 .andExpect(content().contentType("application/json"))
                 .andReturn();
 
@@ -70,6 +87,36 @@ public class SubscriptionRestControllerTest {
         }
     }
 
+    @Test
+    public void testCountSubscriptions() throws Exception {
+        SubscriptionResponseInformation countResponse = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .havingInThePayload(HEADER_AMOUNT, "42") //
+                .havingInThePayload(HEADER_AMOUNT_ESTIMATED, "false");
+
+        when(subscriptionService.countSubscriptions(2L, true)).thenReturn(countResponse);
+
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.head(rootEndpoint) //
+                .param("newsletterId", "2") //
+                .param("consent", "true"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HEADER_AMOUNT, "42"))
+                .andExpect(header().string(HEADER_AMOUNT_ESTIMATED, "false"))
+                .andReturn();
+
+        Assertions.assertEquals(0, rt.getResponse().getContentLength());
+
+        mockMvc.perform(MockMvcRequestBuilders.get(rootEndpoint) //
+                .param("countOnly", "true") //
+                .param("newsletterId", "2") //
+                .param("consent", "true"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HEADER_AMOUNT, "42"))
+                .andExpect(jsonPath("$.subscriptionData").doesNotExist());
+
+        verify(subscriptionService, never()).findAllSubscriptions(any(), any(), any());
+    }
+
     @Test
     public void testGetAllNoSubscriptions() throws Exception {
         String endpoint = rootEndpoint;
@@ -78,11 +125,12 @@ public class SubscriptionRestControllerTest {
                 HttpStatus.NOT_FOUND, 0);
 
         emptyResponse.setPayload(HEADER_AMOUNT, "0");
-        when(subscriptionService.findAllSubscriptions()).thenReturn(emptyResponse);
+        when(subscriptionService.findAllSubscriptions(null, null, null)).thenReturn(emptyResponse);
 
         MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint))
                 .andExpect(status().isNotFound())
                 .andExpect(header().string(HEADER_AMOUNT, "0"))
+                .andExpect(header().doesNotExist(HEADER_NEXT_CURSOR))
                 .andExpect(content().contentType("application/json"))
                 .andReturn();
 
@@ -95,6 +143,27 @@ public class SubscriptionRestControllerTest {
         }
     }
 
+    @Test
+    public void testExport() throws Exception {
+        String endpoint = rootEndpoint.concat("/export");
+
+        String line = TestUtils.asJsonString(TestUtils.generateRandomSubscriptionWithMandatoryData()) + "\n";
+
+        when(subscriptionService.exportSubscriptions(any(OutputStream.class))).thenAnswer(invocation -> {
+            invocation.getArgument(0, OutputStream.class).write(line.getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        });
+
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.get(endpoint))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(rt))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(line));
+    }
+
     @Test
     public void testGet() throws Exception {
         String endpoint = rootEndpoint.concat("/{id}");
@@ -128,6 +197,28 @@ public class SubscriptionRestControllerTest {
         }
     }
 
+    @Test
+    public void testGetProjection() throws Exception {
+        String endpoint = rootEndpoint.concat("/{id}");
+
+        SubscriptionResponseInformation projectedResponse = SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.OK) //
+                .withProjectedData(List.of(Map.of("email", "a@test.com"))) //
+                .havingInThePayload(HEADER_ID_FOUND, "5");
+
+        when(subscriptionService.findSubscriptionProjectionById(List.of("email", "newsletterId"), 5L)) //
+                .thenReturn(projectedResponse);
+
+        mockMvc.perform(MockMvcRequestBuilders.get(endpoint, "5") //
+                .param("fields", "email,newsletterId"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HEADER_ID_FOUND, "5"))
+                .andExpect(jsonPath("$.projectedData[0].email").value("a@test.com"))
+                .andExpect(jsonPath("$.subscriptionData").isEmpty());
+
+        verify(subscriptionService, never()).findSubscriptionById(any());
+    }
+
     @Test
     public void testGetNotFound() throws Exception {
         String endpoint = rootEndpoint.concat("/{id}");
@@ -282,6 +373,37 @@ public class SubscriptionRestControllerTest {
         }
     }
 
+    @Test
+    public void testPostBatch() throws Exception {
+        String endpoint = rootEndpoint.concat("/batch");
+
+        SubscriptionResponseInformation createdResponse = TestUtils.generateResponseWithData( //
+                HttpStatus.CREATED, 2);
+
+        createdResponse.setPayload(HEADER_CREATED_AMOUNT, "2");
+        createdResponse.setPayload(HEADER_AMOUNT, "1");
+        createdResponse.setPayload(HEADER_INVALID_AMOUNT, "0");
+
+        List<Subscription> sent = new ArrayList<>(createdResponse.getSubscriptionData());
+        sent.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+
+        when(subscriptionService.createSubscriptions(sent)).thenReturn(createdResponse);
+
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.post(endpoint)
+                .content(TestUtils.asJsonString(sent))
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(header().string(HEADER_CREATED_AMOUNT, "2"))
+                .andExpect(header().string(HEADER_AMOUNT, "1"))
+                .andExpect(header().string(HEADER_INVALID_AMOUNT, "0"))
+                .andReturn();
+
+        SubscriptionResponseInformation response = TestUtils.extractResponseFromMockMvcResult(rt);
+
+        Assertions.assertEquals(2, response.getSubscriptionData().size());
+    }
+
     @Test
     public void testDeleteOk() throws Exception {
         String endpoint = rootEndpoint.concat("/{id}");
@@ -335,4 +457,50 @@ public class SubscriptionRestControllerTest {
         }
     }
 
+
+    @Test
+    public void testDeleteByIds() throws Exception {
+        SubscriptionResponseInformation deletedResponse = TestUtils.generateResponseWithData(HttpStatus.OK, 2);
+        deletedResponse.setPayload(HEADER_DELETED_AMOUNT, "2");
+
+        when(subscriptionService.deleteSubscriptionsByIds(List.of(4L, 5L, 6L))).thenReturn(deletedResponse);
+
+        MvcResult rt = mockMvc.perform(MockMvcRequestBuilders.delete(rootEndpoint).param("ids", "4,5,6"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HEADER_DELETED_AMOUNT, "2"))
+                .andReturn();
+
+        Assertions.assertEquals(2, TestUtils.extractResponseFromMockMvcResult(rt).getSubscriptionData().size());
+        verify(deletionJobService, never()).startNewsletterDeletion(any());
+    }
+
+    @Test
+    public void testDeleteByNewsletter() throws Exception {
+        SubscriptionDeletionJob job = new SubscriptionDeletionJob("job-1", 3L, 10);
+        SubscriptionResponseInformation startedResponse = SubscriptionDeletionResponseInformation.deletionBuilder() //
+                .withDeletionJob(job) //
+                .withCode(HttpStatus.ACCEPTED) //
+                .havingInThePayload(HEADER_DELETION_JOB, job.getJobId()) //
+                .havingInThePayload(HEADER_DELETED_AMOUNT, "0");
+
+        when(deletionJobService.startNewsletterDeletion(3L)).thenReturn(startedResponse);
+
+        mockMvc.perform(MockMvcRequestBuilders.delete(rootEndpoint).param("newsletterId", "3"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HEADER_DELETION_JOB, "job-1"))
+                .andExpect(header().string("Location", "http://localhost/rest/subscriptions/deletions/job-1"))
+                .andExpect(jsonPath("$.deletionJob.state").value("QUEUED"))
+                .andExpect(jsonPath("$.deletionJob.expectedAmount").value(10));
+
+        when(deletionJobService.findDeletionJob("job-1")).thenReturn(startedResponse.withCode(HttpStatus.OK));
+        when(deletionJobService.findDeletionJob("job-2")).thenReturn(SubscriptionResponseInformation.builder() //
+                .withCode(HttpStatus.NOT_FOUND));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(rootEndpoint + "/deletions/job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deletionJob.jobId").value("job-1"));
+        mockMvc.perform(MockMvcRequestBuilders.get(rootEndpoint + "/deletions/job-2"))
+                .andExpect(status().isNotFound());
+    }
+
 }
\ No newline at end of file
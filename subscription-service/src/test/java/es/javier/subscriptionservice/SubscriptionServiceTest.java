@@ -1,24 +1,49 @@
 package es.javier.subscriptionservice;
 
+import es.javier.subscriptionservice.cache.SubscriptionCache;
+import es.javier.subscriptionservice.cache.SubscriptionCacheBus;
+import es.javier.subscriptionservice.cache.SubscriptionEmailFilter;
+import es.javier.subscriptionservice.datasource.ReadYourWritesTracker;
 import es.javier.subscriptionservice.model.Subscription;
+import es.javier.subscriptionservice.model.SubscriptionBatchItemResult;
+import es.javier.subscriptionservice.model.SubscriptionBatchResponseInformation;
 import es.javier.subscriptionservice.model.SubscriptionResponseInformation;
+import es.javier.subscriptionservice.repository.SubscriptionOutboxRepository;
 import es.javier.subscriptionservice.repository.SubscriptionRepository;
 import es.javier.subscriptionservice.service.SubscriptionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
-
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static es.javier.subscriptionservice.model.SubscriptionResponseInformation.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class SubscriptionServiceTest {
@@ -29,22 +54,57 @@ public class SubscriptionServiceTest {
     @Mock
     private SubscriptionRepository mockRepository;
 
+    @Mock
+    private SubscriptionOutboxRepository mockOutboxRepository;
+
+    @Mock
+    private EntityManager mockEntityManager;
+
+    @Mock
+    private SubscriptionCacheBus mockCacheBus;
+
+    @Mock
+    private SubscriptionEmailFilter mockEmailFilter;
+
+    @Spy
+    private ReadYourWritesTracker readYourWrites = new ReadYourWritesTracker(Duration.ofSeconds(5));
+
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private SubscriptionCache cache = new SubscriptionCache(100, Duration.ofMinutes(10), Duration.ofSeconds(30), //
+            meterRegistry);
+
     @BeforeEach
     public void setup() {
         MockitoAnnotations.initMocks(this);
+
+        // Properties won't be read in a test
+        ReflectionTestUtils.setField(subscriptionService, "defaultPageSize", 2);
+        ReflectionTestUtils.setField(subscriptionService, "maxPageSize", 3);
+        ReflectionTestUtils.setField(subscriptionService, "exportFlushSize", 2);
+        ReflectionTestUtils.setField(subscriptionService, "maxBatchSize", 5);
+        ReflectionTestUtils.setField(subscriptionService, "deleteChunkSize", 2);
+        ReflectionTestUtils.setField(subscriptionService, "countEstimateThreshold", 1000L);
+        ReflectionTestUtils.setField(subscriptionService, "countEstimateTtl", Duration.ofMinutes(1));
     }
 
     @Test
     public void testGetAllWhenEmpty() {
         List<Subscription> emptySubscriptions = Collections.emptyList();
 
-        when(mockRepository.findAll()).thenReturn(emptySubscriptions);
+        when(mockRepository.findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(any(), any())) //
+                .thenReturn(emptySubscriptions);
 
-        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions();
+        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions(null, null, null);
 
         Assertions.assertEquals(HttpStatus.NOT_FOUND, response.getCode());
         Assertions.assertEquals(0, response.getSubscriptionData().size(), 0);
         Assertions.assertEquals("0", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertNull(response.getPayload().get(HEADER_NEXT_CURSOR));
     }
 
     @Test
@@ -55,13 +115,176 @@ public class SubscriptionServiceTest {
         subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
         subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
 
-        when(mockRepository.findAll()).thenReturn(subscriptions);
+        when(mockRepository.findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(0L, PageRequest.of(0, 4))) //
+                .thenReturn(subscriptions);
 
-        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions();
+        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions(null, null, 3);
 
         Assertions.assertEquals(HttpStatus.OK, response.getCode());
         Assertions.assertEquals(3, response.getSubscriptionData().size(), 3);
         Assertions.assertEquals("3", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertNull(response.getPayload().get(HEADER_NEXT_CURSOR));
+    }
+
+    @Test
+    public void testGetAllWithMorePages() {
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+
+        Long cursor = 7L;
+
+        // No limit means default page size (2), so 3 elements are requested to know if there is another page
+        when(mockRepository.findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(cursor, PageRequest.of(0, 3))) //
+                .thenReturn(subscriptions);
+
+        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions(null, cursor, null);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertEquals(2, response.getSubscriptionData().size());
+        Assertions.assertEquals("2", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals(subscriptions.get(1).getSubscriptionId().toString(), //
+                response.getPayload().get(HEADER_NEXT_CURSOR));
+    }
+
+    @Test
+    public void testGetAllOfNewsletter() {
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+
+        when(mockRepository.findByNewsletterIdAndSubscriptionIdGreaterThanOrderBySubscriptionIdAsc(1L, 0L, //
+                PageRequest.of(0, 3))).thenReturn(subscriptions);
+
+        SubscriptionResponseInformation response = subscriptionService.findAllSubscriptions(1L, null, null);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertEquals(1, response.getSubscriptionData().size());
+        Assertions.assertNull(response.getPayload().get(HEADER_NEXT_CURSOR));
+        verify(mockRepository, never()).findBySubscriptionIdGreaterThanOrderBySubscriptionIdAsc(any(), any());
+    }
+
+    @Test
+    public void testGetAllProjections() {
+        List<Map<String, Object>> projections = new ArrayList<>();
+
+        for (long id = 1; id <= 3; id++) {
+            Map<String, Object> projection = new LinkedHashMap<>();
+            projection.put("email", id + "@test.com");
+            projection.put("subscriptionId", id);
+            projections.add(projection);
+        }
+
+        // The id is selected to get the next cursor, even if it was not requested
+        when(mockRepository.findProjectedPage(List.of("email", "subscriptionId"), 1L, 0L, 3)) //
+                .thenReturn(projections);
+
+        SubscriptionResponseInformation response = subscriptionService //
+                .findAllSubscriptionProjections(List.of("email", "email"), 1L, null, null);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertNull(response.getSubscriptionData());
+        Assertions.assertEquals(List.of(Map.of("email", "1@test.com"), Map.of("email", "2@test.com")), //
+                response.getProjectedData());
+        Assertions.assertEquals("2", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals("2", response.getPayload().get(HEADER_NEXT_CURSOR));
+    }
+
+    @Test
+    public void testGetAllProjectionsOfUnknownFields() {
+        SubscriptionResponseInformation response = subscriptionService //
+                .findAllSubscriptionProjections(List.of("email", "password"), null, null, null);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, response.getCode());
+        Assertions.assertTrue(response.getMessage().contains("password"));
+        verify(mockRepository, never()).findProjectedPage(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void testFindSubscriptionProjectionById() {
+        Map<String, Object> projection = Map.of("email", "a@test.com", "newsletterId", 1L);
+
+        when(mockRepository.findProjectedById(List.of("email", "newsletterId"), 5L)) //
+                .thenReturn(Optional.of(projection));
+
+        SubscriptionResponseInformation response = subscriptionService //
+                .findSubscriptionProjectionById(List.of("email", "newsletterId"), 5L);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertEquals(List.of(projection), response.getProjectedData());
+        Assertions.assertEquals("5", response.getPayload().get(HEADER_ID_FOUND));
+
+        response = subscriptionService.findSubscriptionProjectionById(List.of("email"), 6L);
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, response.getCode());
+        Assertions.assertNull(response.getProjectedData());
+    }
+
+    @Test
+    public void testCountSubscriptionsWithFilters() {
+        when(mockRepository.countSubscriptions(1L, true)).thenReturn(3L);
+
+        SubscriptionResponseInformation response = subscriptionService.countSubscriptions(1L, true);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertNull(response.getSubscriptionData());
+        Assertions.assertEquals("3", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals("false", response.getPayload().get(HEADER_AMOUNT_ESTIMATED));
+        verify(mockRepository, never()).estimateCount();
+    }
+
+    @Test
+    public void testCountSubscriptionsOfSmallTable() {
+        when(mockRepository.estimateCount()).thenReturn(10L);
+        when(mockRepository.countSubscriptions(null, null)).thenReturn(12L);
+
+        SubscriptionResponseInformation response = subscriptionService.countSubscriptions(null, null);
+
+        Assertions.assertEquals("12", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals("false", response.getPayload().get(HEADER_AMOUNT_ESTIMATED));
+    }
+
+    @Test
+    public void testCountSubscriptionsEstimated() {
+        when(mockRepository.estimateCount()).thenReturn(5000L);
+
+        subscriptionService.countSubscriptions(null, null);
+        SubscriptionResponseInformation response = subscriptionService.countSubscriptions(null, null);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertEquals("5000", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals("true", response.getPayload().get(HEADER_AMOUNT_ESTIMATED));
+        // The estimate is cached, and the table is not counted
+        verify(mockRepository, times(1)).estimateCount();
+        verify(mockRepository, never()).countSubscriptions(any(), any());
+    }
+
+    @Test
+    public void testExportSubscriptions() throws Exception {
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+        subscriptions.add(TestUtils.generateRandomSubscriptionWithMandatoryData());
+
+        when(mockRepository.streamAll()).thenReturn(subscriptions.stream());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long exported = subscriptionService.exportSubscriptions(outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n", -1);
+
+        Assertions.assertEquals(3, exported);
+        Assertions.assertEquals(4, lines.length);
+        Assertions.assertEquals("", lines[3]);
+
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Assertions.assertEquals(TestUtils.asJsonString(subscriptions.get(i)), lines[i]);
+            verify(mockEntityManager).detach(subscriptions.get(i));
+        }
     }
 
     @Test
@@ -96,6 +319,23 @@ public class SubscriptionServiceTest {
         Assertions.assertEquals(null, expectedKoResponse.getPayload().get(HEADER_ID_FOUND));
     }
 
+    @Test
+    public void testFindSubscriptionByEmailDefinitelyAbsent() {
+        String missingEmail = "failingTest@test.test";
+        String falsePositiveEmail = "falsePositive@test.test";
+
+        when(mockEmailFilter.isDefinitelyAbsent(missingEmail)).thenReturn(true);
+        when(mockRepository.findByEmail(falsePositiveEmail)).thenReturn(Optional.empty());
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, subscriptionService.findSubscriptionByEmail(missingEmail).getCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, subscriptionService.findSubscriptionByEmail(falsePositiveEmail) //
+                .getCode());
+
+        // Only the email that may be present is looked up, and it turned out to be a false positive
+        verify(mockRepository, never()).findByEmail(missingEmail);
+        verify(mockEmailFilter, times(1)).recordFalsePositive();
+    }
+
     @Test
     public void testFindSubscriptionById() {
         Subscription present = TestUtils.generateRandomSubscriptionWithMandatoryData();
@@ -124,13 +364,44 @@ public class SubscriptionServiceTest {
         Assertions.assertEquals(null, expectedKoResponse.getPayload().get(HEADER_ID_FOUND));
     }
 
+    @Test
+    public void testFindSubscriptionByIdIsCached() {
+        Subscription present = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        when(mockRepository.findById(present.getSubscriptionId())).thenReturn(Optional.of(present));
+        when(mockRepository.findById(100L)).thenReturn(Optional.empty());
+        when(mockRepository.deleteAndReturnById(present.getSubscriptionId())).thenReturn(Optional.of(present));
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(HttpStatus.OK, subscriptionService //
+                    .findSubscriptionById(present.getSubscriptionId()).getCode());
+            Assertions.assertEquals(HttpStatus.NOT_FOUND, subscriptionService.findSubscriptionById(100L).getCode());
+        }
+
+        // Both the found entry and the miss are only read once
+        verify(mockRepository, times(1)).findById(present.getSubscriptionId());
+        verify(mockRepository, times(1)).findById(100L);
+
+        // Only the id is cached, the email is left to its own lookups
+        Assertions.assertTrue(cache.getIfPresentByEmail(present.getEmail()).isEmpty());
+
+        // Deleting evicts the entry
+        subscriptionService.deleteSubscriptionById(present.getSubscriptionId());
+        subscriptionService.findSubscriptionById(present.getSubscriptionId());
+        verify(mockRepository, times(2)).findById(present.getSubscriptionId());
+
+        // Statistics are published
+        Assertions.assertEquals(4.0, meterRegistry.get("cache.gets") //
+                .tags("cache", SubscriptionCache.BY_ID_CACHE_NAME, "result", "hit").functionCounter().count());
+    }
+
     @Test
     public void testDeleteSubscriptionByEmail() {
         Subscription present = TestUtils.generateRandomSubscriptionWithMandatoryData();
         String missingEmail = "failingTest@test.test";
 
-        when(mockRepository.findByEmail(present.getEmail())).thenReturn(Optional.of(present));
-        when(mockRepository.findByEmail(missingEmail)).thenReturn(Optional.empty());
+        when(mockRepository.deleteAndReturnByEmail(present.getEmail())).thenReturn(Optional.of(present));
+        when(mockRepository.deleteAndReturnByEmail(missingEmail)).thenReturn(Optional.empty());
 
         SubscriptionResponseInformation expectedOkResponse = subscriptionService //
                 .deleteSubscriptionByEmail(present.getEmail());
@@ -152,8 +423,8 @@ public class SubscriptionServiceTest {
         Subscription present = TestUtils.generateRandomSubscriptionWithMandatoryData();
         Subscription absent = TestUtils.generateRandomSubscriptionWithMandatoryData();
 
-        when(mockRepository.findById(present.getSubscriptionId())).thenReturn(Optional.of(present));
-        when(mockRepository.findById(absent.getSubscriptionId())).thenReturn(Optional.empty());
+        when(mockRepository.deleteAndReturnById(present.getSubscriptionId())).thenReturn(Optional.of(present));
+        when(mockRepository.deleteAndReturnById(absent.getSubscriptionId())).thenReturn(Optional.empty());
 
         SubscriptionResponseInformation expectedOkResponse = subscriptionService.deleteSubscriptionById(present.getSubscriptionId());
         SubscriptionResponseInformation expectedKoResponse = subscriptionService.deleteSubscriptionById(absent.getSubscriptionId());
@@ -167,6 +438,50 @@ public class SubscriptionServiceTest {
         Assertions.assertNotNull(expectedOkResponse.getSubscriptionData());
         Assertions.assertEquals(1, expectedOkResponse.getSubscriptionData().size());
         Assertions.assertEquals(present, expectedOkResponse.getSubscriptionData().get(0));
+
+        // The entity is not loaded before deleting it, and the other replicas are told
+        verify(mockRepository, never()).findById(any());
+        verify(mockCacheBus).publishDeleted(present);
+        verify(mockRepository, never()).delete(any(Subscription.class));
+    }
+
+    @Test
+    public void testDeleteSubscriptionsByIds() {
+        Subscription first = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription second = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription third = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        List<Long> firstChunk = List.of(first.getSubscriptionId(), 100L);
+        List<Long> secondChunk = List.of(second.getSubscriptionId(), third.getSubscriptionId());
+
+        cache.put(first);
+        when(mockRepository.deleteAndReturnByIds(firstChunk)).thenReturn(List.of(first));
+        when(mockRepository.deleteAndReturnByIds(secondChunk)).thenReturn(List.of(second, third));
+
+        // Repeated ids are only deleted once
+        SubscriptionResponseInformation response = subscriptionService.deleteSubscriptionsByIds(List.of( //
+                first.getSubscriptionId(), 100L, first.getSubscriptionId(), second.getSubscriptionId(), //
+                third.getSubscriptionId()));
+
+        Assertions.assertEquals(HttpStatus.OK, response.getCode());
+        Assertions.assertEquals(List.of(first, second, third), response.getSubscriptionData());
+        Assertions.assertEquals("3", response.getPayload().get(HEADER_DELETED_AMOUNT));
+
+        // Deleted in chunks, and evicted from every replica
+        verify(mockRepository).deleteAndReturnByIds(firstChunk);
+        verify(mockRepository).deleteAndReturnByIds(secondChunk);
+        verify(mockCacheBus).publishAllDeleted(List.of(first));
+        verify(mockCacheBus).publishAllDeleted(List.of(second, third));
+        Assertions.assertTrue(cache.getIfPresentByEmail(first.getEmail()).isEmpty());
+        Assertions.assertTrue(readYourWrites.wasRecentlyWritten(third.getSubscriptionId()));
+
+        // Nothing deleted
+        when(mockRepository.deleteAndReturnByIds(List.of(100L))).thenReturn(List.of());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, subscriptionService.deleteSubscriptionsByIds(List.of(100L)).getCode());
+
+        // No ids, or too many
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, subscriptionService.deleteSubscriptionsByIds(List.of()).getCode());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, subscriptionService //
+                .deleteSubscriptionsByIds(List.of(1L, 2L, 3L, 4L, 5L, 6L)).getCode());
     }
 
     @Test
@@ -176,9 +491,8 @@ public class SubscriptionServiceTest {
         Subscription absent = TestUtils.generateRandomSubscription(missingEmail);
 
         when(mockRepository.findByEmail(present.getEmail())).thenReturn(Optional.of(present));
-        when(mockRepository.findByEmail(missingEmail)).thenReturn(Optional.empty());
-        when(mockRepository.save(any(Subscription.class))) //
-                .thenAnswer(returnItem -> returnItem.getArgument(0));
+        when(mockRepository.insertIfAbsent(present)).thenReturn(Optional.empty());
+        when(mockRepository.insertIfAbsent(absent)).thenReturn(Optional.of(absent));
 
         SubscriptionResponseInformation expectedFoundResponse = subscriptionService.createSubscription(present);
         SubscriptionResponseInformation expectedCreatedResponse = subscriptionService.createSubscription(absent);
@@ -207,7 +521,148 @@ public class SubscriptionServiceTest {
 
         Assertions.assertEquals(expectedFoundResponse.getSubscriptionData().get(0).getSubscriptionId(), //
                 Long.valueOf(expectedFoundResponse.getPayload().get(HEADER_ID_FOUND).toString()));
+
+        // The existing entry is only read when nothing was inserted
+        verify(mockRepository, never()).findByEmail(missingEmail);
+        verify(mockCacheBus).publishCreated(List.of(absent));
+        Assertions.assertTrue(readYourWrites.wasRecentlyWritten(absent.getEmail()));
+        Assertions.assertFalse(readYourWrites.wasRecentlyWritten(present.getEmail()));
+        verify(mockEmailFilter).add(absent.getEmail());
+        verify(mockRepository, never()).save(any(Subscription.class));
     }
-}
 
+    @Test
+    public void testCreateSubscriptionCached() {
+        Subscription present = TestUtils.generateRandomSubscriptionWithMandatoryData();
+        Subscription absent = TestUtils.generateRandomSubscription("failingTest@test.test");
+
+        when(mockRepository.findByEmail(absent.getEmail())).thenReturn(Optional.empty());
+        when(mockRepository.insertIfAbsent(present)).thenReturn(Optional.of(present));
+        when(mockRepository.insertIfAbsent(absent)).thenReturn(Optional.of(absent));
+
+        // A cached miss does not prevent the creation, and the created entry replaces it
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, subscriptionService.findSubscriptionByEmail(absent.getEmail()).getCode());
+        Assertions.assertEquals(HttpStatus.CREATED, subscriptionService.createSubscription(absent).getCode());
+        Assertions.assertEquals(HttpStatus.OK, subscriptionService.findSubscriptionByEmail(absent.getEmail()).getCode());
+
+        // Once created, repeating the request does not reach the database
+        Assertions.assertEquals(HttpStatus.CREATED, subscriptionService.createSubscription(present).getCode());
+        SubscriptionResponseInformation repeated = subscriptionService.createSubscription(present);
+
+        Assertions.assertEquals(HttpStatus.FOUND, repeated.getCode());
+        Assertions.assertEquals(present.getSubscriptionId().toString(), repeated.getPayload().get(HEADER_ID_FOUND));
+        verify(mockRepository, times(1)).insertIfAbsent(present);
+        verify(mockRepository, never()).findByEmail(present.getEmail());
+    }
+
+    @Test
+    public void testCreateSubscriptionDeletedConcurrently() {
+        Subscription subscription = TestUtils.generateRandomSubscriptionWithMandatoryData();
+
+        // The conflicting entry disappears before it can be read, so the insertion is retried
+        when(mockRepository.insertIfAbsent(subscription)).thenReturn(Optional.empty(), Optional.of(subscription));
+        when(mockRepository.findByEmail(subscription.getEmail())).thenReturn(Optional.empty());
+
+        SubscriptionResponseInformation response = subscriptionService.createSubscription(subscription);
+
+        Assertions.assertEquals(HttpStatus.CREATED, response.getCode());
+        Assertions.assertEquals(subscription, response.getSubscriptionData().get(0));
+        verify(mockRepository, times(2)).insertIfAbsent(subscription);
+
+        when(mockRepository.insertIfAbsent(subscription)).thenReturn(Optional.empty());
+        cache.evictAll();
+
+        Assertions.assertThrows(ConcurrencyFailureException.class, //
+                () -> subscriptionService.createSubscription(subscription));
+    }
+
+    @Test
+    public void testCreateSubscriptions() {
+        Subscription absent = TestUtils.generateRandomSubscription("absent@test.test");
+        Subscription present = TestUtils.generateRandomSubscription("present@test.test");
+        Subscription repeated = TestUtils.generateRandomSubscription("absent@test.test");
+        Subscription invalid = TestUtils.generateRandomSubscription(null);
+
+        Subscription persisted = TestUtils.generateRandomSubscription("present@test.test");
+
+        when(mockRepository.findByEmailIn(any())).thenReturn(List.of(persisted));
+        when(mockRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Subscription> saved = invocation.getArgument(0);
+            saved.forEach(subscription -> subscription.setSubscriptionId(TestUtils.id++));
+            return saved;
+        });
+
+        SubscriptionResponseInformation response = subscriptionService //
+                .createSubscriptions(List.of(absent, present, repeated, invalid));
+
+        Assertions.assertEquals(HttpStatus.CREATED, response.getCode());
+
+        // Only the new email is created, once
+        Assertions.assertEquals(1, response.getSubscriptionData().size());
+        Assertions.assertEquals(absent, response.getSubscriptionData().get(0));
+
+        List<SubscriptionBatchItemResult> results = ((SubscriptionBatchResponseInformation) response).getItemResults();
+
+        Assertions.assertEquals(4, results.size());
+        Assertions.assertEquals(HttpStatus.CREATED, results.get(0).getCode());
+        Assertions.assertEquals(absent.getSubscriptionId(), results.get(0).getSubscriptionId());
+        Assertions.assertEquals(HttpStatus.FOUND, results.get(1).getCode());
+        Assertions.assertEquals(persisted.getSubscriptionId(), results.get(1).getSubscriptionId());
+        Assertions.assertEquals(HttpStatus.FOUND, results.get(2).getCode());
+        Assertions.assertEquals(absent.getSubscriptionId(), results.get(2).getSubscriptionId());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, results.get(3).getCode());
+        Assertions.assertNull(results.get(3).getSubscriptionId());
 
+        // Payload (headers)
+        Assertions.assertEquals("1", response.getPayload().get(HEADER_CREATED_AMOUNT));
+        Assertions.assertEquals("2", response.getPayload().get(HEADER_AMOUNT));
+        Assertions.assertEquals("1", response.getPayload().get(HEADER_INVALID_AMOUNT));
+
+        // Their notifications are enqueued in the same transaction
+        verify(mockOutboxRepository).enqueue(List.of(absent.getSubscriptionId()));
+    }
+
+    @Test
+    public void testCreateSubscriptionsOnlyLooksUpTheEmailsMaybePresent() {
+        Subscription absent = TestUtils.generateRandomSubscription("absent@test.test");
+        Subscription present = TestUtils.generateRandomSubscription("present@test.test");
+        Subscription persisted = TestUtils.generateRandomSubscription("present@test.test");
+
+        when(mockEmailFilter.isDefinitelyAbsent("absent@test.test")).thenReturn(true);
+        when(mockRepository.findByEmailIn(List.of("present@test.test"))).thenReturn(List.of(persisted));
+        when(mockRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Subscription> saved = invocation.getArgument(0);
+            saved.forEach(subscription -> subscription.setSubscriptionId(TestUtils.id++));
+            return saved;
+        });
+
+        SubscriptionResponseInformation response = subscriptionService.createSubscriptions(List.of(absent, present));
+
+        Assertions.assertEquals(List.of(absent), response.getSubscriptionData());
+        verify(mockRepository).findByEmailIn(List.of("present@test.test"));
+        verify(mockEmailFilter, never()).recordFalsePositive();
+
+        // Nothing is looked up if every email is definitely absent
+        Subscription other = TestUtils.generateRandomSubscription("other@test.test");
+        when(mockEmailFilter.isDefinitelyAbsent("other@test.test")).thenReturn(true);
+
+        subscriptionService.createSubscriptions(List.of(other));
+
+        verify(mockRepository, times(1)).findByEmailIn(any());
+    }
+
+    @Test
+    public void testCreateSubscriptionsTooMany() {
+        List<Subscription> subscriptions = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            subscriptions.add(TestUtils.generateRandomSubscription(i + "@test.test"));
+        }
+
+        SubscriptionResponseInformation response = subscriptionService.createSubscriptions(subscriptions);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, response.getCode());
+        Assertions.assertNull(response.getSubscriptionData());
+        verify(mockRepository, never()).saveAll(any());
+    }
+}
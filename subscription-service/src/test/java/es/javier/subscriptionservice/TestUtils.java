@@ -77,6 +77,10 @@ public class TestUtils {
         return MAPPER.writeValueAsString(subscription);
     }
 
+    public static String asJsonString(List<Subscription> subscriptions) throws JsonProcessingException {
+        return MAPPER.writeValueAsString(subscriptions);
+    }
+
     private static String getRandomName() {
         return NAMES[RANDOM.nextInt(NAMES.length)];
     }
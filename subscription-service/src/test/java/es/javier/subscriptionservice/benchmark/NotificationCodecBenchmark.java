@@ -0,0 +1,96 @@
+package es.javier.subscriptionservice.benchmark;
+
+import es.javier.subscriptionservice.config.Jackson2CborMessageConverter;
+import es.javier.subscriptionservice.model.Subscription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding a notification in every supported content type. The size of the messages is printed
+ * before running the benchmarks.
+ * It is not run by the tests. To run it: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=es.javier.subscriptionservice.benchmark.NotificationCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationCodecBenchmark {
+
+    @Param({MessageProperties.CONTENT_TYPE_JSON, Jackson2CborMessageConverter.CONTENT_TYPE_CBOR})
+    public String contentType;
+
+    private MessageConverter converter;
+
+    private Subscription subscription;
+
+    private Message message;
+
+    @Setup
+    public void setup() {
+        converter = converter(contentType);
+        subscription = subscription();
+        message = converter.toMessage(subscription, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message encode() {
+        return converter.toMessage(subscription, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object decode() {
+        return converter.fromMessage(message);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (String contentType : new String[]{MessageProperties.CONTENT_TYPE_JSON, //
+                Jackson2CborMessageConverter.CONTENT_TYPE_CBOR}) {
+            Message message = converter(contentType).toMessage(subscription(), new MessageProperties());
+            System.out.printf("%s: %d bytes per message%n", contentType, message.getBody().length);
+        }
+
+        new Runner(new OptionsBuilder().include(NotificationCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static MessageConverter converter(String contentType) {
+        return Jackson2CborMessageConverter.CONTENT_TYPE_CBOR.equals(contentType) //
+                ? new Jackson2CborMessageConverter() : new Jackson2JsonMessageConverter();
+    }
+
+    private static Subscription subscription() {
+        Subscription subscription = new Subscription();
+
+        subscription.setSubscriptionId(1234567L);
+        subscription.setEmail("jane.doe@example.com");
+        subscription.setFirstName("Jane");
+        subscription.setGender("F");
+        subscription.setConsent(true);
+        subscription.setBirthdate(LocalDate.of(1990, 5, 17));
+        subscription.setNewsletterId(42L);
+
+        return subscription;
+    }
+
+}